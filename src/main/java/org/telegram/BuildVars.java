@@ -1,5 +1,8 @@
 package org.telegram;
 
+import org.telegram.database.StateStore;
+import org.telegram.database.WriteBehindQueue;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,10 +33,62 @@ public class BuildVars {
 
     public static final String pathToLogs = "./";
 
-    public static final String linkDB = "jdbc:mysql://localhost:3306/YOURDATABSENAME?useUnicode=true&characterEncoding=UTF-8";
+    public static final StateStore.Type stateStoreType = StateStore.Type.JDBC; ///< Where the state of the bots is stored
+    public static final String stateStoreDirectory = "./state/"; ///< Snapshots and log of the FILE state store
+    public static final int stateLogSegmentBytes = 64 * 1024 * 1024; ///< Size of every log segment, a snapshot is written when one is full
+    public static final long stateLogSyncMillis = 10; ///< Changes appended to the log are synced to disk together every this time
+    public static final boolean stateLogSyncWrites = false; ///< Wait for changes to be synced, otherwise a machine crash loses the last sync interval
+    public static final String linkDB = "jdbc:mysql://localhost:3306/YOURDATABSENAME?useUnicode=true&characterEncoding=UTF-8&useServerPrepStmts=true&rewriteBatchedStatements=true"; ///< Batched writes are sent in a single round trip
     public static final String controllerDB = "com.mysql.cj.jdbc.Driver";
     public static final String userDB = "<your-database-user>";
     public static final String password = "<your-databas-user-password>";
+    public static final int dbPoolMinSize = 2; ///< Connections kept open even when idle
+    public static final int dbPoolMaxSize = 10; ///< Max connections open at the same time
+    public static final long dbPoolAcquireTimeoutMillis = 5000; ///< Max wait for a free connection
+    public static final long dbPoolIdleTimeoutMillis = 600000; ///< Idle connections above min size are closed after this
+    public static final long dbPoolLeakDetectionMillis = 60000; ///< Warn about connections borrowed longer than this, 0 to disable
+    public static final int dbStatementCacheSize = 64; ///< Prepared statements kept open per pooled connection
+    public static final int weatherStateCacheSize = 100000; ///< Weather bot conversation states kept in memory
+    public static final long weatherStateCacheTtlMillis = 3600000; ///< Cached weather states are read again from db after this
+    public static final int weatherOptionsCacheSize = 200000; ///< Users whose weather options are kept in memory
+    public static final WriteBehindQueue.Durability dbWriteDurability = WriteBehindQueue.Durability.BOUNDEDLOSS; ///< SYNC writes on the update thread, ASYNC and BOUNDEDLOSS write behind
+    public static final int dbWriteBatchSize = 500; ///< Pending writes that trigger a flush
+    public static final long dbWriteFlushMillis = 200; ///< Max time a write waits to be flushed
+    public static final int dbWriteMaxPending = 10000; ///< With BOUNDEDLOSS, writers wait when this many writes are pending
+    public static final long weatherOptionsCacheTtlMillis = 86400000; ///< Cached weather options are read again from db after this
+    public static final int recentCitiesCacheSize = 200000; ///< Users whose recent weather cities are kept in memory
+    public static final long recentCitiesCacheTtlMillis = 86400000; ///< Cached recent cities are read again from db after this
+    public static final long channelSessionTtlMillis = 3600000; ///< Unfinished channel conversations are forgotten after this
+    public static final long languageSessionTtlMillis = 600000; ///< Unfinished language selections are forgotten after this
+    public static final long directionsSessionTtlMillis = 86400000; ///< Stored directions conversations not updated for this long are purged
+    public static final long filesSessionTtlMillis = 86400000; ///< Stored files conversations not updated for this long are purged
+    public static final long weatherSessionTtlMillis = 2592000000L; ///< Stored weather conversation states not updated for this long are purged
+    public static final long sessionPurgeIntervalMillis = 3600000; ///< Time between purges of expired stored conversations
+    public static final long sessionExpiryIntervalMillis = 60000; ///< Time between purges of expired conversations kept in memory
+    public static final long timerTickMillis = 100; ///< Resolution of the scheduled tasks
+    public static final int timerWheelSlots = 512; ///< Ticks in a turn of every level of the timer wheel
+    public static final int timerWorkerThreads = 4; ///< Threads running the scheduled tasks
+    public static final int outboundBotMessagesPerSecond = 30; ///< Max requests per second sent to Telegram by every bot
+    public static final int outboundChatMessagesPerSecond = 1; ///< Sustained requests per second sent by a bot to the same chat
+    public static final int outboundChatBurst = 3; ///< Requests that can be sent at once by a bot to the same chat before throttling
+    public static final int outboundSenderThreads = 8; ///< Threads performing the throttled requests
+    public static final int outboundMaxRetries = 3; ///< Times a request is retried after a "Too Many Requests" answer
+    public static final int updatesMaxInFlight = 256; ///< Max updates processed at the same time by the concurrent consumers
+    public static final int updatesPlatformThreads = 32; ///< Threads processing updates when virtual threads aren't available
+    public static final int httpMaxRequests = 128; ///< Max asynchronous http requests running at the same time
+    public static final int httpMaxRequestsPerHost = 32; ///< Max asynchronous http requests running at the same time to the same host
+    public static final int httpMaxIdleConnections = 32; ///< Idle http connections kept open to be reused
+    public static final long httpKeepAliveSeconds = 60; ///< Time an idle http connection is kept open
+    public static final int weatherReaderThreads = 4; ///< Threads turning weather responses into messages and saving recent cities
+    public static final int weatherAlertsMaxInFlight = 8; ///< Max alert forecasts fetched at the same time, below the requests per host
+    public static final int weatherAlertsMaxAttempts = 3; ///< Times the forecast of an alert is fetched before skipping its users
+    public static final String raeCacheDirectory = "./raecache/"; ///< Directory where RAE definitions are cached
+    public static final int raeCacheMemorySize = 10000; ///< RAE queries whose definitions are kept in memory
+    public static final long raeCacheTtlMillis = 604800000; ///< Cached RAE definitions are fetched again after this
+    public static final int raeCacheDiskSize = 100000; ///< RAE queries whose definitions are kept in disk, the oldest are deleted first
+    public static final long raeCacheSweepMillis = 3600000; ///< Time between deletions of expired RAE definitions from disk
+    public static final String raeWordIndexFile = "./raecache/words.idx"; ///< File with the RAE words suggested while typing
+    public static final String localisationDirectory = "./localisation/"; ///< strings_*.properties here extend the bundled ones and are reloaded on change
 
     static {
         // Add elements to ADMIN array here
@@ -2,6 +2,7 @@ package org.telegram.commands;
 
 import lombok.extern.slf4j.Slf4j;
 import org.telegram.database.DatabaseManager;
+import org.telegram.database.StateStore;
 import org.telegram.telegrambots.extensions.bots.commandbot.commands.BotCommand;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Chat;
@@ -22,7 +23,7 @@ public class StartCommand extends BotCommand {
 
     @Override
     public void execute(TelegramClient telegramClient, User user, Chat chat, String[] strings) {
-        DatabaseManager databseManager = DatabaseManager.getInstance();
+        StateStore databseManager = DatabaseManager.getInstance();
         StringBuilder messageBuilder = new StringBuilder();
 
         String userName = user.getFirstName() + " " + user.getLastName();
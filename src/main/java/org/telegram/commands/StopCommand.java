@@ -2,6 +2,7 @@ package org.telegram.commands;
 
 import lombok.extern.slf4j.Slf4j;
 import org.telegram.database.DatabaseManager;
+import org.telegram.database.StateStore;
 import org.telegram.telegrambots.extensions.bots.commandbot.commands.BotCommand;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Chat;
@@ -29,7 +30,7 @@ public class StopCommand extends BotCommand {
 
     @Override
     public void execute(TelegramClient telegramClient, User user, Chat chat, String[] arguments) {
-        DatabaseManager dbManager = DatabaseManager.getInstance();
+        StateStore dbManager = DatabaseManager.getInstance();
 
         if (dbManager.getUserStateForCommandsBot(user.getId())) {
             dbManager.setUserStateForCommandsBot(user.getId(), false);
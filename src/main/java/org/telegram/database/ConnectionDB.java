@@ -17,73 +17,271 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Ruben Bermudez
  * @version 2.0
- * Connector to database
+ * Connector to database, keeps a bounded pool of connections that are borrowed for each operation
  */
 @Slf4j
 public class ConnectionDB {
-    private final Connection currentConection;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2; ///< Max time to wait for a connection to answer a validation
+    private static final long VALIDATION_INTERVAL_MILLIS = 5000; ///< Idle time after which a connection is validated before lending it
+    private static final long MAINTENANCE_PERIOD_SECONDS = 30; ///< Period of idle eviction and leak detection
+
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakDetectionMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowedConnections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService maintenanceExecutor;
+    private volatile boolean closed = false;
 
     public ConnectionDB() {
-        this.currentConection = openConexion();
+        this(BuildVars.dbPoolMinSize, BuildVars.dbPoolMaxSize, BuildVars.dbPoolAcquireTimeoutMillis,
+                BuildVars.dbPoolIdleTimeoutMillis, BuildVars.dbPoolLeakDetectionMillis, BuildVars.dbStatementCacheSize);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param minSize              Connections kept open even if idle
+     * @param maxSize              Max connections open at the same time
+     * @param acquireTimeoutMillis Max time to wait for a free connection
+     * @param idleTimeoutMillis    Time after which an idle connection above minSize is closed
+     * @param leakDetectionMillis  Time after which a borrowed connection is reported as leaked, 0 to disable
+     * @param statementCacheSize   Prepared statements kept open per connection
+     */
+    public ConnectionDB(int minSize, int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis, long leakDetectionMillis,
+                        int statementCacheSize) {
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakDetectionMillis = leakDetectionMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(this.maxSize, true);
+
+        loadDriver();
+        fillPool();
+
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-pool-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenanceExecutor.scheduleWithFixedDelay(this::runMaintenance, MAINTENANCE_PERIOD_SECONDS,
+                MAINTENANCE_PERIOD_SECONDS, TimeUnit.SECONDS);
     }
 
-    private Connection openConexion() {
-        Connection connection = null;
+    private void loadDriver() {
         try {
             Class.forName(BuildVars.controllerDB).getDeclaredConstructor().newInstance();
-            connection = DriverManager.getConnection(BuildVars.linkDB, BuildVars.userDB, BuildVars.password);
-        } catch (SQLException | ClassNotFoundException | IllegalAccessException | InstantiationException |
+        } catch (ClassNotFoundException | IllegalAccessException | InstantiationException |
                  NoSuchMethodException | InvocationTargetException e) {
-            log.error("Error opening connection", e);
+            log.error("Error loading database driver", e);
         }
+    }
 
-        return connection;
+    private PooledConnection newPooledConnection() throws SQLException {
+        final Connection connection = DriverManager.getConnection(BuildVars.linkDB, BuildVars.userDB, BuildVars.password);
+        return new PooledConnection(this, connection, statementCacheSize);
     }
 
-    public void closeConexion() {
+    /**
+     * Run a query with a cached prepared statement of a borrowed connection
+     *
+     * @param query  Sql of the query
+     * @param binder Sets the parameters of the statement
+     * @param mapper Reads the results, the result set is closed afterwards
+     * @return Value returned by the mapper
+     * @throws SQLException If the query fails
+     */
+    public <T> T executeQuery(String query, StatementBinder binder, ResultSetMapper<T> mapper) throws SQLException {
+        try (PooledConnection connection = getConnection()) {
+            final PreparedStatement preparedStatement = connection.getPreparedStatement(query);
+            binder.bind(preparedStatement);
+            try (ResultSet result = preparedStatement.executeQuery()) {
+                return mapper.map(result);
+            }
+        }
+    }
+
+    /**
+     * Run an update with a cached prepared statement of a borrowed connection
+     *
+     * @param query  Sql of the update
+     * @param binder Sets the parameters of the statement
+     * @return Number of updated rows
+     * @throws SQLException If the update fails
+     */
+    public int executeUpdate(String query, StatementBinder binder) throws SQLException {
+        try (PooledConnection connection = getConnection()) {
+            final PreparedStatement preparedStatement = connection.getPreparedStatement(query);
+            binder.bind(preparedStatement);
+            return preparedStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Borrow a connection from the pool, it must be closed to give it back
+     *
+     * @return Connection ready to use
+     * @throws SQLException If no connection could be obtained before the acquire timeout
+     */
+    public PooledConnection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
         try {
-            this.currentConection.close();
-        } catch (SQLException e) {
-            log.error("Error closing the connection", e);
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis + "ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection", e);
         }
 
+        try {
+            PooledConnection pooledConnection;
+            while ((pooledConnection = idleConnections.pollFirst()) != null) {
+                if (isUsable(pooledConnection)) {
+                    return lend(pooledConnection);
+                }
+                discard(pooledConnection);
+            }
+            pooledConnection = newPooledConnection();
+            totalConnections.incrementAndGet();
+            return lend(pooledConnection);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
     }
 
-    public ResultSet runSqlQuery(String query) throws SQLException {
-        final Statement statement;
-        statement = this.currentConection.createStatement();
-        return statement.executeQuery(query);
+    private PooledConnection lend(PooledConnection pooledConnection) {
+        pooledConnection.markBorrowed(leakDetectionMillis > 0);
+        borrowedConnections.add(pooledConnection);
+        return pooledConnection;
     }
 
-    public Boolean executeQuery(String query) throws SQLException {
-        final Statement statement = this.currentConection.createStatement();
-        return statement.execute(query);
+    /**
+     * Get back a borrowed connection
+     *
+     * @param pooledConnection Connection returned
+     */
+    void release(PooledConnection pooledConnection) {
+        if (!borrowedConnections.remove(pooledConnection)) {
+            return;
+        }
+        try {
+            if (closed || !pooledConnection.resetForReuse()) {
+                discard(pooledConnection);
+            } else {
+                idleConnections.offerFirst(pooledConnection);
+            }
+        } finally {
+            permits.release();
+        }
     }
 
-    public PreparedStatement getPreparedStatement(String query) throws SQLException {
-        return this.currentConection.prepareStatement(query);
+    private boolean isUsable(PooledConnection pooledConnection) {
+        if (System.currentTimeMillis() - pooledConnection.getLastUsedAt() < VALIDATION_INTERVAL_MILLIS) {
+            return true;
+        }
+        return pooledConnection.isValid(VALIDATION_TIMEOUT_SECONDS);
     }
 
-    public PreparedStatement getPreparedStatement(String query, int flags) throws SQLException {
-        return this.currentConection.prepareStatement(query, flags);
+    private void discard(PooledConnection pooledConnection) {
+        totalConnections.decrementAndGet();
+        pooledConnection.closePhysical();
+    }
+
+    private void fillPool() {
+        while (!closed && totalConnections.get() < minSize && permits.tryAcquire()) {
+            try {
+                idleConnections.offerLast(newPooledConnection());
+                totalConnections.incrementAndGet();
+            } catch (SQLException e) {
+                log.error("Error opening connection", e);
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private void runMaintenance() {
+        try {
+            evictIdleConnections();
+            fillPool();
+            detectLeaks();
+        } catch (Exception e) {
+            log.error("Error running connection pool maintenance", e);
+        }
+    }
+
+    private void evictIdleConnections() {
+        final long now = System.currentTimeMillis();
+        Iterator<PooledConnection> iterator = idleConnections.descendingIterator();
+        while (iterator.hasNext() && totalConnections.get() > minSize) {
+            PooledConnection pooledConnection = iterator.next();
+            if (now - pooledConnection.getLastUsedAt() > idleTimeoutMillis && idleConnections.remove(pooledConnection)) {
+                discard(pooledConnection);
+            }
+        }
+    }
+
+    private void detectLeaks() {
+        if (leakDetectionMillis <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        for (PooledConnection pooledConnection : borrowedConnections) {
+            if (!pooledConnection.isLeakReported() && now - pooledConnection.getBorrowedAt() > leakDetectionMillis) {
+                pooledConnection.setLeakReported();
+                log.warn("Connection borrowed for more than {}ms, possible leak", leakDetectionMillis,
+                        pooledConnection.getBorrowTrace());
+            }
+        }
+    }
+
+    public void closeConexion() {
+        closed = true;
+        maintenanceExecutor.shutdownNow();
+        PooledConnection pooledConnection;
+        while ((pooledConnection = idleConnections.pollFirst()) != null) {
+            discard(pooledConnection);
+        }
     }
 
     public int checkVersion() {
         int max = 0;
-        try {
-            final DatabaseMetaData metaData = this.currentConection.getMetaData();
-            final ResultSet res = metaData.getTables(null, null, "",
-                    new String[]{"TABLE"});
-            while (res.next()) {
-                if (res.getString("TABLE_NAME").compareTo("Versions") == 0) {
-                    try(ResultSet result = runSqlQuery("SELECT Max(Version) FROM Versions")) {
-                        while (result.next()) {
-                            max = Math.max(max, result.getInt(1));
+        try (PooledConnection connection = getConnection()) {
+            final DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet res = metaData.getTables(null, null, "", new String[]{"TABLE"})) {
+                while (res.next()) {
+                    if (res.getString("TABLE_NAME").compareTo("Versions") == 0) {
+                        try (ResultSet result = connection.runSqlQuery("SELECT Max(Version) FROM Versions")) {
+                            while (result.next()) {
+                                max = Math.max(max, result.getInt(1));
+                            }
                         }
                     }
                 }
@@ -94,37 +292,13 @@ public class ConnectionDB {
         return max;
     }
 
-    /**
-     * Initilize a transaction in database
-     * @throws SQLException If initialization fails
-     */
-    public void initTransaction() throws SQLException {
-        this.currentConection.setAutoCommit(false);
-    }
-
-    /**
-     * Finish a transaction in database and commit changes
-     * @throws SQLException If a rollback fails
-     */
-    public void commitTransaction() throws SQLException {
-        try {
-            this.currentConection.commit();
-        } catch (SQLException e) {
-            if (this.currentConection != null) {
-                this.currentConection.rollback();
-            }
-        } finally {
-            this.currentConection.setAutoCommit(true);
-        }
+    @FunctionalInterface
+    public interface StatementBinder {
+        void bind(PreparedStatement preparedStatement) throws SQLException;
     }
 
-    public void rollbackTransaction() throws SQLException {
-        try {
-            this.currentConection.rollback();
-        } catch (SQLException e) {
-            log.error("Error rolling back the transaction", e);
-        } finally {
-            this.currentConection.setAutoCommit(true);
-        }
+    @FunctionalInterface
+    public interface ResultSetMapper<T> {
+        T map(ResultSet result) throws SQLException;
     }
 }
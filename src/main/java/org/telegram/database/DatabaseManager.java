@@ -8,31 +8,49 @@
 package org.telegram.database;
 
 import lombok.extern.slf4j.Slf4j;
+import org.telegram.BuildVars;
+import org.telegram.structure.ExpiringLruCache;
+import org.telegram.structure.RecentCities;
 import org.telegram.structure.WeatherAlert;
 
-import java.sql.PreparedStatement;
+import java.nio.file.Path;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Ruben Bermudez
  * @version 2.0
- * Database Manager to perform database operations
+ * Database Manager to perform database operations, the MySQL backend of the state store
  */
 @Slf4j
-public class DatabaseManager {
-    private static volatile DatabaseManager instance;
+public class DatabaseManager implements StateStore {
+    private static final int PRELOAD_BATCH_SIZE = 500;
+    private static final int PURGE_BATCH_SIZE = 10000;
+    private static volatile StateStore instance;
     private static volatile ConnectionDB connetion;
 
+    private final ExpiringLruCache<WeatherStateKey, Integer> weatherStates =
+            new ExpiringLruCache<>(BuildVars.weatherStateCacheSize, BuildVars.weatherStateCacheTtlMillis);
+    private final ExpiringLruCache<Long, String[]> userWeatherOptions =
+            new ExpiringLruCache<>(BuildVars.weatherOptionsCacheSize, BuildVars.weatherOptionsCacheTtlMillis);
+    private final ExpiringLruCache<Long, RecentCities> recentCities =
+            new ExpiringLruCache<>(BuildVars.recentCitiesCacheSize, BuildVars.recentCitiesCacheTtlMillis);
+    private final WriteBehindQueue writeBehind;
+
     /**
      * Private constructor (due to Singleton)
      */
     private DatabaseManager() {
         connetion = new ConnectionDB();
+        writeBehind = new WriteBehindQueue(connetion, BuildVars.dbWriteDurability, BuildVars.dbWriteBatchSize,
+                BuildVars.dbWriteFlushMillis, BuildVars.dbWriteMaxPending);
         final int currentVersion = connetion.checkVersion();
         log.info("Current db version: " + currentVersion);
         if (currentVersion < CreationStrings.version) {
@@ -43,14 +61,20 @@ public class DatabaseManager {
     /**
      * Get Singleton instance
      *
-     * @return instance of the class
+     * @return state store of the backend configured in BuildVars
      */
-    public static DatabaseManager getInstance() {
-        final DatabaseManager currentInstance;
+    public static StateStore getInstance() {
+        final StateStore currentInstance;
         if (instance == null) {
             synchronized (DatabaseManager.class) {
                 if (instance == null) {
-                    instance = new DatabaseManager();
+                    instance = switch (BuildVars.stateStoreType) {
+                        case JDBC -> new DatabaseManager();
+                        case FILE -> new FileStateStore(Path.of(BuildVars.stateStoreDirectory), BuildVars.stateLogSegmentBytes,
+                                BuildVars.stateLogSyncMillis, BuildVars.stateLogSyncWrites);
+                        case MEMORY -> new MemoryStateStore();
+                    };
+                    log.info("Using {} state store", BuildVars.stateStoreType);
                 }
                 currentInstance = instance;
             }
@@ -64,548 +88,707 @@ public class DatabaseManager {
      * Recreates the DB
      */
     private void recreateTable(int currentVersion) {
-        try {
-            connetion.initTransaction();
-            if (currentVersion == 0) {
-                currentVersion = createNewTables();
-            }
-            if (currentVersion == 1) {
-                currentVersion = updateToVersion2();
-            }
-            if (currentVersion == 2) {
-                currentVersion = updateToVersion3();
-            }
-            if (currentVersion == 3) {
-                currentVersion = updateToVersion4();
-            }
-            if (currentVersion == 4) {
-                currentVersion = updateToVersion5();
-            }
-            if (currentVersion == 5) {
-                currentVersion = updateToVersion6();
-            }
-            if (currentVersion == 6) {
-                currentVersion = updateToVersion7();
-            }
-            if (currentVersion == 7) {
-                currentVersion = updateToVersion8();
-            }
-            if (currentVersion == 8) {
-                currentVersion = updateToVersion8();
-            }
-            connetion.commitTransaction();
-        } catch (SQLException e) {
-            log.error("Error updating DB", e);
+        try (PooledConnection connection = connetion.getConnection()) {
             try {
-                connetion.rollbackTransaction();
-            } catch (SQLException ex) {
-                log.error("Error rollingback the transaction", ex);
+                connection.initTransaction();
+                if (currentVersion == 0) {
+                    currentVersion = createNewTables(connection);
+                }
+                if (currentVersion == 1) {
+                    currentVersion = updateToVersion2(connection);
+                }
+                if (currentVersion == 2) {
+                    currentVersion = updateToVersion3(connection);
+                }
+                if (currentVersion == 3) {
+                    currentVersion = updateToVersion4(connection);
+                }
+                if (currentVersion == 4) {
+                    currentVersion = updateToVersion5(connection);
+                }
+                if (currentVersion == 5) {
+                    currentVersion = updateToVersion6(connection);
+                }
+                if (currentVersion == 6) {
+                    currentVersion = updateToVersion7(connection);
+                }
+                if (currentVersion == 7) {
+                    currentVersion = updateToVersion8(connection);
+                }
+                if (currentVersion == 8) {
+                    currentVersion = updateToVersion9(connection);
+                }
+                if (currentVersion == 9) {
+                    currentVersion = updateToVersion10(connection);
+                }
+                connection.commitTransaction();
+            } catch (SQLException e) {
+                log.error("Error updating DB", e);
+                try {
+                    connection.rollbackTransaction();
+                } catch (SQLException ex) {
+                    log.error("Error rollingback the transaction", ex);
+                }
             }
+        } catch (SQLException e) {
+            log.error("Error getting connection to update DB", e);
         }
     }
 
-    private int updateToVersion2() throws SQLException {
-        connetion.executeQuery(CreationStrings.createRecentWeatherTable);
-        connetion.executeQuery(String.format(CreationStrings.insertCurrentVersion, 2));
+    private int updateToVersion2(PooledConnection connection) throws SQLException {
+        connection.executeQuery(CreationStrings.createRecentWeatherTable);
+        connection.executeQuery(String.format(CreationStrings.insertCurrentVersion, 2));
         return 2;
     }
 
-    private int updateToVersion3() throws SQLException {
-        connetion.executeQuery(CreationStrings.createDirectionsDatabase);
-        connetion.executeQuery(String.format(CreationStrings.insertCurrentVersion, 3));
+    private int updateToVersion3(PooledConnection connection) throws SQLException {
+        connection.executeQuery(CreationStrings.createDirectionsDatabase);
+        connection.executeQuery(String.format(CreationStrings.insertCurrentVersion, 3));
         return 3;
     }
 
-    private int updateToVersion4() throws SQLException {
-        connetion.executeQuery(CreationStrings.createLastUpdateDatabase);
-        connetion.executeQuery(String.format(CreationStrings.insertCurrentVersion, 4));
+    private int updateToVersion4(PooledConnection connection) throws SQLException {
+        connection.executeQuery(CreationStrings.createLastUpdateDatabase);
+        connection.executeQuery(String.format(CreationStrings.insertCurrentVersion, 4));
         return 4;
     }
 
-    private int updateToVersion5() throws SQLException {
-        connetion.executeQuery(CreationStrings.createUserLanguageDatabase);
-        connetion.executeQuery(String.format(CreationStrings.insertCurrentVersion, 5));
+    private int updateToVersion5(PooledConnection connection) throws SQLException {
+        connection.executeQuery(CreationStrings.createUserLanguageDatabase);
+        connection.executeQuery(String.format(CreationStrings.insertCurrentVersion, 5));
         return 5;
     }
 
-    private int updateToVersion6() throws SQLException {
-        connetion.executeQuery(CreationStrings.createWeatherStateTable);
-        connetion.executeQuery(CreationStrings.createUserWeatherOptionDatabase);
-        connetion.executeQuery(CreationStrings.createWeatherAlertTable);
-        connetion.executeQuery(String.format(CreationStrings.insertCurrentVersion, 6));
+    private int updateToVersion6(PooledConnection connection) throws SQLException {
+        connection.executeQuery(CreationStrings.createWeatherStateTable);
+        connection.executeQuery(CreationStrings.createUserWeatherOptionDatabase);
+        connection.executeQuery(CreationStrings.createWeatherAlertTable);
+        connection.executeQuery(String.format(CreationStrings.insertCurrentVersion, 6));
         return 6;
     }
 
-    private int updateToVersion7() throws SQLException {
-        connetion.executeQuery("ALTER TABLE WeatherState MODIFY chatId BIGINT NOT NULL");
-        connetion.executeQuery(String.format(CreationStrings.insertCurrentVersion, 7));
+    private int updateToVersion7(PooledConnection connection) throws SQLException {
+        connection.executeQuery("ALTER TABLE WeatherState MODIFY chatId BIGINT NOT NULL");
+        connection.executeQuery(String.format(CreationStrings.insertCurrentVersion, 7));
         return 7;
     }
 
-    private int updateToVersion8() throws SQLException {
-        connetion.executeQuery(CreationStrings.CREATE_COMMANDS_TABLE);
-        connetion.executeQuery(String.format(CreationStrings.insertCurrentVersion, 8));
-        return 8;
-    }
-
-    private int updateToVersion9() throws SQLException {
-        connetion.executeQuery("ALTER TABLE Files MODIFY COLUMN userId BIGINT;");
-        connetion.executeQuery("ALTER TABLE FilesUsers MODIFY COLUMN userId BIGINT;");
-        connetion.executeQuery("ALTER TABLE RecentWeather MODIFY COLUMN userId BIGINT;");
-        connetion.executeQuery("ALTER TABLE Directions MODIFY COLUMN userId BIGINT;");
-        connetion.executeQuery("ALTER TABLE UserLanguage MODIFY COLUMN userId BIGINT;");
-        connetion.executeQuery("ALTER TABLE UserWeatherOptions MODIFY COLUMN userId BIGINT;");
-        connetion.executeQuery("ALTER TABLE WeatherState MODIFY COLUMN userId BIGINT;");
-        connetion.executeQuery("ALTER TABLE WeatherAlert MODIFY COLUMN userId BIGINT;");
-        connetion.executeQuery("ALTER TABLE CommandUsers MODIFY COLUMN userId BIGINT;");
-        connetion.executeQuery(String.format(CreationStrings.insertCurrentVersion, 9));
+    private int updateToVersion8(PooledConnection connection) throws SQLException {
+        connection.executeQuery(CreationStrings.CREATE_COMMANDS_TABLE);
+        connection.executeQuery(String.format(CreationStrings.insertCurrentVersion, 8));
         return 8;
     }
 
-    private int createNewTables() throws SQLException {
-        connetion.executeQuery(CreationStrings.createVersionTable);
-        connetion.executeQuery(CreationStrings.createFilesTable);
-        connetion.executeQuery(String.format(CreationStrings.insertCurrentVersion, CreationStrings.version));
-        connetion.executeQuery(CreationStrings.createUsersForFilesTable);
-        connetion.executeQuery(CreationStrings.createRecentWeatherTable);
-        connetion.executeQuery(CreationStrings.createDirectionsDatabase);
-        connetion.executeQuery(CreationStrings.createUserLanguageDatabase);
-        connetion.executeQuery(CreationStrings.createWeatherStateTable);
-        connetion.executeQuery(CreationStrings.createUserWeatherOptionDatabase);
-        connetion.executeQuery(CreationStrings.createWeatherAlertTable);
-        connetion.executeQuery(CreationStrings.CREATE_COMMANDS_TABLE);
+    private int updateToVersion9(PooledConnection connection) throws SQLException {
+        connection.executeQuery("ALTER TABLE Files MODIFY COLUMN userId BIGINT;");
+        connection.executeQuery("ALTER TABLE FilesUsers MODIFY COLUMN userId BIGINT;");
+        connection.executeQuery("ALTER TABLE RecentWeather MODIFY COLUMN userId BIGINT;");
+        connection.executeQuery("ALTER TABLE Directions MODIFY COLUMN userId BIGINT;");
+        connection.executeQuery("ALTER TABLE UserLanguage MODIFY COLUMN userId BIGINT;");
+        connection.executeQuery("ALTER TABLE UserWeatherOptions MODIFY COLUMN userId BIGINT;");
+        connection.executeQuery("ALTER TABLE WeatherState MODIFY COLUMN userId BIGINT;");
+        connection.executeQuery("ALTER TABLE WeatherAlert MODIFY COLUMN userId BIGINT;");
+        connection.executeQuery("ALTER TABLE CommandUsers MODIFY COLUMN userId BIGINT;");
+        connection.executeQuery(String.format(CreationStrings.insertCurrentVersion, 9));
+        return 9;
+    }
+
+    private int updateToVersion10(PooledConnection connection) throws SQLException {
+        connection.executeQuery("ALTER TABLE Directions ADD COLUMN updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+                "ADD INDEX directionsUpdated (updated)");
+        connection.executeQuery("ALTER TABLE FilesUsers ADD COLUMN updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+                "ADD INDEX filesUsersUpdated (updated)");
+        connection.executeQuery("ALTER TABLE WeatherState ADD COLUMN updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+                "ADD INDEX weatherStateUpdated (updated)");
+        connection.executeQuery(String.format(CreationStrings.insertCurrentVersion, 10));
+        return 10;
+    }
+
+    private int createNewTables(PooledConnection connection) throws SQLException {
+        connection.executeQuery(CreationStrings.createVersionTable);
+        connection.executeQuery(CreationStrings.createFilesTable);
+        connection.executeQuery(String.format(CreationStrings.insertCurrentVersion, CreationStrings.version));
+        connection.executeQuery(CreationStrings.createUsersForFilesTable);
+        connection.executeQuery(CreationStrings.createRecentWeatherTable);
+        connection.executeQuery(CreationStrings.createDirectionsDatabase);
+        connection.executeQuery(CreationStrings.createUserLanguageDatabase);
+        connection.executeQuery(CreationStrings.createWeatherStateTable);
+        connection.executeQuery(CreationStrings.createUserWeatherOptionDatabase);
+        connection.executeQuery(CreationStrings.createWeatherAlertTable);
+        connection.executeQuery(CreationStrings.CREATE_COMMANDS_TABLE);
         return CreationStrings.version;
     }
 
+    @Override
     public boolean setUserStateForCommandsBot(Long userId, boolean active) {
         int updatedRows = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("INSERT INTO CommandUsers (userId, status) VALUES(?, ?) ON DUPLICATE KEY UPDATE status=?");
-            preparedStatement.setLong(1, userId);
-            preparedStatement.setInt(2, active ? 1 : 0);
-            preparedStatement.setInt(3, active ? 1 : 0);
-
-            updatedRows = preparedStatement.executeUpdate();
+            updatedRows = connetion.executeUpdate("INSERT INTO CommandUsers (userId, status) VALUES(?, ?) ON DUPLICATE KEY UPDATE status=?", preparedStatement -> {
+                preparedStatement.setLong(1, userId);
+                preparedStatement.setInt(2, active ? 1 : 0);
+                preparedStatement.setInt(3, active ? 1 : 0);
+            });
         } catch (SQLException e) {
             log.error("Error setting user state for commands bot", e);
         }
         return updatedRows > 0;
     }
 
+    @Override
     public boolean getUserStateForCommandsBot(Long userId) {
         int status = -1;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("Select status FROM CommandUsers WHERE userId=?");
-            preparedStatement.setLong(1, userId);
-            final ResultSet result = preparedStatement.executeQuery();
-            if (result.next()) {
-                status = result.getInt("status");
-            }
+            status = connetion.executeQuery("Select status FROM CommandUsers WHERE userId=?",
+                    preparedStatement -> preparedStatement.setLong(1, userId),
+                    result -> result.next() ? result.getInt("status") : -1);
         } catch (SQLException e) {
             log.error("Error getting user state for command bot", e);
         }
         return status == 1;
     }
 
+    @Override
     public boolean addFile(String fileId, Long userId, String caption) {
         int updatedRows = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("REPLACE INTO Files (fileId, userId, caption) VALUES(?, ?, ?)");
-            preparedStatement.setString(1, fileId);
-            preparedStatement.setLong(2, userId);
-            preparedStatement.setString(3, caption);
-
-            updatedRows = preparedStatement.executeUpdate();
+            updatedRows = connetion.executeUpdate("REPLACE INTO Files (fileId, userId, caption) VALUES(?, ?, ?)", preparedStatement -> {
+                preparedStatement.setString(1, fileId);
+                preparedStatement.setLong(2, userId);
+                preparedStatement.setString(3, caption);
+            });
         } catch (SQLException e) {
             log.error("Error getting file", e);
         }
         return updatedRows > 0;
     }
 
+    @Override
     public HashMap<String, String> getFilesByUser(Long userId) {
         HashMap<String, String> files = new HashMap<>();
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("SELECT * FROM Files WHERE userId = ?");
-            preparedStatement.setLong(1, userId);
-            final ResultSet result = preparedStatement.executeQuery();
-            while (result.next()) {
-                files.put(result.getString("fileId"), result.getString("caption"));
-            }
-            result.close();
+            connetion.executeQuery("SELECT * FROM Files WHERE userId = ?",
+                    preparedStatement -> preparedStatement.setLong(1, userId),
+                    result -> {
+                        while (result.next()) {
+                            files.put(result.getString("fileId"), result.getString("caption"));
+                        }
+                        return files;
+                    });
         } catch (SQLException e) {
             log.error("Error getting files for user", e);
         }
         return files;
     }
 
+    @Override
     public boolean addUserForFile(Long userId, int status) {
-        int updatedRows = 0;
-        try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("REPLACE INTO FilesUsers (userId, status) VALUES(?, ?)");
-            preparedStatement.setLong(1, userId);
-            preparedStatement.setInt(2, status);
-            updatedRows = preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            log.error("Error getting user for file", e);
-        }
-        return updatedRows > 0;
+        return writeBehind.write(new FilesUserKey(userId), new WriteBehindQueue.Statement(
+                "REPLACE INTO FilesUsers (userId, status) VALUES(?, ?)", preparedStatement -> {
+                    preparedStatement.setLong(1, userId);
+                    preparedStatement.setInt(2, status);
+                }));
     }
 
+    @Override
     public boolean deleteUserForFile(Long userId) {
-        int updatedRows = 0;
-        try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("DELETE FROM FilesUsers WHERE userId=?;");
-            preparedStatement.setLong(1, userId);
-
-            updatedRows = preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            log.error("Error deleting user file", e);
-        }
-        return updatedRows > 0;
+        return writeBehind.write(new FilesUserKey(userId), new WriteBehindQueue.Statement(
+                "DELETE FROM FilesUsers WHERE userId=?;", preparedStatement -> preparedStatement.setLong(1, userId)));
     }
 
+    @Override
     public int getUserStatusForFile(Long userId) {
+        writeBehind.flush(new FilesUserKey(userId));
         int status = -1;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("Select status FROM FilesUsers WHERE userId=?");
-            preparedStatement.setLong(1, userId);
-            final ResultSet result = preparedStatement.executeQuery();
-            if (result.next()) {
-                status = result.getInt("status");
-            }
+            status = connetion.executeQuery("Select status FROM FilesUsers WHERE userId=?",
+                    preparedStatement -> preparedStatement.setLong(1, userId),
+                    result -> result.next() ? result.getInt("status") : -1);
         } catch (SQLException e) {
             log.error("Error getting user status", e);
         }
         return status;
     }
 
+    @Override
+    public int purgeFilesUsersOlderThan(long cutoffMillis) {
+        return purgeOlderThan("FilesUsers", cutoffMillis);
+    }
+
+    @Override
     public boolean doesFileExists(String fileId) {
         boolean exists = false;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("Select fileID FROM Files WHERE fileId=?");
-            preparedStatement.setString(1, fileId);
-            final ResultSet result = preparedStatement.executeQuery();
-            exists = result.next();
+            exists = connetion.executeQuery("Select fileID FROM Files WHERE fileId=?",
+                    preparedStatement -> preparedStatement.setString(1, fileId),
+                    ResultSet::next);
         } catch (SQLException e) {
             log.error("Error checking file", e);
         }
         return exists;
     }
 
+    @Override
     public boolean deleteFile(String fileId) {
         int updatedRows = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("DELETE FROM Files WHERE fileId=?;");
-            preparedStatement.setString(1, fileId);
-
-            updatedRows = preparedStatement.executeUpdate();
+            updatedRows = connetion.executeUpdate("DELETE FROM Files WHERE fileId=?;",
+                    preparedStatement -> preparedStatement.setString(1, fileId));
         } catch (SQLException e) {
             log.error("Error deleting files", e);
         }
         return updatedRows > 0;
     }
 
+    /**
+     * Add a city to the recent cities of an user. The cities are kept in memory and written behind,
+     * successive changes of the same user that weren't written yet are coalesced in a single write.
+     */
+    @Override
     public boolean addRecentWeather(Long userId, Integer cityId, String cityName) {
-        int updatedRows = 0;
-        try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("REPLACE INTO RecentWeather (userId, cityId, cityName) VALUES(?, ?, ?)");
-            preparedStatement.setLong(1, userId);
-            preparedStatement.setInt(2, cityId);
-            preparedStatement.setString(3, cityName);
-            updatedRows = preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            log.error("Error adding recent weather", e);
+        final RecentCities loadedCities = getRecentCities(userId);
+        final RecentCities updatedCities;
+        synchronized (recentCities) {
+            RecentCities currentCities = recentCities.get(userId);
+            if (currentCities == null) {
+                currentCities = loadedCities;
+            }
+            if (currentCities.size() > 0 && currentCities.getCityId(0) == cityId && currentCities.getCityName(0).equals(cityName)) {
+                return true;
+            }
+            updatedCities = currentCities.add(cityId, cityName, System.currentTimeMillis());
+            recentCities.put(userId, updatedCities);
         }
-        cleanUpRecent(userId);
-        return updatedRows > 0;
+        return writeRecentCities(userId, updatedCities);
     }
 
-    public List<String> getRecentWeather(Long userId) {
-        List<String> recentWeather = new ArrayList<>();
-        try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("select * FROM RecentWeather WHERE userId=? order by date desc");
-            preparedStatement.setLong(1, userId);
-            final ResultSet result = preparedStatement.executeQuery();
-            while (result.next()) {
-                recentWeather.add(result.getString("cityName"));
-            }
-        } catch (SQLException e) {
-            log.error("Error getting recent weather", e);
+    /**
+     * Add a city to the recent cities of several users, loading the recent cities of the users not in
+     * memory with a few queries
+     */
+    @Override
+    public void addRecentWeather(Collection<Long> userIds, Integer cityId, String cityName) {
+        preloadRecentCities(userIds);
+        for (Long userId : userIds) {
+            addRecentWeather(userId, cityId, cityName);
         }
+    }
 
-        return recentWeather;
+    @Override
+    public List<String> getRecentWeather(Long userId) {
+        return getRecentCities(userId).getCityNames();
     }
 
-    private void cleanUpRecent(Long userId) {
-        try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("DELETE FROM RecentWeather WHERE userid = ? AND ID <= (SELECT ID FROM (SELECT id From RecentWeather where userId = ? ORDER BY id DESC LIMIT 1 OFFSET 4 ) AS T1 )");
-            preparedStatement.setLong(1, userId);
-            preparedStatement.setLong(2, userId);
-            preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            log.error("Error cleaning up recent user", e);
+    private RecentCities getRecentCities(Long userId) {
+        RecentCities cities = recentCities.get(userId);
+        if (cities == null) {
+            writeBehind.flush(new RecentCitiesKey(userId));
+            cities = readRecentCities(userId);
+            recentCities.put(userId, cities);
         }
+        return cities;
     }
 
-    public boolean addUserForDirection(Long userId, int status, int messageId, String origin) {
-        int updatedRows = 0;
-        try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("REPLACE INTO Directions (userId, status, messageId, origin) VALUES(?, ?, ?, ?)");
-            preparedStatement.setLong(1, userId);
-            preparedStatement.setInt(2, status);
-            preparedStatement.setInt(3, messageId);
-            if (origin == null || origin.isEmpty()) {
-                preparedStatement.setNull(4, Types.VARCHAR);
-            } else {
-                preparedStatement.setString(4, origin);
+    /**
+     * Load the recent cities of several users with a few queries so that following calls are served from memory
+     *
+     * @param userIds Users to load
+     */
+    private void preloadRecentCities(Collection<Long> userIds) {
+        final List<Long> pendingUsers = userIds.stream().distinct().filter(userId -> recentCities.get(userId) == null).toList();
+        if (pendingUsers.isEmpty()) {
+            return;
+        }
+        writeBehind.flushAll();
+        for (int from = 0; from < pendingUsers.size(); from += PRELOAD_BATCH_SIZE) {
+            final List<Long> batch = pendingUsers.subList(from, Math.min(from + PRELOAD_BATCH_SIZE, pendingUsers.size()));
+            final String query = "SELECT userId, cityId, cityName, date FROM RecentWeather WHERE userId IN (" +
+                    "?,".repeat(batch.size() - 1) + "?) ORDER BY userId, date DESC";
+            try {
+                final Map<Long, RecentCities> readCities = connetion.executeQuery(query, preparedStatement -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        preparedStatement.setLong(i + 1, batch.get(i));
+                    }
+                }, result -> {
+                    Map<Long, RecentCities> cities = new HashMap<>();
+                    while (result.next()) {
+                        Timestamp date = result.getTimestamp("date");
+                        cities.put(result.getLong("userId"), cities.getOrDefault(result.getLong("userId"), RecentCities.empty())
+                                .append(result.getInt("cityId"), result.getString("cityName"), date == null ? 0 : date.getTime()));
+                    }
+                    return cities;
+                });
+                synchronized (recentCities) {
+                    for (Long userId : batch) {
+                        if (recentCities.get(userId) == null) {
+                            recentCities.put(userId, readCities.getOrDefault(userId, RecentCities.empty()));
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                log.error("Error preloading recent weather", e);
             }
-            updatedRows = preparedStatement.executeUpdate();
+        }
+    }
+
+    private RecentCities readRecentCities(Long userId) {
+        RecentCities cities = RecentCities.empty();
+        try {
+            cities = connetion.executeQuery("SELECT cityId, cityName, date FROM RecentWeather WHERE userId = ? ORDER BY date DESC LIMIT " + RecentCities.MAXCITIES,
+                    preparedStatement -> preparedStatement.setLong(1, userId),
+                    result -> {
+                        RecentCities readCities = RecentCities.empty();
+                        while (result.next()) {
+                            Timestamp date = result.getTimestamp("date");
+                            readCities = readCities.append(result.getInt("cityId"), result.getString("cityName"),
+                                    date == null ? 0 : date.getTime());
+                        }
+                        return readCities;
+                    });
         } catch (SQLException e) {
-            log.error("Error adding user for direction", e);
+            log.error("Error getting recent weather", e);
         }
-        return updatedRows > 0;
+        return cities;
     }
 
+    /**
+     * Replace the recent cities of an user in a single transaction, keeping the time of every city so they
+     * are read in the same order
+     */
+    private boolean writeRecentCities(Long userId, RecentCities cities) {
+        WriteBehindQueue.Statement[] statements = new WriteBehindQueue.Statement[cities.size() + 1];
+        statements[0] = new WriteBehindQueue.Statement("DELETE FROM RecentWeather WHERE userId = ?",
+                preparedStatement -> preparedStatement.setLong(1, userId));
+        for (int i = 0; i < cities.size(); i++) {
+            final int position = i;
+            statements[i + 1] = new WriteBehindQueue.Statement("INSERT INTO RecentWeather (userId, cityId, cityName, date) VALUES (?, ?, ?, ?)",
+                    preparedStatement -> {
+                        preparedStatement.setLong(1, userId);
+                        preparedStatement.setInt(2, cities.getCityId(position));
+                        preparedStatement.setString(3, cities.getCityName(position));
+                        preparedStatement.setTimestamp(4, new Timestamp(cities.getTimestamp(position)));
+                    });
+        }
+        return writeBehind.write(new RecentCitiesKey(userId), statements);
+    }
+
+    @Override
+    public boolean addUserForDirection(Long userId, int status, int messageId, String origin) {
+        return writeBehind.write(new DirectionsKey(userId), new WriteBehindQueue.Statement(
+                "REPLACE INTO Directions (userId, status, messageId, origin) VALUES(?, ?, ?, ?)", preparedStatement -> {
+                    preparedStatement.setLong(1, userId);
+                    preparedStatement.setInt(2, status);
+                    preparedStatement.setInt(3, messageId);
+                    if (origin == null || origin.isEmpty()) {
+                        preparedStatement.setNull(4, Types.VARCHAR);
+                    } else {
+                        preparedStatement.setString(4, origin);
+                    }
+                }));
+    }
+
+    @Override
     public int getUserDestinationStatus(Long userId) {
+        writeBehind.flush(new DirectionsKey(userId));
         int status = -1;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("SELECT status FROM Directions WHERE userId = ?");
-            preparedStatement.setLong(1, userId);
-            final ResultSet result = preparedStatement.executeQuery();
-            if (result.next()) {
-                status = result.getInt("status");
-            }
+            status = connetion.executeQuery("SELECT status FROM Directions WHERE userId = ?",
+                    preparedStatement -> preparedStatement.setLong(1, userId),
+                    result -> result.next() ? result.getInt("status") : -1);
         } catch (SQLException e) {
             log.error("Error getting user destination status", e);
         }
         return status;
     }
 
+    @Override
     public int getUserDestinationMessageId(Long userId) {
+        writeBehind.flush(new DirectionsKey(userId));
         int messageId = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("SELECT messageId FROM Directions WHERE userId = ?");
-            preparedStatement.setLong(1, userId);
-            final ResultSet result = preparedStatement.executeQuery();
-            if (result.next()) {
-                messageId = result.getInt("messageId");
-            }
+            messageId = connetion.executeQuery("SELECT messageId FROM Directions WHERE userId = ?",
+                    preparedStatement -> preparedStatement.setLong(1, userId),
+                    result -> result.next() ? result.getInt("messageId") : 0);
         } catch (SQLException e) {
             log.error("Error getting user destination message id", e);
         }
         return messageId;
     }
 
+    @Override
     public String getUserOrigin(Long userId) {
+        writeBehind.flush(new DirectionsKey(userId));
         String origin = "";
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("SELECT origin FROM Directions WHERE userId = ?");
-            preparedStatement.setLong(1, userId);
-            final ResultSet result = preparedStatement.executeQuery();
-            if (result.next()) {
-                origin = result.getString("origin");
-            }
+            origin = connetion.executeQuery("SELECT origin FROM Directions WHERE userId = ?",
+                    preparedStatement -> preparedStatement.setLong(1, userId),
+                    result -> result.next() ? result.getString("origin") : "");
         } catch (SQLException e) {
             log.error("Error get user origin", e);
         }
         return origin;
     }
 
+    @Override
     public boolean deleteUserForDirections(Long userId) {
-        int updatedRows = 0;
-        try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("DELETE FROM Directions WHERE userId=?;");
-            preparedStatement.setLong(1, userId);
+        return writeBehind.write(new DirectionsKey(userId), new WriteBehindQueue.Statement(
+                "DELETE FROM Directions WHERE userId=?;", preparedStatement -> preparedStatement.setLong(1, userId)));
+    }
 
-            updatedRows = preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            log.error("Error deleting user directions", e);
-        }
-        return updatedRows > 0;
+    @Override
+    public int purgeDirectionsOlderThan(long cutoffMillis) {
+        return purgeOlderThan("Directions", cutoffMillis);
     }
 
+    @Override
     public boolean putLastUpdate(String token, Integer updateId) {
-        int updatedRows = 0;
-        try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("REPLACE INTO LastUpdate (token, updateId) VALUES(?, ?)");
-            preparedStatement.setString(1, token);
-            preparedStatement.setInt(2, updateId);
-            updatedRows = preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            log.error("Error adding last update", e);
-        }
-        return updatedRows > 0;
+        return writeBehind.write(new LastUpdateKey(token), new WriteBehindQueue.Statement(
+                "REPLACE INTO LastUpdate (token, updateId) VALUES(?, ?)", preparedStatement -> {
+                    preparedStatement.setString(1, token);
+                    preparedStatement.setInt(2, updateId);
+                }));
     }
 
+    @Override
     public Integer getLastUpdate(String token) {
+        writeBehind.flush(new LastUpdateKey(token));
         Integer updateId = -1;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("SELECT updateId FROM LastUpdate WHERE token = ?");
-            preparedStatement.setString(1, token);
-            final ResultSet result = preparedStatement.executeQuery();
-            if (result.next()) {
-                updateId = result.getInt("updateId");
-            }
+            updateId = connetion.executeQuery("SELECT updateId FROM LastUpdate WHERE token = ?",
+                    preparedStatement -> preparedStatement.setString(1, token),
+                    result -> result.next() ? result.getInt("updateId") : -1);
         } catch (SQLException e) {
             log.error("Error getting last update", e);
         }
         return updateId;
     }
 
+    @Override
     public String getUserLanguage(Long userId) {
         String languageCode = "en";
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("SELECT languageCode FROM UserLanguage WHERE userId = ?");
-            preparedStatement.setLong(1, userId);
-            final ResultSet result = preparedStatement.executeQuery();
-            if (result.next()) {
-                languageCode = result.getString("languageCode");
-            }
+            languageCode = connetion.executeQuery("SELECT languageCode FROM UserLanguage WHERE userId = ?",
+                    preparedStatement -> preparedStatement.setLong(1, userId),
+                    result -> result.next() ? result.getString("languageCode") : "en");
         } catch (SQLException e) {
             log.error("Error getting user language", e);
         }
         return languageCode;
     }
 
+    @Override
     public boolean putUserLanguage(Long userId, String language) {
         int updatedRows = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("REPLACE INTO UserLanguage (userId, languageCode) VALUES(?, ?)");
-            preparedStatement.setLong(1, userId);
-            preparedStatement.setString(2, language);
-            updatedRows = preparedStatement.executeUpdate();
+            updatedRows = connetion.executeUpdate("REPLACE INTO UserLanguage (userId, languageCode) VALUES(?, ?)", preparedStatement -> {
+                preparedStatement.setLong(1, userId);
+                preparedStatement.setString(2, language);
+            });
         } catch (SQLException e) {
             log.error("Error updating user language", e);
         }
         return updatedRows > 0;
     }
 
+    @Override
     public int getWeatherState(Long userId, Long chatId) {
+        final WeatherStateKey key = new WeatherStateKey(userId, chatId);
+        Integer state = weatherStates.get(key);
+        if (state == null) {
+            writeBehind.flush(key);
+            state = readWeatherState(key);
+            weatherStates.put(key, state);
+        }
+        return state;
+    }
+
+    private int readWeatherState(WeatherStateKey key) {
         int state = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("SELECT state FROM WeatherState WHERE userId = ? AND chatId = ?");
-            preparedStatement.setLong(1, userId);
-            preparedStatement.setLong(2, chatId);
-            final ResultSet result = preparedStatement.executeQuery();
-            if (result.next()) {
-                state = result.getInt("state");
-            }
+            state = connetion.executeQuery("SELECT state FROM WeatherState WHERE userId = ? AND chatId = ?", preparedStatement -> {
+                preparedStatement.setLong(1, key.userId());
+                preparedStatement.setLong(2, key.chatId());
+            }, result -> result.next() ? result.getInt("state") : 0);
         } catch (SQLException e) {
             log.error("Error getting weather state", e);
         }
         return state;
     }
 
+    /**
+     * Save the state of the weather conversation with an user in a chat.
+     * The cache is updated immediately and the row is written behind, successive states of the same
+     * conversation that weren't written yet are coalesced in a single write.
+     */
+    @Override
     public boolean insertWeatherState(Long userId, Long chatId, int state) {
-        int updatedRows = 0;
-        try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("REPLACE INTO WeatherState (userId, chatId, state) VALUES (?, ?, ?)");
-            preparedStatement.setLong(1, userId);
-            preparedStatement.setLong(2, chatId);
-            preparedStatement.setInt(3, state);
-            updatedRows = preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            log.error("Error insert weather state", e);
-        }
-        return updatedRows > 0;
+        final WeatherStateKey key = new WeatherStateKey(userId, chatId);
+        weatherStates.put(key, state);
+        return writeBehind.write(key, new WriteBehindQueue.Statement(
+                "REPLACE INTO WeatherState (userId, chatId, state) VALUES (?, ?, ?)", preparedStatement -> {
+                    preparedStatement.setLong(1, key.userId());
+                    preparedStatement.setLong(2, key.chatId());
+                    preparedStatement.setInt(3, state);
+                }));
     }
 
-    public Integer getRecentWeatherIdByCity(Long userId, String city) {
-        Integer cityId = null;
+    @Override
+    public int purgeWeatherStatesOlderThan(long cutoffMillis) {
+        return purgeOlderThan("WeatherState", cutoffMillis);
+    }
+
+    /**
+     * Delete the rows of a conversation table not updated since a time, in chunks so that a large purge
+     * doesn't lock the table for long
+     */
+    private int purgeOlderThan(String table, long cutoffMillis) {
+        final Timestamp cutoff = new Timestamp(cutoffMillis);
+        int deletedRows = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("select cityId FROM RecentWeather WHERE userId=? AND cityName=?");
-            preparedStatement.setLong(1, userId);
-            preparedStatement.setString(2, city);
-            final ResultSet result = preparedStatement.executeQuery();
-            if (result.next()) {
-                cityId = result.getInt("cityId");
-            }
+            int deletedChunk;
+            do {
+                deletedChunk = connetion.executeUpdate("DELETE FROM " + table + " WHERE updated < ? LIMIT " + PURGE_BATCH_SIZE,
+                        preparedStatement -> preparedStatement.setTimestamp(1, cutoff));
+                deletedRows += deletedChunk;
+            } while (deletedChunk == PURGE_BATCH_SIZE);
         } catch (SQLException e) {
-            log.error("Error getting recent weather by city", e);
+            log.error("Error purging " + table, e);
         }
+        return deletedRows;
+    }
 
-        return cityId;
+    @Override
+    public Integer getRecentWeatherIdByCity(Long userId, String city) {
+        return getRecentCities(userId).getCityId(city);
     }
 
+    @Override
     public String[] getUserWeatherOptions(Long userId) {
+        String[] cachedOptions = userWeatherOptions.get(userId);
+        if (cachedOptions != null) {
+            return cachedOptions.clone();
+        }
         String[] options = new String[] {"en", "metric"};
-        try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("SELECT * FROM UserWeatherOptions WHERE userId = ?");
-            preparedStatement.setLong(1, userId);
-            final ResultSet result = preparedStatement.executeQuery();
-            if (result.next()) {
-                options[0] = result.getString("languageCode");
-                options[1] = result.getString("units");
-            } else {
+        final long removalStamp = userWeatherOptions.getRemovalStamp();
+        try {
+            final boolean found = connetion.executeQuery("SELECT * FROM UserWeatherOptions WHERE userId = ?",
+                    preparedStatement -> preparedStatement.setLong(1, userId),
+                    result -> {
+                        if (result.next()) {
+                            options[0] = result.getString("languageCode");
+                            options[1] = result.getString("units");
+                            return true;
+                        }
+                        return false;
+                    });
+            if (!found) {
                 addNewUserWeatherOptions(userId);
             }
+            userWeatherOptions.putIfNotRemoved(userId, options.clone(), removalStamp);
         } catch (SQLException e) {
             log.error("Error getting wether options", e);
         }
         return options;
     }
 
+    /**
+     * Load the weather options of several users with a few queries so that following calls to
+     * {@link #getUserWeatherOptions(Long)} are served from memory
+     *
+     * @param userIds Users to load
+     */
+    @Override
+    public void preloadUserWeatherOptions(Collection<Long> userIds) {
+        final List<Long> pendingUsers = userIds.stream().distinct().filter(userId -> userWeatherOptions.get(userId) == null).toList();
+        for (int from = 0; from < pendingUsers.size(); from += PRELOAD_BATCH_SIZE) {
+            final List<Long> batch = pendingUsers.subList(from, Math.min(from + PRELOAD_BATCH_SIZE, pendingUsers.size()));
+            final String query = "SELECT * FROM UserWeatherOptions WHERE userId IN (" + "?,".repeat(batch.size() - 1) + "?)";
+            final long removalStamp = userWeatherOptions.getRemovalStamp();
+            try {
+                connetion.executeQuery(query, preparedStatement -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        preparedStatement.setLong(i + 1, batch.get(i));
+                    }
+                }, result -> {
+                    while (result.next()) {
+                        userWeatherOptions.putIfNotRemoved(result.getLong("userId"),
+                                new String[] {result.getString("languageCode"), result.getString("units")}, removalStamp);
+                    }
+                    return null;
+                });
+            } catch (SQLException e) {
+                log.error("Error preloading weather options", e);
+            }
+        }
+    }
+
     private boolean addNewUserWeatherOptions(Long userId) {
         int updatedRows = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("INSERT INTO UserWeatherOptions (userId) VALUES (?)");
-            preparedStatement.setLong(1, userId);
-            updatedRows = preparedStatement.executeUpdate();
+            updatedRows = connetion.executeUpdate("INSERT INTO UserWeatherOptions (userId) VALUES (?)",
+                    preparedStatement -> preparedStatement.setLong(1, userId));
         } catch (SQLException e) {
             log.error("Error adding new user weather options", e);
         }
         return updatedRows > 0;
     }
 
+    @Override
     public boolean putUserWeatherLanguageOption(Long userId, String language) {
         int updatedRows = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("UPDATE UserWeatherOptions SET languageCode = ? WHERE userId = ?");
-            preparedStatement.setString(1, language);
-            preparedStatement.setLong(2, userId);
-            updatedRows = preparedStatement.executeUpdate();
+            updatedRows = connetion.executeUpdate("UPDATE UserWeatherOptions SET languageCode = ? WHERE userId = ?", preparedStatement -> {
+                preparedStatement.setString(1, language);
+                preparedStatement.setLong(2, userId);
+            });
         } catch (SQLException e) {
             log.error("Error updating weather language options", e);
         }
+        userWeatherOptions.remove(userId);
         return updatedRows > 0;
     }
 
+    @Override
     public boolean putUserWeatherUnitsOption(Long userId, String units) {
         int updatedRows = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("UPDATE UserWeatherOptions SET units = ? WHERE userId = ?");
-            preparedStatement.setString(1, units);
-            preparedStatement.setLong(2, userId);
-            updatedRows = preparedStatement.executeUpdate();
+            updatedRows = connetion.executeUpdate("UPDATE UserWeatherOptions SET units = ? WHERE userId = ?", preparedStatement -> {
+                preparedStatement.setString(1, units);
+                preparedStatement.setLong(2, userId);
+            });
         } catch (SQLException e) {
             log.error("Error adding weather unit option", e);
         }
+        userWeatherOptions.remove(userId);
         return updatedRows > 0;
     }
 
+    @Override
     public boolean createNewWeatherAlert(long userId, Integer cityId, String cityName) {
         int updatedRows = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("INSERT INTO WeatherAlert (userId, cityId, cityName) VALUES (?,?,?)");
-            preparedStatement.setLong(1, userId);
-            preparedStatement.setInt(2, cityId);
-            preparedStatement.setString(3, cityName);
-            updatedRows = preparedStatement.executeUpdate();
+            updatedRows = connetion.executeUpdate("INSERT INTO WeatherAlert (userId, cityId, cityName) VALUES (?,?,?)", preparedStatement -> {
+                preparedStatement.setLong(1, userId);
+                preparedStatement.setInt(2, cityId);
+                preparedStatement.setString(3, cityName);
+            });
         } catch (SQLException e) {
             log.error("Error creating weather alert", e);
         }
         return updatedRows > 0;
     }
 
+    @Override
     public List<String> getAlertCitiesNameByUser(long userId) {
         List<String> alertCitiesNames = new ArrayList<>();
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("select cityName FROM WeatherAlert WHERE userId=?");
-            preparedStatement.setLong(1, userId);
-            final ResultSet result = preparedStatement.executeQuery();
-            while (result.next()) {
-                alertCitiesNames.add(result.getString("cityName"));
-            }
+            connetion.executeQuery("select cityName FROM WeatherAlert WHERE userId=?",
+                    preparedStatement -> preparedStatement.setLong(1, userId),
+                    result -> {
+                        while (result.next()) {
+                            alertCitiesNames.add(result.getString("cityName"));
+                        }
+                        return alertCitiesNames;
+                    });
         } catch (SQLException e) {
             log.error("Error getting alerts by user", e);
         }
@@ -613,48 +796,67 @@ public class DatabaseManager {
         return alertCitiesNames;
     }
 
+    @Override
     public boolean deleteAlertCity(Long userId, String cityName) {
         int updatedRows = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("DELETE FROM WeatherAlert WHERE userId=? AND cityName=?;");
-            preparedStatement.setLong(1, userId);
-            preparedStatement.setString(2, cityName);
-            updatedRows = preparedStatement.executeUpdate();
+            updatedRows = connetion.executeUpdate("DELETE FROM WeatherAlert WHERE userId=? AND cityName=?;", preparedStatement -> {
+                preparedStatement.setLong(1, userId);
+                preparedStatement.setString(2, cityName);
+            });
         } catch (SQLException e) {
             log.error("Error delete city alert", e);
         }
         return updatedRows > 0;
     }
 
+    @Override
     public boolean deleteAlertsForUser(Long userId) {
         int updatedRows = 0;
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("DELETE FROM WeatherAlert WHERE userId=?");
-            preparedStatement.setLong(1, userId);
-            updatedRows = preparedStatement.executeUpdate();
+            updatedRows = connetion.executeUpdate("DELETE FROM WeatherAlert WHERE userId=?",
+                    preparedStatement -> preparedStatement.setLong(1, userId));
         } catch (SQLException e) {
             log.error("Error deleting alerts for user", e);
         }
         return updatedRows > 0;
     }
 
+    @Override
     public List<WeatherAlert> getAllAlerts() {
         List<WeatherAlert> allAlerts = new ArrayList<>();
 
         try {
-            final PreparedStatement preparedStatement = connetion.getPreparedStatement("select * FROM WeatherAlert");
-            final ResultSet result = preparedStatement.executeQuery();
-            while (result.next()) {
-                WeatherAlert weatherAlert = new WeatherAlert();
-                weatherAlert.setId(result.getInt("id"));
-                weatherAlert.setUserId(result.getInt("userId"));
-                weatherAlert.setCityId(result.getInt("cityId"));
-                allAlerts.add(weatherAlert);
-            }
+            connetion.executeQuery("select * FROM WeatherAlert", preparedStatement -> {
+            }, result -> {
+                while (result.next()) {
+                    WeatherAlert weatherAlert = new WeatherAlert();
+                    weatherAlert.setId(result.getInt("id"));
+                    weatherAlert.setUserId(result.getInt("userId"));
+                    weatherAlert.setCityId(result.getInt("cityId"));
+                    allAlerts.add(weatherAlert);
+                }
+                return allAlerts;
+            });
         } catch (SQLException e) {
             log.error("Error getting all alerts", e);
         }
 
         return allAlerts;
     }
+
+    private record WeatherStateKey(long userId, long chatId) {
+    }
+
+    private record RecentCitiesKey(long userId) {
+    }
+
+    private record DirectionsKey(long userId) {
+    }
+
+    private record FilesUserKey(long userId) {
+    }
+
+    private record LastUpdateKey(String token) {
+    }
 }
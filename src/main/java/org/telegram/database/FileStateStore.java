@@ -0,0 +1,349 @@
+package org.telegram.database;
+
+import lombok.extern.slf4j.Slf4j;
+import org.telegram.structure.RecentCities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * State store that keeps everything in memory and persists it with a {@link StateLog}: every change is
+ * appended to a memory mapped log and the log is compacted into snapshots of the state, so a restart
+ * replays a snapshot plus the changes made after it.
+ */
+@Slf4j
+public class FileStateStore extends MemoryStateStore {
+    private static final byte SETCOMMANDSUSER = 1;
+    private static final byte ADDFILE = 2;
+    private static final byte DELETEFILE = 3;
+    private static final byte ADDFILESUSER = 4;
+    private static final byte DELETEFILESUSER = 5;
+    private static final byte ADDRECENTWEATHER = 6;
+    private static final byte ADDDIRECTIONSUSER = 7;
+    private static final byte DELETEDIRECTIONSUSER = 8;
+    private static final byte PUTLASTUPDATE = 9;
+    private static final byte PUTUSERLANGUAGE = 10;
+    private static final byte PUTWEATHERSTATE = 11;
+    private static final byte PUTWEATHERLANGUAGE = 12;
+    private static final byte PUTWEATHERUNITS = 13;
+    private static final byte ADDALERT = 14;
+    private static final byte DELETEALERT = 15;
+    private static final byte DELETEALERTS = 16;
+    private static final byte DELETEWEATHERSTATE = 17;
+
+    private final RecordBuffer record = new RecordBuffer(); ///< Guarded by itself, changes are encoded here
+    private long appendedPosition; ///< Position of the log after the last change, guarded by the lock of the changes
+    private final StateLog stateLog;
+
+    /**
+     * Constructor, recovers the state stored in the directory
+     *
+     * @param directory    Directory of the snapshots and log segments
+     * @param segmentBytes Size of every log segment, a snapshot is written every time one is full
+     * @param syncMillis   Time between syncs of the log to disk
+     * @param syncWrites   If true, changes wait until they are synced to disk
+     */
+    public FileStateStore(Path directory, int segmentBytes, long syncMillis, boolean syncWrites) {
+        stateLog = new StateLog(directory, segmentBytes, syncMillis, syncWrites, this::replay, this::writeSnapshot);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "state-store-shutdown"));
+    }
+
+    /**
+     * Sync pending changes to disk and stop persisting changes
+     */
+    public void close() {
+        stateLog.close();
+    }
+
+    @Override
+    public boolean setUserStateForCommandsBot(Long userId, boolean active) {
+        return apply(() -> super.setUserStateForCommandsBot(userId, active), SETCOMMANDSUSER, userId, active);
+    }
+
+    @Override
+    public boolean addFile(String fileId, Long userId, String caption) {
+        return apply(() -> super.addFile(fileId, userId, caption), ADDFILE, fileId, userId, caption);
+    }
+
+    @Override
+    public boolean deleteFile(String fileId) {
+        return apply(() -> super.deleteFile(fileId), DELETEFILE, fileId);
+    }
+
+    @Override
+    public boolean addUserForFile(Long userId, int status) {
+        final long updatedMillis = System.currentTimeMillis();
+        return apply(() -> putUserForFile(userId, status, updatedMillis), ADDFILESUSER, userId, status, updatedMillis);
+    }
+
+    @Override
+    public boolean deleteUserForFile(Long userId) {
+        return apply(() -> super.deleteUserForFile(userId), DELETEFILESUSER, userId);
+    }
+
+    @Override
+    public boolean addRecentWeather(Long userId, Integer cityId, String cityName) {
+        return apply(() -> super.addRecentWeather(userId, cityId, cityName), ADDRECENTWEATHER, userId, cityId, cityName);
+    }
+
+    @Override
+    public boolean addUserForDirection(Long userId, int status, int messageId, String origin) {
+        final long updatedMillis = System.currentTimeMillis();
+        return apply(() -> putUserForDirection(userId, status, messageId, origin, updatedMillis), ADDDIRECTIONSUSER,
+                userId, status, messageId, origin, updatedMillis);
+    }
+
+    @Override
+    public boolean deleteUserForDirections(Long userId) {
+        return apply(() -> super.deleteUserForDirections(userId), DELETEDIRECTIONSUSER, userId);
+    }
+
+    @Override
+    public boolean putLastUpdate(String token, Integer updateId) {
+        return apply(() -> super.putLastUpdate(token, updateId), PUTLASTUPDATE, token, updateId);
+    }
+
+    @Override
+    public boolean putUserLanguage(Long userId, String language) {
+        return apply(() -> super.putUserLanguage(userId, language), PUTUSERLANGUAGE, userId, language);
+    }
+
+    @Override
+    public boolean insertWeatherState(Long userId, Long chatId, int state) {
+        final long updatedMillis = System.currentTimeMillis();
+        return apply(() -> putWeatherState(userId, chatId, state, updatedMillis), PUTWEATHERSTATE, userId, chatId, state, updatedMillis);
+    }
+
+    @Override
+    public boolean putUserWeatherLanguageOption(Long userId, String language) {
+        return apply(() -> super.putUserWeatherLanguageOption(userId, language), PUTWEATHERLANGUAGE, userId, language);
+    }
+
+    @Override
+    public boolean putUserWeatherUnitsOption(Long userId, String units) {
+        return apply(() -> super.putUserWeatherUnitsOption(userId, units), PUTWEATHERUNITS, userId, units);
+    }
+
+    @Override
+    public boolean createNewWeatherAlert(long userId, Integer cityId, String cityName) {
+        return apply(() -> super.createNewWeatherAlert(userId, cityId, cityName), ADDALERT, userId, cityId, cityName);
+    }
+
+    @Override
+    public boolean deleteAlertCity(Long userId, String cityName) {
+        return apply(() -> super.deleteAlertCity(userId, cityName), DELETEALERT, userId, cityName);
+    }
+
+    @Override
+    public boolean deleteAlertsForUser(Long userId) {
+        return apply(() -> super.deleteAlertsForUser(userId), DELETEALERTS, userId);
+    }
+
+    @Override
+    public int purgeFilesUsersOlderThan(long cutoffMillis) {
+        return purge(() -> purgeFilesUsersOlderThan(cutoffMillis, userId -> append(DELETEFILESUSER, userId)));
+    }
+
+    @Override
+    public int purgeDirectionsOlderThan(long cutoffMillis) {
+        return purge(() -> purgeDirectionsOlderThan(cutoffMillis, userId -> append(DELETEDIRECTIONSUSER, userId)));
+    }
+
+    @Override
+    public int purgeWeatherStatesOlderThan(long cutoffMillis) {
+        return purge(() -> purgeWeatherStatesOlderThan(cutoffMillis, (userId, chatId) -> append(DELETEWEATHERSTATE, userId, chatId)));
+    }
+
+    /**
+     * Apply a change and append it to the log if it changed anything. Changes are applied and appended
+     * under the same lock so the log keeps the order in which they were applied, waiting for the sync is
+     * done after releasing it so the changes of concurrent writers are synced together.
+     */
+    private boolean apply(BooleanSupplier change, byte type, Object... fields) {
+        final long position;
+        synchronized (record) {
+            if (!change.getAsBoolean()) {
+                return false;
+            }
+            position = append(type, fields);
+        }
+        stateLog.awaitSync(position);
+        return true;
+    }
+
+    /**
+     * Apply a purge, appending a change for every entry deleted, under the lock of the changes
+     */
+    private int purge(IntSupplier purge) {
+        final long position;
+        final int purged;
+        synchronized (record) {
+            purged = purge.getAsInt();
+            position = appendedPosition;
+        }
+        stateLog.awaitSync(position);
+        return purged;
+    }
+
+    /**
+     * Append a change to the log, must be called holding the lock of the changes
+     *
+     * @return Position of the log after the change
+     */
+    private long append(byte type, Object... fields) {
+        try {
+            record.encode(type, fields);
+        } catch (IOException e) {
+            log.error("Error persisting change to the state", e);
+            return appendedPosition;
+        }
+        appendedPosition = stateLog.append(record.array(), record.size());
+        return appendedPosition;
+    }
+
+    /**
+     * Write the current state as the changes that rebuild it
+     */
+    private void writeSnapshot(StateLog.RecordWriter writer) throws IOException {
+        final RecordBuffer snapshotRecord = new RecordBuffer();
+        forEachEntry(new EntryVisitor() {
+            @Override
+            public void commandUser(long userId, boolean active) throws IOException {
+                write(SETCOMMANDSUSER, userId, active);
+            }
+
+            @Override
+            public void file(String fileId, long userId, String caption) throws IOException {
+                write(ADDFILE, fileId, userId, caption);
+            }
+
+            @Override
+            public void filesUser(long userId, int status, long updatedMillis) throws IOException {
+                write(ADDFILESUSER, userId, status, updatedMillis);
+            }
+
+            @Override
+            public void recentCities(long userId, RecentCities cities) throws IOException {
+                for (int i = cities.size() - 1; i >= 0; i--) {
+                    write(ADDRECENTWEATHER, userId, cities.getCityId(i), cities.getCityName(i));
+                }
+            }
+
+            @Override
+            public void direction(long userId, int status, int messageId, String origin, long updatedMillis) throws IOException {
+                write(ADDDIRECTIONSUSER, userId, status, messageId, origin, updatedMillis);
+            }
+
+            @Override
+            public void lastUpdate(String token, int updateId) throws IOException {
+                write(PUTLASTUPDATE, token, updateId);
+            }
+
+            @Override
+            public void userLanguage(long userId, String language) throws IOException {
+                write(PUTUSERLANGUAGE, userId, language);
+            }
+
+            @Override
+            public void weatherState(long userId, long chatId, int state, long updatedMillis) throws IOException {
+                write(PUTWEATHERSTATE, userId, chatId, state, updatedMillis);
+            }
+
+            @Override
+            public void weatherOptions(long userId, String language, String units) throws IOException {
+                write(PUTWEATHERLANGUAGE, userId, language);
+                write(PUTWEATHERUNITS, userId, units);
+            }
+
+            @Override
+            public void alert(long userId, int cityId, String cityName) throws IOException {
+                write(ADDALERT, userId, cityId, cityName);
+            }
+
+            private void write(byte type, Object... fields) throws IOException {
+                snapshotRecord.encode(type, fields);
+                writer.write(snapshotRecord.array(), snapshotRecord.size());
+            }
+        });
+    }
+
+    /**
+     * Apply a change read from the log or from a snapshot
+     */
+    private void replay(DataInputStream input) throws IOException {
+        byte type = input.readByte();
+        switch (type) {
+            case SETCOMMANDSUSER -> super.setUserStateForCommandsBot(input.readLong(), input.readBoolean());
+            case ADDFILE -> super.addFile(readString(input), input.readLong(), readString(input));
+            case DELETEFILE -> super.deleteFile(readString(input));
+            case ADDFILESUSER -> putUserForFile(input.readLong(), input.readInt(), readUpdatedMillis(input));
+            case DELETEFILESUSER -> super.deleteUserForFile(input.readLong());
+            case ADDRECENTWEATHER -> super.addRecentWeather(input.readLong(), input.readInt(), readString(input));
+            case ADDDIRECTIONSUSER -> putUserForDirection(input.readLong(), input.readInt(), input.readInt(), readString(input),
+                    readUpdatedMillis(input));
+            case DELETEDIRECTIONSUSER -> super.deleteUserForDirections(input.readLong());
+            case PUTLASTUPDATE -> super.putLastUpdate(readString(input), input.readInt());
+            case PUTUSERLANGUAGE -> super.putUserLanguage(input.readLong(), readString(input));
+            case PUTWEATHERSTATE -> putWeatherState(input.readLong(), input.readLong(), input.readInt(), readUpdatedMillis(input));
+            case PUTWEATHERLANGUAGE -> super.putUserWeatherLanguageOption(input.readLong(), readString(input));
+            case PUTWEATHERUNITS -> super.putUserWeatherUnitsOption(input.readLong(), readString(input));
+            case ADDALERT -> super.createNewWeatherAlert(input.readLong(), input.readInt(), readString(input));
+            case DELETEALERT -> super.deleteAlertCity(input.readLong(), readString(input));
+            case DELETEALERTS -> super.deleteAlertsForUser(input.readLong());
+            case DELETEWEATHERSTATE -> super.deleteWeatherState(input.readLong(), input.readLong());
+            default -> log.warn("Ignoring unknown change {} in the state log", type);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    /**
+     * Time a conversation state was updated, states logged before it was persisted get the time they are replayed
+     */
+    private static long readUpdatedMillis(DataInputStream input) throws IOException {
+        return input.available() >= Long.BYTES ? input.readLong() : System.currentTimeMillis();
+    }
+
+    /**
+     * Reusable buffer where changes are encoded
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        private final DataOutputStream output = new DataOutputStream(this);
+
+        private RecordBuffer() {
+            super(256);
+        }
+
+        private void encode(byte type, Object... fields) throws IOException {
+            reset();
+            output.writeByte(type);
+            for (Object field : fields) {
+                if (field instanceof Long value) {
+                    output.writeLong(value);
+                } else if (field instanceof Integer value) {
+                    output.writeInt(value);
+                } else if (field instanceof Boolean value) {
+                    output.writeBoolean(value);
+                } else {
+                    output.writeBoolean(field != null);
+                    if (field != null) {
+                        output.writeUTF((String) field);
+                    }
+                }
+            }
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
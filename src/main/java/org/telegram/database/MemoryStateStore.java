@@ -0,0 +1,455 @@
+package org.telegram.database;
+
+import org.telegram.structure.RecentCities;
+import org.telegram.structure.WeatherAlert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * State store that keeps everything in memory, with the same defaults and constraints as the database.
+ * Nothing survives a restart, meant for tests, load tests and bots that don't need to remember users.
+ * Conversation states keep the time they were updated, to purge the expired ones.
+ */
+public class MemoryStateStore implements StateStore {
+    private final ConcurrentHashMap<Long, Boolean> commandUsers = new ConcurrentHashMap<>();
+    private final Map<String, StoredFile> files = new HashMap<>(); ///< Guarded by itself
+    private final Map<Long, Map<String, String>> filesByUser = new HashMap<>(); ///< Guarded by files
+    private final ConcurrentHashMap<Long, TimedState> filesUsers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, RecentCities> recentCities = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Direction> directions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> lastUpdates = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, String> userLanguages = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<WeatherStateKey, TimedState> weatherStates = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, String[]> userWeatherOptions = new ConcurrentHashMap<>();
+    private final Map<Long, Map<Integer, StoredAlert>> alertsByUser = new LinkedHashMap<>(); ///< Guarded by itself
+    private int lastAlertId; ///< Guarded by alertsByUser
+
+    @Override
+    public boolean setUserStateForCommandsBot(Long userId, boolean active) {
+        commandUsers.put(userId, active);
+        return true;
+    }
+
+    @Override
+    public boolean getUserStateForCommandsBot(Long userId) {
+        return commandUsers.getOrDefault(userId, false);
+    }
+
+    @Override
+    public boolean addFile(String fileId, Long userId, String caption) {
+        synchronized (files) {
+            StoredFile previousFile = files.put(fileId, new StoredFile(userId, caption));
+            if (previousFile != null) {
+                removeFileOfUser(previousFile.userId(), fileId);
+            }
+            filesByUser.computeIfAbsent(userId, id -> new LinkedHashMap<>()).put(fileId, caption);
+        }
+        return true;
+    }
+
+    @Override
+    public HashMap<String, String> getFilesByUser(Long userId) {
+        synchronized (files) {
+            Map<String, String> userFiles = filesByUser.get(userId);
+            return userFiles == null ? new HashMap<>() : new HashMap<>(userFiles);
+        }
+    }
+
+    @Override
+    public boolean addUserForFile(Long userId, int status) {
+        return putUserForFile(userId, status, System.currentTimeMillis());
+    }
+
+    protected boolean putUserForFile(Long userId, int status, long updatedMillis) {
+        filesUsers.put(userId, new TimedState(status, updatedMillis));
+        return true;
+    }
+
+    @Override
+    public boolean deleteUserForFile(Long userId) {
+        return filesUsers.remove(userId) != null;
+    }
+
+    @Override
+    public int getUserStatusForFile(Long userId) {
+        TimedState status = filesUsers.get(userId);
+        return status == null ? -1 : status.state();
+    }
+
+    @Override
+    public int purgeFilesUsersOlderThan(long cutoffMillis) {
+        return purgeFilesUsersOlderThan(cutoffMillis, userId -> {
+        });
+    }
+
+    /**
+     * Delete the conversations with the files bot not updated since a time
+     *
+     * @param onPurged Receives the user of every conversation deleted
+     * @return Number of conversations deleted
+     */
+    protected int purgeFilesUsersOlderThan(long cutoffMillis, LongConsumer onPurged) {
+        return purgeOlderThan(filesUsers, TimedState::updatedMillis, cutoffMillis, onPurged::accept);
+    }
+
+    @Override
+    public boolean doesFileExists(String fileId) {
+        synchronized (files) {
+            return files.containsKey(fileId);
+        }
+    }
+
+    @Override
+    public boolean deleteFile(String fileId) {
+        synchronized (files) {
+            StoredFile file = files.remove(fileId);
+            if (file == null) {
+                return false;
+            }
+            removeFileOfUser(file.userId(), fileId);
+            return true;
+        }
+    }
+
+    private void removeFileOfUser(long userId, String fileId) {
+        Map<String, String> userFiles = filesByUser.get(userId);
+        if (userFiles != null) {
+            userFiles.remove(fileId);
+            if (userFiles.isEmpty()) {
+                filesByUser.remove(userId);
+            }
+        }
+    }
+
+    @Override
+    public boolean addRecentWeather(Long userId, Integer cityId, String cityName) {
+        recentCities.compute(userId, (id, cities) ->
+                (cities == null ? RecentCities.empty() : cities).add(cityId, cityName, System.currentTimeMillis()));
+        return true;
+    }
+
+    @Override
+    public List<String> getRecentWeather(Long userId) {
+        return recentCities.getOrDefault(userId, RecentCities.empty()).getCityNames();
+    }
+
+    @Override
+    public Integer getRecentWeatherIdByCity(Long userId, String city) {
+        return recentCities.getOrDefault(userId, RecentCities.empty()).getCityId(city);
+    }
+
+    @Override
+    public boolean addUserForDirection(Long userId, int status, int messageId, String origin) {
+        return putUserForDirection(userId, status, messageId, origin, System.currentTimeMillis());
+    }
+
+    protected boolean putUserForDirection(Long userId, int status, int messageId, String origin, long updatedMillis) {
+        directions.put(userId, new Direction(status, messageId, origin == null || origin.isEmpty() ? null : origin,
+                updatedMillis));
+        return true;
+    }
+
+    @Override
+    public int getUserDestinationStatus(Long userId) {
+        Direction direction = directions.get(userId);
+        return direction == null ? -1 : direction.status();
+    }
+
+    @Override
+    public int getUserDestinationMessageId(Long userId) {
+        Direction direction = directions.get(userId);
+        return direction == null ? 0 : direction.messageId();
+    }
+
+    @Override
+    public String getUserOrigin(Long userId) {
+        Direction direction = directions.get(userId);
+        return direction == null ? "" : direction.origin();
+    }
+
+    @Override
+    public boolean deleteUserForDirections(Long userId) {
+        return directions.remove(userId) != null;
+    }
+
+    @Override
+    public int purgeDirectionsOlderThan(long cutoffMillis) {
+        return purgeDirectionsOlderThan(cutoffMillis, userId -> {
+        });
+    }
+
+    /**
+     * Delete the conversations with the directions bot not updated since a time
+     *
+     * @param onPurged Receives the user of every conversation deleted
+     * @return Number of conversations deleted
+     */
+    protected int purgeDirectionsOlderThan(long cutoffMillis, LongConsumer onPurged) {
+        return purgeOlderThan(directions, Direction::updatedMillis, cutoffMillis, onPurged::accept);
+    }
+
+    @Override
+    public boolean putLastUpdate(String token, Integer updateId) {
+        lastUpdates.put(token, updateId);
+        return true;
+    }
+
+    @Override
+    public Integer getLastUpdate(String token) {
+        return lastUpdates.getOrDefault(token, -1);
+    }
+
+    @Override
+    public String getUserLanguage(Long userId) {
+        return userLanguages.getOrDefault(userId, "en");
+    }
+
+    @Override
+    public boolean putUserLanguage(Long userId, String language) {
+        userLanguages.put(userId, language);
+        return true;
+    }
+
+    @Override
+    public int getWeatherState(Long userId, Long chatId) {
+        TimedState state = weatherStates.get(new WeatherStateKey(userId, chatId));
+        return state == null ? 0 : state.state();
+    }
+
+    @Override
+    public boolean insertWeatherState(Long userId, Long chatId, int state) {
+        return putWeatherState(userId, chatId, state, System.currentTimeMillis());
+    }
+
+    protected boolean putWeatherState(Long userId, Long chatId, int state, long updatedMillis) {
+        weatherStates.put(new WeatherStateKey(userId, chatId), new TimedState(state, updatedMillis));
+        return true;
+    }
+
+    protected boolean deleteWeatherState(Long userId, Long chatId) {
+        return weatherStates.remove(new WeatherStateKey(userId, chatId)) != null;
+    }
+
+    @Override
+    public int purgeWeatherStatesOlderThan(long cutoffMillis) {
+        return purgeWeatherStatesOlderThan(cutoffMillis, (userId, chatId) -> {
+        });
+    }
+
+    /**
+     * Delete the weather conversation states not updated since a time
+     *
+     * @param onPurged Receives the user and chat of every state deleted
+     * @return Number of states deleted
+     */
+    protected int purgeWeatherStatesOlderThan(long cutoffMillis, BiConsumer<Long, Long> onPurged) {
+        return purgeOlderThan(weatherStates, TimedState::updatedMillis, cutoffMillis,
+                key -> onPurged.accept(key.userId(), key.chatId()));
+    }
+
+    private static <K, V> int purgeOlderThan(ConcurrentHashMap<K, V> entries, ToLongFunction<V> updatedMillis,
+                                             long cutoffMillis, Consumer<K> onPurged) {
+        int purged = 0;
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            if (updatedMillis.applyAsLong(entry.getValue()) < cutoffMillis && entries.remove(entry.getKey(), entry.getValue())) {
+                onPurged.accept(entry.getKey());
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    @Override
+    public String[] getUserWeatherOptions(Long userId) {
+        String[] options = userWeatherOptions.get(userId);
+        return options == null ? new String[] {"en", "metric"} : options.clone();
+    }
+
+    @Override
+    public void preloadUserWeatherOptions(Collection<Long> userIds) {
+    }
+
+    @Override
+    public boolean putUserWeatherLanguageOption(Long userId, String language) {
+        userWeatherOptions.compute(userId, (id, options) ->
+                new String[] {language, options == null ? "metric" : options[1]});
+        return true;
+    }
+
+    @Override
+    public boolean putUserWeatherUnitsOption(Long userId, String units) {
+        userWeatherOptions.compute(userId, (id, options) ->
+                new String[] {options == null ? "en" : options[0], units});
+        return true;
+    }
+
+    @Override
+    public boolean createNewWeatherAlert(long userId, Integer cityId, String cityName) {
+        synchronized (alertsByUser) {
+            Map<Integer, StoredAlert> userAlerts = alertsByUser.computeIfAbsent(userId, id -> new LinkedHashMap<>());
+            for (StoredAlert alert : userAlerts.values()) {
+                if (alert.cityId() == cityId || alert.cityName().equals(cityName)) {
+                    return false;
+                }
+            }
+            lastAlertId++;
+            userAlerts.put(lastAlertId, new StoredAlert(lastAlertId, cityId, cityName));
+            return true;
+        }
+    }
+
+    @Override
+    public List<String> getAlertCitiesNameByUser(long userId) {
+        List<String> alertCitiesNames = new ArrayList<>();
+        synchronized (alertsByUser) {
+            Map<Integer, StoredAlert> userAlerts = alertsByUser.get(userId);
+            if (userAlerts != null) {
+                userAlerts.values().forEach(alert -> alertCitiesNames.add(alert.cityName()));
+            }
+        }
+        return alertCitiesNames;
+    }
+
+    @Override
+    public boolean deleteAlertCity(Long userId, String cityName) {
+        synchronized (alertsByUser) {
+            Map<Integer, StoredAlert> userAlerts = alertsByUser.get(userId);
+            if (userAlerts == null || !userAlerts.values().removeIf(alert -> alert.cityName().equals(cityName))) {
+                return false;
+            }
+            if (userAlerts.isEmpty()) {
+                alertsByUser.remove(userId);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean deleteAlertsForUser(Long userId) {
+        synchronized (alertsByUser) {
+            return alertsByUser.remove(userId) != null;
+        }
+    }
+
+    @Override
+    public List<WeatherAlert> getAllAlerts() {
+        List<WeatherAlert> allAlerts = new ArrayList<>();
+        synchronized (alertsByUser) {
+            for (Map.Entry<Long, Map<Integer, StoredAlert>> userAlerts : alertsByUser.entrySet()) {
+                for (StoredAlert alert : userAlerts.getValue().values()) {
+                    WeatherAlert weatherAlert = new WeatherAlert();
+                    weatherAlert.setId(alert.id());
+                    weatherAlert.setUserId(userAlerts.getKey());
+                    weatherAlert.setCityId(alert.cityId());
+                    allAlerts.add(weatherAlert);
+                }
+            }
+        }
+        return allAlerts;
+    }
+
+    /**
+     * Visit every entry of the store. Entries changed while visiting may be visited with the old or the
+     * new value. Maps guarded by a lock are copied under it and visited after releasing it, so a slow
+     * visitor doesn't block their changes.
+     */
+    protected void forEachEntry(EntryVisitor visitor) throws IOException {
+        for (Map.Entry<Long, Boolean> commandUser : commandUsers.entrySet()) {
+            visitor.commandUser(commandUser.getKey(), commandUser.getValue());
+        }
+        final Map<String, StoredFile> filesCopy;
+        synchronized (files) {
+            filesCopy = new HashMap<>(files);
+        }
+        for (Map.Entry<String, StoredFile> file : filesCopy.entrySet()) {
+            visitor.file(file.getKey(), file.getValue().userId(), file.getValue().caption());
+        }
+        for (Map.Entry<Long, TimedState> filesUser : filesUsers.entrySet()) {
+            visitor.filesUser(filesUser.getKey(), filesUser.getValue().state(), filesUser.getValue().updatedMillis());
+        }
+        for (Map.Entry<Long, RecentCities> cities : recentCities.entrySet()) {
+            visitor.recentCities(cities.getKey(), cities.getValue());
+        }
+        for (Map.Entry<Long, Direction> direction : directions.entrySet()) {
+            visitor.direction(direction.getKey(), direction.getValue().status(), direction.getValue().messageId(),
+                    direction.getValue().origin(), direction.getValue().updatedMillis());
+        }
+        for (Map.Entry<String, Integer> lastUpdate : lastUpdates.entrySet()) {
+            visitor.lastUpdate(lastUpdate.getKey(), lastUpdate.getValue());
+        }
+        for (Map.Entry<Long, String> userLanguage : userLanguages.entrySet()) {
+            visitor.userLanguage(userLanguage.getKey(), userLanguage.getValue());
+        }
+        for (Map.Entry<WeatherStateKey, TimedState> weatherState : weatherStates.entrySet()) {
+            visitor.weatherState(weatherState.getKey().userId(), weatherState.getKey().chatId(), weatherState.getValue().state(),
+                    weatherState.getValue().updatedMillis());
+        }
+        for (Map.Entry<Long, String[]> options : userWeatherOptions.entrySet()) {
+            visitor.weatherOptions(options.getKey(), options.getValue()[0], options.getValue()[1]);
+        }
+        final List<Map.Entry<Long, StoredAlert>> alertsCopy = new ArrayList<>();
+        synchronized (alertsByUser) {
+            for (Map.Entry<Long, Map<Integer, StoredAlert>> userAlerts : alertsByUser.entrySet()) {
+                for (StoredAlert alert : userAlerts.getValue().values()) {
+                    alertsCopy.add(Map.entry(userAlerts.getKey(), alert));
+                }
+            }
+        }
+        for (Map.Entry<Long, StoredAlert> alert : alertsCopy) {
+            visitor.alert(alert.getKey(), alert.getValue().cityId(), alert.getValue().cityName());
+        }
+    }
+
+    /**
+     * Receives the entries of the store
+     */
+    protected interface EntryVisitor {
+        void commandUser(long userId, boolean active) throws IOException;
+
+        void file(String fileId, long userId, String caption) throws IOException;
+
+        void filesUser(long userId, int status, long updatedMillis) throws IOException;
+
+        void recentCities(long userId, RecentCities cities) throws IOException;
+
+        void direction(long userId, int status, int messageId, String origin, long updatedMillis) throws IOException;
+
+        void lastUpdate(String token, int updateId) throws IOException;
+
+        void userLanguage(long userId, String language) throws IOException;
+
+        void weatherState(long userId, long chatId, int state, long updatedMillis) throws IOException;
+
+        void weatherOptions(long userId, String language, String units) throws IOException;
+
+        void alert(long userId, int cityId, String cityName) throws IOException;
+    }
+
+    private record StoredFile(long userId, String caption) {
+    }
+
+    private record Direction(int status, int messageId, String origin, long updatedMillis) {
+    }
+
+    private record TimedState(int state, long updatedMillis) {
+    }
+
+    private record WeatherStateKey(long userId, long chatId) {
+    }
+
+    private record StoredAlert(int id, int cityId, String cityName) {
+    }
+}
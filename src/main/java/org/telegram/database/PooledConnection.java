@@ -0,0 +1,209 @@
+/*
+ * This is the source code of Telegram Bot v. 2.0
+ * It is licensed under GNU GPL v. 3 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Ruben Bermudez, 3/12/14.
+ */
+package org.telegram.database;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Ruben Bermudez
+ * @version 2.0
+ * Connection borrowed from {@link ConnectionDB}, closing it gives it back to the pool
+ */
+@Slf4j
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionDB pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statementCache;
+    private volatile long lastUsedAt;
+    private volatile long borrowedAt;
+    private volatile Exception borrowTrace;
+    private volatile boolean leakReported;
+
+    PooledConnection(ConnectionDB pool, Connection connection, int statementCacheSize) {
+        this.pool = pool;
+        this.connection = connection;
+        this.statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > statementCacheSize) {
+                    closeStatement(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.lastUsedAt = System.currentTimeMillis();
+    }
+
+    public ResultSet runSqlQuery(String query) throws SQLException {
+        final Statement statement = this.connection.createStatement();
+        statement.closeOnCompletion();
+        return statement.executeQuery(query);
+    }
+
+    public Boolean executeQuery(String query) throws SQLException {
+        try (Statement statement = this.connection.createStatement()) {
+            return statement.execute(query);
+        }
+    }
+
+    /**
+     * Get a prepared statement for a query, reusing the one prepared before for the same sql in this connection.
+     * The statement belongs to the connection, callers must not close it.
+     *
+     * @param query Sql of the statement
+     * @return Statement with its parameters cleared
+     * @throws SQLException If the statement can't be prepared
+     */
+    public PreparedStatement getPreparedStatement(String query) throws SQLException {
+        PreparedStatement preparedStatement = statementCache.get(query);
+        if (preparedStatement == null || preparedStatement.isClosed()) {
+            preparedStatement = this.connection.prepareStatement(query);
+            statementCache.put(query, preparedStatement);
+        } else {
+            preparedStatement.clearParameters();
+        }
+        return preparedStatement;
+    }
+
+    public PreparedStatement getPreparedStatement(String query, int flags) throws SQLException {
+        return this.connection.prepareStatement(query, flags);
+    }
+
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return this.connection.getMetaData();
+    }
+
+    /**
+     * Initilize a transaction in database
+     * @throws SQLException If initialization fails
+     */
+    public void initTransaction() throws SQLException {
+        this.connection.setAutoCommit(false);
+    }
+
+    /**
+     * Finish a transaction in database and commit changes. If the commit fails the transaction is rolled back
+     * @throws SQLException If the commit fails
+     */
+    public void commitTransaction() throws SQLException {
+        try {
+            this.connection.commit();
+        } catch (SQLException e) {
+            try {
+                this.connection.rollback();
+            } catch (SQLException rollbackException) {
+                e.addSuppressed(rollbackException);
+            }
+            throw e;
+        } finally {
+            this.connection.setAutoCommit(true);
+        }
+    }
+
+    public void rollbackTransaction() throws SQLException {
+        try {
+            this.connection.rollback();
+        } catch (SQLException e) {
+            log.error("Error rolling back the transaction", e);
+        } finally {
+            this.connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Give the connection back to the pool
+     */
+    @Override
+    public void close() {
+        pool.release(this);
+    }
+
+    void markBorrowed(boolean traceBorrow) {
+        borrowedAt = System.currentTimeMillis();
+        borrowTrace = traceBorrow ? new Exception("Connection borrowed here") : null;
+        leakReported = false;
+    }
+
+    /**
+     * Leave the connection ready for the next borrower
+     * @return true if the connection can go back to the pool, false if it must be discarded
+     */
+    boolean resetForReuse() {
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            lastUsedAt = System.currentTimeMillis();
+            borrowTrace = null;
+            return true;
+        } catch (SQLException e) {
+            log.warn("Discarding connection that could not be reset", e);
+            return false;
+        }
+    }
+
+    boolean isValid(int timeoutSeconds) {
+        try {
+            return connection.isValid(timeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void closePhysical() {
+        statementCache.values().forEach(PooledConnection::closeStatement);
+        statementCache.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.error("Error closing the connection", e);
+        }
+    }
+
+    private static void closeStatement(PreparedStatement preparedStatement) {
+        try {
+            preparedStatement.close();
+        } catch (SQLException e) {
+            log.warn("Error closing cached statement", e);
+        }
+    }
+
+    long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+    Exception getBorrowTrace() {
+        return borrowTrace;
+    }
+
+    boolean isLeakReported() {
+        return leakReported;
+    }
+
+    void setLeakReported() {
+        this.leakReported = true;
+    }
+}
@@ -0,0 +1,378 @@
+package org.telegram.database;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Persistence of an in memory state as snapshots plus a write ahead log of the changes made after them.
+ * <p>
+ * Changes are appended to a memory mapped log segment, so an append is a memory copy. A background thread
+ * forces the appended changes to disk, so the changes of all writers since the previous sync are written
+ * together. Writers can wait for their change to be synced, which wakes the syncer, or return right away,
+ * in which case changes are synced every few millis and a crash of the machine, but not of the process,
+ * loses the last few millis of changes.
+ * <p>
+ * When a segment is full, appends continue in a new one and a snapshot of the whole state is written in
+ * the background. Once it is complete, the older snapshots and segments are deleted. The snapshot is taken
+ * while changes are being applied, so it may already contain some changes of the new segment: replaying
+ * a change over a state that already has it must leave the same state.
+ * <p>
+ * Every record is stored as its length, its checksum and its bytes. On start the latest snapshot and the
+ * following segments are replayed, stopping every segment at the first incomplete record.
+ */
+@Slf4j
+public class StateLog {
+    private static final String SNAPSHOTPREFIX = "snapshot-";
+    private static final String SEGMENTPREFIX = "wal-";
+    private static final String TEMPORARYSUFFIX = ".tmp";
+    private static final int HEADERBYTES = 8; ///< Length and checksum of every record
+
+    /**
+     * Applies a record read from the log or from a snapshot
+     */
+    public interface Replayer {
+        void replay(DataInputStream record) throws IOException;
+    }
+
+    /**
+     * Writes every record needed to rebuild the current state
+     */
+    public interface Snapshotter {
+        void writeSnapshot(RecordWriter writer) throws IOException;
+    }
+
+    public interface RecordWriter {
+        void write(byte[] record, int length) throws IOException;
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long syncMillis;
+    private final boolean syncWrites;
+    private final Snapshotter snapshotter;
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "state-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object lock = new Object(); ///< Guards every field below
+    private final CRC32C checksum = new CRC32C();
+    private long generation; ///< Generation of the current segment
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int syncedPosition; ///< Position of the current segment already forced to disk
+    private long appendedBytes; ///< Bytes appended since start, across segments
+    private long syncedBytes; ///< Appended bytes already forced to disk
+    private boolean closed;
+
+    /**
+     * Constructor, replays the existing snapshot and log and starts a new segment
+     *
+     * @param directory    Directory of the snapshots and segments
+     * @param segmentBytes Size of every log segment
+     * @param syncMillis   Time between syncs of the log
+     * @param syncWrites   If true, appends wait until the change is synced
+     * @param replayer     Applies the records on start
+     * @param snapshotter  Writes the state on every snapshot
+     */
+    public StateLog(Path directory, int segmentBytes, long syncMillis, boolean syncWrites, Replayer replayer, Snapshotter snapshotter) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.syncMillis = syncMillis;
+        this.syncWrites = syncWrites;
+        this.snapshotter = snapshotter;
+        try {
+            Files.createDirectories(directory);
+            final long startTime = System.currentTimeMillis();
+            synchronized (lock) {
+                generation = recover(replayer);
+                roll();
+            }
+            log.info("Recovered state from {} in {} ms", directory, System.currentTimeMillis() - startTime);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening state log in " + directory, e);
+        }
+        Thread syncer = new Thread(this::syncPeriodically, "state-log-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Append a record to the log. With synced writes, call {@link #awaitSync(long)} afterwards, outside of
+     * any lock held while appending, so that concurrent writers are synced together.
+     *
+     * @param record Bytes of the record
+     * @param length Length of the record
+     * @return Position of the log after the record
+     */
+    public long append(byte[] record, int length) {
+        if (length + HEADERBYTES > segmentBytes) {
+            throw new IllegalArgumentException("Record of " + length + " bytes doesn't fit in a log segment");
+        }
+        synchronized (lock) {
+            if (closed) {
+                log.error("Discarding change appended after closing the state log");
+                return appendedBytes;
+            }
+            try {
+                if (segment.remaining() < length + HEADERBYTES) {
+                    roll();
+                }
+            } catch (IOException e) {
+                log.error("Error starting a new state log segment, discarding change", e);
+                return appendedBytes;
+            }
+            checksum.reset();
+            checksum.update(record, 0, length);
+            segment.putInt(length);
+            segment.putInt((int) checksum.getValue());
+            segment.put(record, 0, length);
+            appendedBytes += length + HEADERBYTES;
+            return appendedBytes;
+        }
+    }
+
+    /**
+     * With synced writes, wait until the log is synced up to a position. Otherwise return right away.
+     *
+     * @param position Position returned by {@link #append(byte[], int)}
+     */
+    public void awaitSync(long position) {
+        if (!syncWrites) {
+            return;
+        }
+        synchronized (lock) {
+            if (syncedBytes < position) {
+                lock.notifyAll(); ///< Wake the syncer, writers arriving while it syncs are synced together next
+            }
+            while (syncedBytes < position && !closed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sync the log and stop accepting changes. Waits for a snapshot being written, so the directory can be
+     * opened again once this returns.
+     */
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            segment.force();
+            syncedBytes = appendedBytes;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Error closing state log segment", e);
+            }
+            lock.notifyAll();
+        }
+        snapshotExecutor.shutdown();
+        try {
+            if (!snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("State snapshot still being written after closing the state log");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Replay the latest complete snapshot and the segments written after it
+     *
+     * @return Latest generation found
+     */
+    private long recover(Replayer replayer) throws IOException {
+        long snapshotGeneration = 0;
+        long lastGeneration = 0;
+        List<Long> segmentGenerations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMPORARYSUFFIX)) {
+                    Files.delete(file);
+                } else if (name.startsWith(SNAPSHOTPREFIX)) {
+                    long fileGeneration = Long.parseLong(name.substring(SNAPSHOTPREFIX.length()));
+                    snapshotGeneration = Math.max(snapshotGeneration, fileGeneration);
+                    lastGeneration = Math.max(lastGeneration, fileGeneration);
+                } else if (name.startsWith(SEGMENTPREFIX)) {
+                    long fileGeneration = Long.parseLong(name.substring(SEGMENTPREFIX.length()));
+                    segmentGenerations.add(fileGeneration);
+                    lastGeneration = Math.max(lastGeneration, fileGeneration);
+                }
+            }
+        }
+        if (snapshotGeneration > 0) {
+            replayFile(directory.resolve(SNAPSHOTPREFIX + snapshotGeneration), replayer);
+        }
+        Collections.sort(segmentGenerations);
+        for (long segmentGeneration : segmentGenerations) {
+            if (segmentGeneration >= snapshotGeneration) {
+                replayFile(directory.resolve(SEGMENTPREFIX + segmentGeneration), replayer);
+            }
+        }
+        return lastGeneration;
+    }
+
+    private void replayFile(Path file, Replayer replayer) throws IOException {
+        try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = input.map(FileChannel.MapMode.READ_ONLY, 0, input.size());
+            CRC32C recordChecksum = new CRC32C();
+            int records = 0;
+            while (buffer.remaining() >= HEADERBYTES) {
+                int length = buffer.getInt();
+                int expectedChecksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                buffer.get(record);
+                recordChecksum.reset();
+                recordChecksum.update(record);
+                if ((int) recordChecksum.getValue() != expectedChecksum) {
+                    log.warn("Discarding the end of {}, record {} is incomplete", file, records);
+                    break;
+                }
+                replayer.replay(new DataInputStream(new ByteArrayInputStream(record)));
+                records++;
+            }
+            log.debug("Replayed {} records of {}", records, file);
+        }
+    }
+
+    /**
+     * Continue appending in a new segment and schedule a snapshot of the state. Appends never continue in
+     * a segment found on start, as its end may hold garbage from a crash.
+     */
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.force();
+            syncedBytes = appendedBytes;
+            channel.close();
+            lock.notifyAll();
+        }
+        generation++;
+        channel = FileChannel.open(directory.resolve(SEGMENTPREFIX + generation),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        syncedPosition = 0;
+        final long snapshotGeneration = generation;
+        snapshotExecutor.execute(() -> writeSnapshot(snapshotGeneration));
+    }
+
+    private void writeSnapshot(long snapshotGeneration) {
+        synchronized (lock) {
+            if (closed || snapshotGeneration < generation) {
+                return; ///< A newer snapshot is already queued
+            }
+        }
+        final long startTime = System.currentTimeMillis();
+        final Path temporaryFile = directory.resolve(SNAPSHOTPREFIX + snapshotGeneration + TEMPORARYSUFFIX);
+        try {
+            try (FileChannel snapshotChannel = FileChannel.open(temporaryFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(snapshotChannel), 65536));
+                CRC32C recordChecksum = new CRC32C();
+                snapshotter.writeSnapshot((record, length) -> {
+                    recordChecksum.reset();
+                    recordChecksum.update(record, 0, length);
+                    output.writeInt(length);
+                    output.writeInt((int) recordChecksum.getValue());
+                    output.write(record, 0, length);
+                });
+                output.flush();
+                snapshotChannel.force(true);
+            }
+            Files.move(temporaryFile, directory.resolve(SNAPSHOTPREFIX + snapshotGeneration), StandardCopyOption.ATOMIC_MOVE);
+            deleteOlderThan(snapshotGeneration);
+            log.info("Wrote state snapshot {} in {} ms", snapshotGeneration, System.currentTimeMillis() - startTime);
+        } catch (IOException | RuntimeException e) {
+            log.error("Error writing state snapshot " + snapshotGeneration, e);
+        }
+    }
+
+    private void deleteOlderThan(long snapshotGeneration) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String fileGeneration = name.startsWith(SNAPSHOTPREFIX) ? name.substring(SNAPSHOTPREFIX.length())
+                        : name.startsWith(SEGMENTPREFIX) ? name.substring(SEGMENTPREFIX.length()) : null;
+                if (fileGeneration != null && !fileGeneration.endsWith(TEMPORARYSUFFIX)
+                        && Long.parseLong(fileGeneration) < snapshotGeneration) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Force the appended records to disk every few millis, the changes of all writers since the previous
+     * sync are written with a single call
+     */
+    private void syncPeriodically() {
+        while (true) {
+            final MappedByteBuffer currentSegment;
+            final int from;
+            final int to;
+            final long appended;
+            synchronized (lock) {
+                try {
+                    lock.wait(syncMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+                if (syncedBytes == appendedBytes) {
+                    continue;
+                }
+                currentSegment = segment;
+                from = syncedPosition;
+                to = segment.position();
+                appended = appendedBytes;
+            }
+            currentSegment.force(from, to - from);
+            synchronized (lock) {
+                if (currentSegment == segment) {
+                    syncedPosition = Math.max(syncedPosition, to);
+                }
+                syncedBytes = Math.max(syncedBytes, appended);
+                lock.notifyAll();
+            }
+        }
+    }
+}
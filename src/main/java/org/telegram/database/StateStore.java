@@ -0,0 +1,160 @@
+package org.telegram.database;
+
+import org.telegram.structure.WeatherAlert;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Storage of the state of the bots. Implementations must be thread safe, the bots call them from
+ * several threads at the same time.
+ */
+public interface StateStore {
+    /**
+     * Backends of the state store
+     */
+    enum Type {
+        JDBC, ///< MySQL database configured in BuildVars
+        FILE, ///< State kept in memory and persisted to a local append only log
+        MEMORY ///< State kept in memory only, lost on restart
+    }
+
+    boolean setUserStateForCommandsBot(Long userId, boolean active);
+
+    boolean getUserStateForCommandsBot(Long userId);
+
+    boolean addFile(String fileId, Long userId, String caption);
+
+    /**
+     * @return Captions of the files of an user by file id
+     */
+    HashMap<String, String> getFilesByUser(Long userId);
+
+    boolean addUserForFile(Long userId, int status);
+
+    boolean deleteUserForFile(Long userId);
+
+    /**
+     * @return Status of the user in the files bot or -1 if there is none
+     */
+    int getUserStatusForFile(Long userId);
+
+    /**
+     * Delete the conversations with the files bot not updated since a time
+     *
+     * @return Number of conversations deleted
+     */
+    int purgeFilesUsersOlderThan(long cutoffMillis);
+
+    boolean doesFileExists(String fileId);
+
+    boolean deleteFile(String fileId);
+
+    /**
+     * Add a city as the most recent one of an user
+     */
+    boolean addRecentWeather(Long userId, Integer cityId, String cityName);
+
+    /**
+     * Add a city as the most recent one of several users at once
+     */
+    default void addRecentWeather(Collection<Long> userIds, Integer cityId, String cityName) {
+        for (Long userId : userIds) {
+            addRecentWeather(userId, cityId, cityName);
+        }
+    }
+
+    /**
+     * @return Names of the recent cities of an user, most recent first
+     */
+    List<String> getRecentWeather(Long userId);
+
+    /**
+     * @return Id of a recent city of an user or null if it isn't one
+     */
+    Integer getRecentWeatherIdByCity(Long userId, String city);
+
+    boolean addUserForDirection(Long userId, int status, int messageId, String origin);
+
+    /**
+     * @return Status of the user in the directions bot or -1 if there is none
+     */
+    int getUserDestinationStatus(Long userId);
+
+    /**
+     * @return Message the user of the directions bot must reply to or 0 if there is none
+     */
+    int getUserDestinationMessageId(Long userId);
+
+    /**
+     * @return Origin sent by the user of the directions bot or empty if there is none
+     */
+    String getUserOrigin(Long userId);
+
+    boolean deleteUserForDirections(Long userId);
+
+    /**
+     * Delete the conversations with the directions bot not updated since a time
+     *
+     * @return Number of conversations deleted
+     */
+    int purgeDirectionsOlderThan(long cutoffMillis);
+
+    boolean putLastUpdate(String token, Integer updateId);
+
+    /**
+     * @return Last update processed by the bot with that token or -1 if there is none
+     */
+    Integer getLastUpdate(String token);
+
+    /**
+     * @return Language of the user or "en" if there is none
+     */
+    String getUserLanguage(Long userId);
+
+    boolean putUserLanguage(Long userId, String language);
+
+    /**
+     * @return State of the weather conversation with an user in a chat or 0 if there is none
+     */
+    int getWeatherState(Long userId, Long chatId);
+
+    boolean insertWeatherState(Long userId, Long chatId, int state);
+
+    /**
+     * Delete the weather conversation states not updated since a time
+     *
+     * @return Number of states deleted
+     */
+    int purgeWeatherStatesOlderThan(long cutoffMillis);
+
+    /**
+     * @return Language and units of the user in the weather bot, defaults are "en" and "metric"
+     */
+    String[] getUserWeatherOptions(Long userId);
+
+    /**
+     * Load the weather options of several users at once, when the backend benefits from it
+     */
+    void preloadUserWeatherOptions(Collection<Long> userIds);
+
+    boolean putUserWeatherLanguageOption(Long userId, String language);
+
+    boolean putUserWeatherUnitsOption(Long userId, String units);
+
+    /**
+     * @return True if the alert was created, false if the user already has an alert for that city
+     */
+    boolean createNewWeatherAlert(long userId, Integer cityId, String cityName);
+
+    List<String> getAlertCitiesNameByUser(long userId);
+
+    boolean deleteAlertCity(Long userId, String cityName);
+
+    boolean deleteAlertsForUser(Long userId);
+
+    List<WeatherAlert> getAllAlerts();
+}
@@ -0,0 +1,273 @@
+package org.telegram.database;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Queue of database writes executed in the background. Writes are coalesced by key, so only the last
+ * pending write of a row is executed, and flushed in jdbc batches inside a single transaction when there
+ * are enough pending writes or after some time.
+ * <p>
+ * The statements of a write run in order. Statements of different writes in the same flush must not
+ * depend on each other, they are grouped by sql to be batched.
+ */
+@Slf4j
+public class WriteBehindQueue {
+    /**
+     * What happens to writes not flushed yet if the process dies
+     */
+    public enum Durability {
+        SYNC, ///< Writes are executed on the caller thread, nothing is lost
+        ASYNC, ///< Writes are queued without limit, every pending write can be lost
+        BOUNDEDLOSS ///< Writes are queued but callers wait when there are too many, at most that many writes can be lost
+    }
+
+    /**
+     * Statement of a write
+     *
+     * @param query  Sql of the statement
+     * @param binder Sets the parameters of the statement
+     */
+    public record Statement(String query, ConnectionDB.StatementBinder binder) {
+    }
+
+    private final ConnectionDB connectionDB;
+    private final Durability durability;
+    private final int batchSize;
+    private final long flushMillis;
+    private final int maxPending;
+
+    private final Object lock = new Object(); ///< Guards pending writes and the flushing flag
+    private final ReentrantLock writeLock = new ReentrantLock(); ///< Held while writes are being executed
+    private LinkedHashMap<Object, Statement[]> pendingWrites = new LinkedHashMap<>();
+    private boolean flushing;
+    private volatile boolean closed;
+
+    /**
+     * Constructor
+     *
+     * @param connectionDB Pool to get connections from
+     * @param durability   Durability of the writes
+     * @param batchSize    Pending writes that trigger a flush
+     * @param flushMillis  Max time a write is pending before being flushed
+     * @param maxPending   Pending writes after which callers wait, only with bounded loss
+     */
+    public WriteBehindQueue(ConnectionDB connectionDB, Durability durability, int batchSize, long flushMillis, int maxPending) {
+        this.connectionDB = connectionDB;
+        this.durability = durability;
+        this.batchSize = batchSize;
+        this.flushMillis = flushMillis;
+        this.maxPending = Math.max(maxPending, batchSize);
+        if (durability != Durability.SYNC) {
+            Thread flusher = new Thread(this::flushPeriodically, "database-writer");
+            flusher.setDaemon(true);
+            flusher.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close, "database-writer-shutdown"));
+        }
+    }
+
+    /**
+     * Queue a write, replacing the pending write with the same key
+     *
+     * @param key        Key of the row written, keys of different tables must be different
+     * @param statements Statements to run, in order
+     * @return True if the write is queued or, with sync durability or once closed, if it updated any row
+     */
+    public boolean write(Object key, Statement... statements) {
+        if (durability != Durability.SYNC) {
+            synchronized (lock) {
+                if (durability == Durability.BOUNDEDLOSS) {
+                    while (pendingWrites.size() >= maxPending && !pendingWrites.containsKey(key) && !closed) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+                if (!closed) {
+                    pendingWrites.put(key, statements);
+                    if (pendingWrites.size() >= batchSize) {
+                        lock.notifyAll();
+                    }
+                    return true;
+                }
+            }
+        }
+        // Executed after the final flush of a closed queue, so the pending write of the same key doesn't land last
+        writeLock.lock();
+        try {
+            return execute(List.of(statements)) > 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Write the pending write of a key, if any, so that reading the row afterwards returns it
+     *
+     * @param key Key of the row
+     */
+    public void flush(Object key) {
+        synchronized (lock) {
+            if (!flushing && !pendingWrites.containsKey(key)) {
+                return;
+            }
+        }
+        writeLock.lock();
+        try {
+            Statement[] statements;
+            synchronized (lock) {
+                statements = pendingWrites.remove(key);
+                lock.notifyAll();
+            }
+            if (statements != null) {
+                execute(List.of(statements));
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Write every pending write
+     */
+    public void flushAll() {
+        writeLock.lock();
+        try {
+            LinkedHashMap<Object, Statement[]> writes;
+            synchronized (lock) {
+                writes = pendingWrites;
+                pendingWrites = new LinkedHashMap<>();
+                flushing = true;
+                lock.notifyAll();
+            }
+            try {
+                if (!writes.isEmpty()) {
+                    executeBatch(writes);
+                }
+            } finally {
+                synchronized (lock) {
+                    flushing = false;
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Stop queueing writes and write the pending ones
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        flushAll();
+    }
+
+    private void flushPeriodically() {
+        while (true) {
+            synchronized (lock) {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMillis);
+                long remaining;
+                while (!closed && pendingWrites.size() < batchSize && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            try {
+                flushAll();
+            } catch (RuntimeException e) {
+                log.error("Error flushing database writes", e);
+            }
+        }
+    }
+
+    /**
+     * Execute the writes in a single transaction, batching equal statements. If the transaction fails,
+     * writes are executed one by one so that a single bad write doesn't lose the others.
+     */
+    private void executeBatch(Map<Object, Statement[]> writes) {
+        try (PooledConnection connection = connectionDB.getConnection()) {
+            connection.initTransaction();
+            try {
+                int statementsPerWrite = writes.values().stream().mapToInt(statements -> statements.length).max().orElse(0);
+                for (int position = 0; position < statementsPerWrite; position++) {
+                    Map<String, List<ConnectionDB.StatementBinder>> binders = new LinkedHashMap<>();
+                    for (Statement[] statements : writes.values()) {
+                        if (position < statements.length) {
+                            binders.computeIfAbsent(statements[position].query(), query -> new ArrayList<>())
+                                    .add(statements[position].binder());
+                        }
+                    }
+                    for (Map.Entry<String, List<ConnectionDB.StatementBinder>> query : binders.entrySet()) {
+                        PreparedStatement preparedStatement = connection.getPreparedStatement(query.getKey());
+                        preparedStatement.clearBatch();
+                        for (ConnectionDB.StatementBinder binder : query.getValue()) {
+                            binder.bind(preparedStatement);
+                            preparedStatement.addBatch();
+                        }
+                        preparedStatement.executeBatch();
+                    }
+                }
+                connection.commitTransaction();
+                return;
+            } catch (SQLException e) {
+                connection.rollbackTransaction();
+                log.warn("Error writing batch of {} writes, writing them one by one", writes.size(), e);
+            }
+        } catch (SQLException e) {
+            log.error("Error getting connection to write {} writes", writes.size(), e);
+        }
+        for (Statement[] statements : writes.values()) {
+            execute(List.of(statements));
+        }
+    }
+
+    /**
+     * Execute the statements of a write in a transaction
+     *
+     * @return Number of rows updated
+     */
+    private int execute(List<Statement> statements) {
+        int updatedRows = 0;
+        try (PooledConnection connection = connectionDB.getConnection()) {
+            connection.initTransaction();
+            try {
+                for (Statement statement : statements) {
+                    PreparedStatement preparedStatement = connection.getPreparedStatement(statement.query());
+                    statement.binder().bind(preparedStatement);
+                    updatedRows += preparedStatement.executeUpdate();
+                }
+                connection.commitTransaction();
+            } catch (SQLException e) {
+                connection.rollbackTransaction();
+                throw e;
+            }
+        } catch (SQLException e) {
+            log.error("Error writing {}", statements.get(0).query(), e);
+            return 0;
+        }
+        return updatedRows;
+    }
+}
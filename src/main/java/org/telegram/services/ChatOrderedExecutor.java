@@ -0,0 +1,157 @@
+package org.telegram.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.telegram.BuildVars;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Executor that runs tasks of different keys in parallel and tasks of the same key one after another,
+ * in the order they were submitted. Tasks run in virtual threads when the jvm supports them.
+ */
+@Slf4j
+public class ChatOrderedExecutor {
+    private static volatile ChatOrderedExecutor instance; ///< Instance of this class
+
+    private final ExecutorService executor;
+    private final Semaphore inFlightPermits;
+    private final ConcurrentHashMap<Object, CompletableFuture<Void>> lastTaskByKey = new ConcurrentHashMap<>();
+
+    private ChatOrderedExecutor() {
+        executor = createExecutor();
+        inFlightPermits = new Semaphore(BuildVars.updatesMaxInFlight);
+    }
+
+    /**
+     * Singleton
+     *
+     * @return Return the instance of this class
+     */
+    public static ChatOrderedExecutor getInstance() {
+        ChatOrderedExecutor currentInstance;
+        if (instance == null) {
+            synchronized (ChatOrderedExecutor.class) {
+                if (instance == null) {
+                    instance = new ChatOrderedExecutor();
+                }
+                currentInstance = instance;
+            }
+        } else {
+            currentInstance = instance;
+        }
+        return currentInstance;
+    }
+
+    /**
+     * Virtual threads executor if the jvm running the bots has them (21+), a pool of platform threads otherwise
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            ExecutorService virtualExecutor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.info("Processing updates in virtual threads");
+            return virtualExecutor;
+        } catch (ReflectiveOperationException e) {
+            log.info("Virtual threads not available, processing updates in {} threads", BuildVars.updatesPlatformThreads);
+            AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newFixedThreadPool(BuildVars.updatesPlatformThreads, runnable -> {
+                Thread thread = new Thread(runnable, "updates-processor-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Run a task after the previous tasks of the same key. Every key with tasks pending holds a single
+     * permit until its last task finishes, so a busy chat doesn't hold more permits than a quiet one.
+     * Blocks while the max number of keys or unordered tasks in flight is reached.
+     *
+     * @param key  Key to keep the order, null if the task doesn't need to be ordered
+     * @param task Task to run
+     */
+    public void execute(Object key, Runnable task) {
+        if (key != null && chainToPendingTasks(key, task)) {
+            return;
+        }
+
+        try {
+            inFlightPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted waiting to process a task, running it in the calling thread");
+            task.run();
+            return;
+        }
+
+        if (key == null) {
+            executor.execute(() -> {
+                try {
+                    runLogging(null, task);
+                } finally {
+                    inFlightPermits.release();
+                }
+            });
+            return;
+        }
+
+        final boolean[] chained = {false};
+        CompletableFuture<Void> queuedTask = lastTaskByKey.compute(key, (k, lastTask) -> {
+            if (lastTask == null) {
+                return CompletableFuture.runAsync(() -> runLogging(key, task), executor);
+            }
+            chained[0] = true; // Another task of the key was submitted meanwhile and holds the permit
+            return chain(key, lastTask, task);
+        });
+        if (chained[0]) {
+            inFlightPermits.release();
+        }
+        releaseWhenLast(key, queuedTask);
+    }
+
+    /**
+     * Queue a task after the pending tasks of its key, if there are any, without taking another permit
+     *
+     * @return True if the key had pending tasks and the task was queued after them
+     */
+    private boolean chainToPendingTasks(Object key, Runnable task) {
+        CompletableFuture<Void> queuedTask = lastTaskByKey.computeIfPresent(key, (k, lastTask) -> chain(key, lastTask, task));
+        if (queuedTask == null) {
+            return false;
+        }
+        releaseWhenLast(key, queuedTask);
+        return true;
+    }
+
+    private CompletableFuture<Void> chain(Object key, CompletableFuture<Void> lastTask, Runnable task) {
+        return lastTask.handleAsync((result, throwable) -> {
+            runLogging(key, task);
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Release the permit of the key once the task finishes, if no other task was queued after it
+     */
+    private void releaseWhenLast(Object key, CompletableFuture<Void> queuedTask) {
+        queuedTask.whenComplete((result, throwable) -> {
+            if (lastTaskByKey.remove(key, queuedTask)) {
+                inFlightPermits.release();
+            }
+        });
+    }
+
+    private static void runLogging(Object key, Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("Error running task for key {}", key, e);
+        }
+    }
+}
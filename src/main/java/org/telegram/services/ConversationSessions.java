@@ -0,0 +1,89 @@
+package org.telegram.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.telegram.BuildVars;
+import org.telegram.database.DatabaseManager;
+import org.telegram.database.StateStore;
+
+import java.util.function.IntSupplier;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Expiration of the conversations users start with the bots and never finish.
+ * <p>
+ * Conversations kept in memory by a bot are stored in maps whose entries expire after a ttl, see
+ * {@link org.telegram.structure.LongIntMap}. Expired entries are dropped when read, and the ones never read
+ * again are purged periodically from here.
+ * <p>
+ * Conversations stored in the state store are purged periodically in bulk, deleting the ones not updated
+ * within the ttl of their conversation.
+ */
+@Slf4j
+public class ConversationSessions {
+    private static volatile ConversationSessions instance;
+
+    /**
+     * Private constructor due to singleton
+     */
+    private ConversationSessions() {
+        TimerExecutor.getInstance().startExecutionAtFixedRate(new CustomTimerTask("Purge stored conversations", -1) {
+            @Override
+            public void execute() {
+                purgeStoredConversations();
+            }
+        }, BuildVars.sessionPurgeIntervalMillis, BuildVars.sessionPurgeIntervalMillis);
+    }
+
+    /**
+     * Singleton
+     *
+     * @return Return the instance of this class
+     */
+    public static ConversationSessions getInstance() {
+        ConversationSessions currentInstance;
+        if (instance == null) {
+            synchronized (ConversationSessions.class) {
+                if (instance == null) {
+                    instance = new ConversationSessions();
+                }
+                currentInstance = instance;
+            }
+        } else {
+            currentInstance = instance;
+        }
+        return currentInstance;
+    }
+
+    /**
+     * Purge periodically the expired conversations kept in memory by a bot
+     *
+     * @param name         Name of the conversation, for logs
+     * @param purgeExpired Removes the expired conversations and returns how many were removed
+     */
+    public void expirePeriodically(String name, IntSupplier purgeExpired) {
+        TimerExecutor.getInstance().startExecutionAtFixedRate(new CustomTimerTask("Expire " + name + " conversations", -1) {
+            @Override
+            public void execute() {
+                int expired = purgeExpired.getAsInt();
+                if (expired > 0) {
+                    log.debug("Expired {} {} conversations", expired, name);
+                }
+            }
+        }, BuildVars.sessionExpiryIntervalMillis, BuildVars.sessionExpiryIntervalMillis);
+    }
+
+    private void purgeStoredConversations() {
+        try {
+            final long now = System.currentTimeMillis();
+            final StateStore stateStore = DatabaseManager.getInstance();
+            int directions = stateStore.purgeDirectionsOlderThan(now - BuildVars.directionsSessionTtlMillis);
+            int filesUsers = stateStore.purgeFilesUsersOlderThan(now - BuildVars.filesSessionTtlMillis);
+            int weatherStates = stateStore.purgeWeatherStatesOlderThan(now - BuildVars.weatherSessionTtlMillis);
+            log.info("Purged expired conversations: {} directions, {} files, {} weather",
+                    directions, filesUsers, weatherStates);
+        } catch (Exception e) {
+            log.error("Error purging expired conversations", e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.telegram.services;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Schedule of a cron expression evaluated in UTC. The expression has six fields separated by spaces:
+ * second (0-59), minute (0-59), hour (0-23), day of month (1-31), month (1-12) and day of week (0-7, 0 and 7
+ * are sunday). Every field is a list of values separated by commas, where a value is a number, a range
+ * "a-b" or "*", optionally followed by a step "/n". As in cron, when both days are restricted a time
+ * matching either of them runs.
+ */
+public class CronSchedule implements Schedule {
+    private static final int SEARCHYEARS = 5; ///< Expressions with no time within this many years never run
+
+    private final long seconds;
+    private final long minutes;
+    private final long hours;
+    private final long daysOfMonth;
+    private final long months;
+    private final long daysOfWeek;
+    private final boolean anyDayOfMonth;
+    private final boolean anyDayOfWeek;
+
+    private CronSchedule(String[] fields) {
+        seconds = parseField(fields[0], 0, 59);
+        minutes = parseField(fields[1], 0, 59);
+        hours = parseField(fields[2], 0, 23);
+        daysOfMonth = parseField(fields[3], 1, 31);
+        months = parseField(fields[4], 1, 12);
+        long parsedDaysOfWeek = parseField(fields[5], 0, 7);
+        daysOfWeek = (parsedDaysOfWeek & 1L << 7) != 0 ? parsedDaysOfWeek | 1L : parsedDaysOfWeek;
+        anyDayOfMonth = fields[3].equals("*");
+        anyDayOfWeek = fields[5].equals("*");
+    }
+
+    /**
+     * Parse a cron expression
+     *
+     * @throws IllegalArgumentException If the expression is not valid
+     */
+    public static CronSchedule parse(String expression) {
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 6) {
+            throw new IllegalArgumentException("Cron expression must have 6 fields: " + expression);
+        }
+        return new CronSchedule(fields);
+    }
+
+    @Override
+    public long nextExecutionMillis(long afterMillis) {
+        LocalDateTime time = LocalDateTime.ofEpochSecond(Math.floorDiv(afterMillis, 1000) + 1, 0, ZoneOffset.UTC);
+        final int lastYear = time.getYear() + SEARCHYEARS;
+        while (time.getYear() <= lastYear) {
+            if (!matches(months, time.getMonthValue())) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+            } else if (!matchesDay(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if (!matches(hours, time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!matches(minutes, time.getMinute())) {
+                time = time.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+            } else if (!matches(seconds, time.getSecond())) {
+                time = time.plusSeconds(1);
+            } else {
+                return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+            }
+        }
+        return -1;
+    }
+
+    private boolean matchesDay(LocalDateTime time) {
+        boolean dayOfMonth = matches(daysOfMonth, time.getDayOfMonth());
+        boolean dayOfWeek = matches(daysOfWeek, time.getDayOfWeek().getValue() % 7);
+        if (anyDayOfMonth || anyDayOfWeek) {
+            return dayOfMonth && dayOfWeek;
+        }
+        return dayOfMonth || dayOfWeek;
+    }
+
+    private static boolean matches(long values, int value) {
+        return (values & 1L << value) != 0;
+    }
+
+    /**
+     * @return Bit mask with the values of the field
+     */
+    private static long parseField(String field, int min, int max) {
+        long values = 0;
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = parseNumber(part.substring(slash + 1), 1, max, field);
+                part = part.substring(0, slash);
+            }
+            int from;
+            int to;
+            if (part.equals("*")) {
+                from = min;
+                to = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash >= 0) {
+                    from = parseNumber(part.substring(0, dash), min, max, field);
+                    to = parseNumber(part.substring(dash + 1), from, max, field);
+                } else {
+                    from = parseNumber(part, min, max, field);
+                    to = slash >= 0 ? max : from;
+                }
+            }
+            for (int value = from; value <= to; value += step) {
+                values |= 1L << value;
+            }
+        }
+        return values;
+    }
+
+    private static int parseNumber(String number, int min, int max, String field) {
+        try {
+            int value = Integer.parseInt(number);
+            if (value >= min && value <= max) {
+                return value;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Invalid cron field: " + field);
+    }
+}
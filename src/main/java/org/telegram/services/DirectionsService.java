@@ -30,6 +30,8 @@ public class DirectionsService {
     private static final DateTimeFormatter dateFormaterFromDate = DateTimeFormatter.ofPattern("dd/MM/yyyy"); ///< Date to text formater
     private static volatile DirectionsService instance; ///< Instance of this class
 
+    private final OkHttpClient okHttpClient = HttpClientProvider.getInstance().getDirectionsClient();
+
     /**
      * Constructor (private due to singleton pattern)
      */
@@ -68,7 +70,6 @@ public class DirectionsService {
         try {
             String completURL = BASEURL + "?origin=" + getQuery(origin) + "&destination=" +
                     getQuery(destination) + PARAMS.replace("@language@", language) + APIIDEND;
-            OkHttpClient okHttpClient = new OkHttpClient().newBuilder().build();
             Request request = new Request.Builder()
                     .url(completURL)
                     .header("charset", StandardCharsets.UTF_8.name())
@@ -82,8 +83,7 @@ public class DirectionsService {
                             JSONObject jsonObject = new JSONObject(body.string());
                             if (jsonObject.getString("status").equals("OK")) {
                                 JSONObject route = jsonObject.getJSONArray("routes").getJSONObject(0);
-                                String startOfAddress = LocalisationService.getString("directionsInit", language);
-                                String partialResponseToUser = String.format(startOfAddress,
+                                String partialResponseToUser = LocalisationService.format("directionsInit", language,
                                         route.getJSONArray("legs").getJSONObject(0).getString("start_address"),
                                         route.getJSONArray("legs").getJSONObject(0).getJSONObject("distance").getString("text"),
                                         route.getJSONArray("legs").getJSONObject(0).getString("end_address"),
@@ -113,29 +113,26 @@ public class DirectionsService {
 
     private List<String> getDirectionsSteps(JSONArray steps, String language) {
         List<String> stepsStringify = new ArrayList<>();
-        String partialStepsStringify = "";
+        StringBuilder partialStepsStringify = new StringBuilder();
         for (int i = 0; i < steps.length(); i++) {
             String step = getDirectionForStep(steps.getJSONObject(i), language);
             if (partialStepsStringify.length() > 1000) {
-                stepsStringify.add(partialStepsStringify);
-                partialStepsStringify = "";
+                stepsStringify.add(partialStepsStringify.toString());
+                partialStepsStringify.setLength(0);
             }
-            partialStepsStringify += i + ".\t" + step + "\n\n";
+            partialStepsStringify.append(i).append(".\t").append(step).append("\n\n");
         }
         if (!partialStepsStringify.isEmpty()) {
-            stepsStringify.add(partialStepsStringify);
+            stepsStringify.add(partialStepsStringify.toString());
         }
         return stepsStringify;
     }
 
     private String getDirectionForStep(JSONObject jsonObject, String language) {
-        String direction = LocalisationService.getString("directionsStep", language);
         String htmlIntructions = Jsoup.parse(jsonObject.getString("html_instructions")).text();
         String duration = jsonObject.getJSONObject("duration").getString("text");
         String distance = jsonObject.getJSONObject("distance").getString("text");
 
-        direction = String.format(direction, htmlIntructions, duration, distance);
-
-        return direction;
+        return LocalisationService.format("directionsStep", language, htmlIntructions, duration, distance);
     }
 }
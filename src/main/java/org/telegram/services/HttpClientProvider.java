@@ -0,0 +1,136 @@
+package org.telegram.services;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.telegram.BuildVars;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Http clients used by all the services and bots. Every client shares the same connection pool and
+ * dispatcher, so connections (and their TLS sessions) are reused across services, only timeouts change.
+ */
+public class HttpClientProvider {
+    private static final long WEATHERCONNECTTIMEOUTSECONDS = 5; ///< Connect timeout for OpenWeather
+    private static final long WEATHERREADTIMEOUTSECONDS = 10; ///< Read timeout for OpenWeather
+    private static final long WEATHERCALLTIMEOUTSECONDS = 20; ///< Max time of a whole call to OpenWeather
+    private static final long DIRECTIONSCONNECTTIMEOUTSECONDS = 5; ///< Connect timeout for Google directions
+    private static final long DIRECTIONSREADTIMEOUTSECONDS = 15; ///< Read timeout for Google directions, long routes take a while
+    private static final long DIRECTIONSCALLTIMEOUTSECONDS = 25; ///< Max time of a whole call to Google directions
+    private static final long RAECONNECTTIMEOUTSECONDS = 5; ///< Connect timeout for RAE
+    private static final long RAEREADTIMEOUTSECONDS = 20; ///< Read timeout for RAE, its html pages are slow to render
+    private static final long RAECALLTIMEOUTSECONDS = 30; ///< Max time of a whole call to RAE
+    private static final long TELEGRAMCONNECTTIMEOUTSECONDS = 10; ///< Connect timeout for Telegram api
+    private static final long TELEGRAMREADTIMEOUTSECONDS = 30; ///< Read timeout for Telegram api
+    private static final long TELEGRAMWRITETIMEOUTSECONDS = 70; ///< Write timeout for Telegram api, big enough to upload files
+    private static final long LONGPOLLINGREADTIMEOUTSECONDS = 100; ///< Read timeout for getUpdates, longer than its long polling timeout
+    private static volatile HttpClientProvider instance; ///< Instance of this class
+
+    private final OkHttpClient weatherClient;
+    private final OkHttpClient directionsClient;
+    private final OkHttpClient raeClient;
+    private final OkHttpClient telegramClient;
+    private final OkHttpClient telegramLongPollingClient;
+
+    private HttpClientProvider() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService dispatcherExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "http-dispatcher-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Dispatcher dispatcher = new Dispatcher(dispatcherExecutor);
+        dispatcher.setMaxRequests(BuildVars.httpMaxRequests);
+        dispatcher.setMaxRequestsPerHost(BuildVars.httpMaxRequestsPerHost);
+
+        OkHttpClient baseClient = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(BuildVars.httpMaxIdleConnections, BuildVars.httpKeepAliveSeconds, TimeUnit.SECONDS))
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true)
+                .build();
+
+        weatherClient = buildServiceClient(baseClient, WEATHERCONNECTTIMEOUTSECONDS, WEATHERREADTIMEOUTSECONDS,
+                WEATHERCALLTIMEOUTSECONDS);
+        directionsClient = buildServiceClient(baseClient, DIRECTIONSCONNECTTIMEOUTSECONDS, DIRECTIONSREADTIMEOUTSECONDS,
+                DIRECTIONSCALLTIMEOUTSECONDS);
+        raeClient = buildServiceClient(baseClient, RAECONNECTTIMEOUTSECONDS, RAEREADTIMEOUTSECONDS, RAECALLTIMEOUTSECONDS);
+
+        telegramClient = baseClient.newBuilder()
+                .connectTimeout(TELEGRAMCONNECTTIMEOUTSECONDS, TimeUnit.SECONDS)
+                .readTimeout(TELEGRAMREADTIMEOUTSECONDS, TimeUnit.SECONDS)
+                .writeTimeout(TELEGRAMWRITETIMEOUTSECONDS, TimeUnit.SECONDS)
+                .build();
+        telegramLongPollingClient = telegramClient.newBuilder()
+                .readTimeout(LONGPOLLINGREADTIMEOUTSECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Client for an external api, sharing the connection pool and dispatcher of the base client
+     */
+    private static OkHttpClient buildServiceClient(OkHttpClient baseClient, long connectTimeoutSeconds,
+                                                   long readTimeoutSeconds, long callTimeoutSeconds) {
+        return baseClient.newBuilder()
+                .connectTimeout(connectTimeoutSeconds, TimeUnit.SECONDS)
+                .readTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+                .callTimeout(callTimeoutSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Singleton
+     *
+     * @return Return the instance of this class
+     */
+    public static HttpClientProvider getInstance() {
+        HttpClientProvider currentInstance;
+        if (instance == null) {
+            synchronized (HttpClientProvider.class) {
+                if (instance == null) {
+                    instance = new HttpClientProvider();
+                }
+                currentInstance = instance;
+            }
+        } else {
+            currentInstance = instance;
+        }
+        return currentInstance;
+    }
+
+    public OkHttpClient getWeatherClient() {
+        return weatherClient;
+    }
+
+    public OkHttpClient getDirectionsClient() {
+        return directionsClient;
+    }
+
+    public OkHttpClient getRaeClient() {
+        return raeClient;
+    }
+
+    /**
+     * @return Client for requests sent by the bots
+     */
+    public OkHttpClient getTelegramClient() {
+        return telegramClient;
+    }
+
+    /**
+     * @return Client for getUpdates requests of long polling bots
+     */
+    public OkHttpClient getTelegramLongPollingClient() {
+        return telegramLongPollingClient;
+    }
+}
@@ -0,0 +1,91 @@
+package org.telegram.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.telegram.structure.SerializedReplyKeyboard;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboard;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiValidationException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Static keyboards of a bot built and serialized once per language. They are built again only when
+ * the localisation is reloaded.
+ */
+@Slf4j
+public class KeyboardRegistry<K> {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<K, Function<String, ReplyKeyboard>> factories;
+    private volatile Keyboards<K> keyboards;
+
+    /**
+     * Constructor
+     *
+     * @param factories Function building every keyboard for a language
+     */
+    public KeyboardRegistry(Map<K, Function<String, ReplyKeyboard>> factories) {
+        this.factories = Map.copyOf(factories);
+        this.keyboards = build();
+    }
+
+    /**
+     * Get a keyboard
+     *
+     * @param name     Keyboard to get
+     * @param language Language of the keyboard, default language if not supported
+     * @return Keyboard, it can't be modified
+     */
+    public ReplyKeyboard get(K name, String language) {
+        Keyboards<K> currentKeyboards = keyboards;
+        if (currentKeyboards.localisationVersion != LocalisationService.getVersion()) {
+            currentKeyboards = build();
+            keyboards = currentKeyboards;
+        }
+        Map<K, ReplyKeyboard> languageKeyboards = currentKeyboards.byLanguage.get(language);
+        if (languageKeyboards == null && language != null) {
+            languageKeyboards = currentKeyboards.byLanguage.get(language.toLowerCase());
+        }
+        if (languageKeyboards == null) {
+            languageKeyboards = currentKeyboards.defaultKeyboards;
+        }
+        return languageKeyboards.get(name);
+    }
+
+    private Keyboards<K> build() {
+        int localisationVersion = LocalisationService.getVersion();
+        List<LocalisationService.Language> languages = LocalisationService.getSupportedLanguages();
+        Map<String, Map<K, ReplyKeyboard>> byLanguage = new HashMap<>();
+        for (LocalisationService.Language language : languages) {
+            Map<K, ReplyKeyboard> languageKeyboards = new HashMap<>();
+            for (Map.Entry<K, Function<String, ReplyKeyboard>> factory : factories.entrySet()) {
+                languageKeyboards.put(factory.getKey(), serialize(factory.getValue().apply(language.getCode())));
+            }
+            byLanguage.put(language.getCode(), languageKeyboards);
+        }
+        return new Keyboards<>(localisationVersion, byLanguage, byLanguage.get(languages.get(0).getCode()));
+    }
+
+    /**
+     * Validate and serialize a keyboard, it is sent as it is if it can't be serialized
+     */
+    private static ReplyKeyboard serialize(ReplyKeyboard keyboard) {
+        try {
+            keyboard.validate();
+            return new SerializedReplyKeyboard(keyboard, objectMapper.writeValueAsString(keyboard));
+        } catch (TelegramApiValidationException | JsonProcessingException e) {
+            log.error("Error serializing keyboard {}", keyboard, e);
+            return keyboard;
+        }
+    }
+
+    private record Keyboards<K>(int localisationVersion, Map<String, Map<K, ReplyKeyboard>> byLanguage,
+                                Map<K, ReplyKeyboard> defaultKeyboards) {
+    }
+}
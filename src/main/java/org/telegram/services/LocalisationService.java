@@ -1,49 +1,61 @@
 package org.telegram.services;
 
+import lombok.extern.slf4j.Slf4j;
+import org.telegram.BuildVars;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
-import java.util.MissingResourceException;
-import java.util.PropertyResourceBundle;
-import java.util.ResourceBundle;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author Ruben Bermudez
  * @version 1.0
+ * Localised strings of the bots. Every strings file is loaded into a table indexed by language id and
+ * key id, with the fallback to the default language already resolved, so lookups are two array accesses.
+ * Files in the localisation directory extend or replace the bundled ones and are reloaded when they change.
  */
+@Slf4j
 public class LocalisationService {
     private static final String STRINGS_FILE = "strings";
-    private static final Object lock = new Object();
+    private static final String DEFAULTLANGUAGE = "en";
+    private static final String LANGUAGENAMEKEY = "languageName"; ///< Key with the name of the language in its own file
+    private static final List<String> BUNDLEDLANGUAGES = List.of("es", "pt", "nl", "it", "eo"); ///< Languages in the resources, in menu order
+    private static final Pattern STRINGSFILEPATTERN = Pattern.compile(STRINGS_FILE + "(?:_(\\w+))?\\.properties");
+    private static final long RELOADDELAYMILLIS = 500; ///< Wait for more changes before reloading, editors write files in several steps
+    private static final String NOTFOUND = "String not found";
+    private static final MessageTemplate templateNotFound = MessageTemplate.compile(NOTFOUND);
 
-    private static final List<Language> supportedLanguages = new ArrayList<>();
-    private static final Utf8ResourceBundle defaultLanguage;
-    private static final Utf8ResourceBundle spanish;
-    private static final Utf8ResourceBundle dutch;
-    private static final Utf8ResourceBundle italian;
-    private static final Utf8ResourceBundle portuguese;
-    private static final Utf8ResourceBundle esperanto;
+    private static final Object lock = new Object();
+    private static final Map<String, Integer> keyIds = new ConcurrentHashMap<>(); ///< Ids of the keys, stable across reloads
+    private static int lastVersion; ///< Version of the last table built
+    private static volatile LocalisationTable table;
 
     static {
-        synchronized (lock) {
-            defaultLanguage = new Utf8ResourceBundle(STRINGS_FILE, Locale.ROOT);
-            supportedLanguages.add(new Language("en", "English"));
-            spanish = new Utf8ResourceBundle(STRINGS_FILE, new Locale("es", "ES"));
-            supportedLanguages.add(new Language("es", "Español"));
-            portuguese = new Utf8ResourceBundle(STRINGS_FILE, new Locale("pt", "PT"));
-            supportedLanguages.add(new Language("pt", "Português"));
-            dutch = new Utf8ResourceBundle(STRINGS_FILE, new Locale("nl", "NL"));
-            supportedLanguages.add(new Language("nl", "Nederlands"));
-            italian = new Utf8ResourceBundle(STRINGS_FILE, new Locale("it", "IT"));
-            supportedLanguages.add(new Language("it", "Italiano"));
-            esperanto = new Utf8ResourceBundle(STRINGS_FILE, new Locale("eo", "EO"));
-            supportedLanguages.add(new Language("eo", "Esperanto"));
-        }
+        table = loadTable();
+        startWatcher();
     }
 
     /**
@@ -53,69 +65,253 @@ public class LocalisationService {
      * @return fetched string or error message otherwise
      */
     public static String getString(String key) {
-        String result;
-        try {
-            result = defaultLanguage.getString(key);
-        } catch (MissingResourceException e) {
-            result = "String not found";
-        }
-
-        return result;
+        return getString(key, DEFAULTLANGUAGE);
     }
 
     /**
-     * Get a string in default language
+     * Get a string in a language
      *
-     * @param key key of the resource to fetch
+     * @param key      key of the resource to fetch
+     * @param language language of the string, default language if not supported
      * @return fetched string or error message otherwise
      */
     public static String getString(String key, String language) {
-        String result;
-        try {
-            switch (language.toLowerCase()) {
-                case "es":
-                    result = spanish.getString(key);
-                    break;
-                case "pt":
-                    result = portuguese.getString(key);
-                    break;
-                case "nl":
-                    result = dutch.getString(key);
-                    break;
-                case "it":
-                    result = italian.getString(key);
-                    break;
-                case "eo":
-                    result = esperanto.getString(key);
-                    break;
-                default:
-                    result = defaultLanguage.getString(key);
-                    break;
-            }
-        } catch (MissingResourceException e) {
-            result = defaultLanguage.getString(key);
+        LocalisationTable currentTable = table;
+        String[] strings = currentTable.strings[currentTable.getLanguageId(language)];
+        Integer keyId = keyIds.get(key);
+        if (keyId == null || keyId >= strings.length || strings[keyId] == null) {
+            return NOTFOUND;
+        }
+        return strings[keyId];
+    }
+
+    /**
+     * Get the compiled template of a string
+     *
+     * @param key      key of the resource to fetch
+     * @param language language of the template, default language if not supported
+     * @return template of the string or of an error message if not found
+     */
+    public static MessageTemplate getTemplate(String key, String language) {
+        LocalisationTable currentTable = table;
+        MessageTemplate[] templates = currentTable.templates[currentTable.getLanguageId(language)];
+        Integer keyId = keyIds.get(key);
+        if (keyId == null || keyId >= templates.length || templates[keyId] == null) {
+            return templateNotFound;
         }
+        return templates[keyId];
+    }
 
-        return result;
+    /**
+     * Render a localised string with its arguments
+     *
+     * @param key      key of the resource to fetch
+     * @param language language of the string
+     * @param args     arguments of the string
+     * @return rendered string
+     */
+    public static String format(String key, String language, Object... args) {
+        return getTemplate(key, language).render(args);
+    }
+
+    /**
+     * @return Version of the strings loaded, it changes every time they are reloaded
+     */
+    public static int getVersion() {
+        return table.version;
     }
 
     public static List<Language> getSupportedLanguages() {
-        return supportedLanguages;
+        return table.languages;
     }
 
     public static Language getLanguageByCode(String languageCode) {
-        return supportedLanguages.stream().filter(x -> x.getCode().equals(languageCode)).findFirst().orElse(null);
+        return table.languages.stream().filter(x -> x.getCode().equals(languageCode)).findFirst().orElse(null);
     }
 
     public static Language getLanguageByName(String languageName) {
-        return supportedLanguages.stream().filter(x -> x.getName().equals(languageName)).findFirst().orElse(null);
+        return table.languages.stream().filter(x -> x.getName().equals(languageName)).findFirst().orElse(null);
     }
 
     public static String getLanguageCodeByName(String language) {
-        return supportedLanguages.stream().filter(x -> x.getName().equals(language))
+        return table.languages.stream().filter(x -> x.getName().equals(language))
                 .map(Language::getCode).findFirst().orElse(null);
     }
 
+    /**
+     * Load the strings files again and replace the current table, the current one is kept if any file can't be read
+     */
+    public static void reload() {
+        try {
+            table = loadTable();
+            log.info("Reloaded localisation for {} languages", table.languages.size());
+        } catch (RuntimeException e) {
+            log.error("Error reloading localisation, keeping previous strings", e);
+        }
+    }
+
+    private static LocalisationTable loadTable() {
+        synchronized (lock) {
+            return buildTable();
+        }
+    }
+
+    private static LocalisationTable buildTable() {
+        Map<String, Properties> files = new LinkedHashMap<>();
+        files.put(DEFAULTLANGUAGE, readStrings(STRINGS_FILE));
+        for (String language : BUNDLEDLANGUAGES) {
+            files.put(language, readStrings(STRINGS_FILE + "_" + language));
+        }
+        for (String language : getDirectoryLanguages()) {
+            files.computeIfAbsent(language, code -> readStrings(STRINGS_FILE + "_" + code));
+        }
+
+        Properties defaultStrings = files.get(DEFAULTLANGUAGE);
+        TreeSet<String> keys = new TreeSet<>();
+        files.values().forEach(file -> keys.addAll(file.stringPropertyNames()));
+        for (String key : keys) {
+            keyIds.computeIfAbsent(key, k -> keyIds.size());
+        }
+        int keysCount = keyIds.size();
+
+        List<Language> languages = new ArrayList<>();
+        Map<String, Integer> languageIds = new HashMap<>();
+        String[][] strings = new String[files.size()][];
+        MessageTemplate[][] templates = new MessageTemplate[files.size()][];
+        for (Map.Entry<String, Properties> file : files.entrySet()) {
+            int languageId = languages.size();
+            String code = file.getKey();
+            languages.add(new Language(code, file.getValue().getProperty(LANGUAGENAMEKEY, code)));
+            languageIds.put(code, languageId);
+            strings[languageId] = new String[keysCount];
+            templates[languageId] = new MessageTemplate[keysCount];
+            for (Map.Entry<String, Integer> key : keyIds.entrySet()) {
+                String value = file.getValue().getProperty(key.getKey(), defaultStrings.getProperty(key.getKey()));
+                if (value != null) {
+                    strings[languageId][key.getValue()] = value;
+                    templates[languageId][key.getValue()] = MessageTemplate.compile(value);
+                }
+            }
+        }
+        return new LocalisationTable(++lastVersion, Collections.unmodifiableList(languages), languageIds, strings, templates);
+    }
+
+    /**
+     * Read a strings file from the resources, overridden by the keys of the same file in the localisation directory
+     */
+    private static Properties readStrings(String fileName) {
+        Properties properties = new Properties();
+        try (InputStream stream = LocalisationService.class.getClassLoader().getResourceAsStream(fileName + ".properties")) {
+            if (stream != null) {
+                try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+                    properties.load(reader);
+                }
+            }
+            Path path = Paths.get(BuildVars.localisationDirectory, fileName + ".properties");
+            if (Files.isRegularFile(path)) {
+                try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    properties.load(reader);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error reading localisation file " + fileName, e);
+        }
+        return properties;
+    }
+
+    /**
+     * @return Languages with a strings file in the localisation directory, sorted by code
+     */
+    private static List<String> getDirectoryLanguages() {
+        TreeSet<String> languages = new TreeSet<>();
+        Path directory = Paths.get(BuildVars.localisationDirectory);
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, STRINGS_FILE + "_*.properties")) {
+                for (Path path : paths) {
+                    Matcher matcher = STRINGSFILEPATTERN.matcher(path.getFileName().toString());
+                    if (matcher.matches() && matcher.group(1) != null) {
+                        languages.add(matcher.group(1));
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Error listing localisation directory {}", directory, e);
+            }
+        }
+        return new ArrayList<>(languages);
+    }
+
+    private static void startWatcher() {
+        Path directory = Paths.get(BuildVars.localisationDirectory);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try {
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            Thread watcher = new Thread(() -> watchDirectory(watchService), "localisation-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        } catch (IOException e) {
+            log.error("Error watching localisation directory {}", directory, e);
+        }
+    }
+
+    private static void watchDirectory(WatchService watchService) {
+        try {
+            while (true) {
+                WatchKey watchKey = watchService.take();
+                boolean changed = hasStringsFileEvent(watchKey);
+                WatchKey nextKey;
+                while ((nextKey = watchService.poll(RELOADDELAYMILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= hasStringsFileEvent(nextKey);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.warn("Localisation watcher closed");
+        }
+    }
+
+    private static boolean hasStringsFileEvent(WatchKey watchKey) {
+        boolean changed = watchKey.pollEvents().stream()
+                .anyMatch(event -> event.context() instanceof Path path && STRINGSFILEPATTERN.matcher(path.toString()).matches());
+        watchKey.reset();
+        return changed;
+    }
+
+    /**
+     * Strings of every language, replaced as a whole when the files change
+     */
+    private static class LocalisationTable {
+        private final int version;
+        private final List<Language> languages;
+        private final Map<String, Integer> languageIds;
+        private final String[][] strings; ///< Strings by language id and key id
+        private final MessageTemplate[][] templates; ///< Templates by language id and key id
+
+        private LocalisationTable(int version, List<Language> languages, Map<String, Integer> languageIds,
+                                  String[][] strings, MessageTemplate[][] templates) {
+            this.version = version;
+            this.languages = languages;
+            this.languageIds = languageIds;
+            this.strings = strings;
+            this.templates = templates;
+        }
+
+        private int getLanguageId(String language) {
+            Integer languageId = languageIds.get(language);
+            if (languageId == null && language != null) {
+                languageId = languageIds.get(language.toLowerCase());
+            }
+            return languageId == null ? 0 : languageId;
+        }
+    }
+
     public static class Language {
         private String code;
         private String name;
@@ -159,56 +355,4 @@ public class LocalisationService {
             }
         }
     }
-
-    private static class Utf8ResourceBundle extends ResourceBundle {
-
-        private static final String BUNDLE_EXTENSION = "properties";
-        private static final String CHARSET = "UTF-8";
-        private static final ResourceBundle.Control UTF8_CONTROL = new UTF8Control();
-
-        Utf8ResourceBundle(String bundleName, Locale locale) {
-            setParent(ResourceBundle.getBundle(bundleName, locale, UTF8_CONTROL));
-        }
-
-        @Override
-        protected Object handleGetObject(String key) {
-            return parent.getObject(key);
-        }
-
-        @Override
-        public Enumeration<String> getKeys() {
-            return parent.getKeys();
-        }
-
-        private static class UTF8Control extends Control {
-            public ResourceBundle newBundle
-                    (String baseName, Locale locale, String format, ClassLoader loader, boolean reload)
-                    throws IllegalAccessException, InstantiationException, IOException {
-                String bundleName = toBundleName(baseName, locale);
-                String resourceName = toResourceName(bundleName, BUNDLE_EXTENSION);
-                ResourceBundle bundle = null;
-                InputStream stream = null;
-                if (reload) {
-                    URL url = loader.getResource(resourceName);
-                    if (url != null) {
-                        URLConnection connection = url.openConnection();
-                        if (connection != null) {
-                            connection.setUseCaches(false);
-                            stream = connection.getInputStream();
-                        }
-                    }
-                } else {
-                    stream = loader.getResourceAsStream(resourceName);
-                }
-                if (stream != null) {
-                    try {
-                        bundle = new PropertyResourceBundle(new InputStreamReader(stream, CHARSET));
-                    } finally {
-                        stream.close();
-                    }
-                }
-                return bundle;
-            }
-        }
-    }
-}
\ No newline at end of file
+}
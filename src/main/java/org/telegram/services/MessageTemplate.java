@@ -0,0 +1,134 @@
+package org.telegram.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.MissingFormatArgumentException;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Localised pattern parsed once into literal text and arguments, so rendering a message only appends
+ * the segments instead of parsing the pattern as String.format does on every call.
+ * <p>
+ * Supports the specifiers used by the strings files: %s, %d, positional %1$s, %n and %%. Patterns
+ * with any other specifier are kept as they are and rendered with String.format.
+ */
+public class MessageTemplate {
+    private static final int MAXRETAINEDCAPACITY = 8192; ///< Builders larger than this aren't reused
+    private static final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
+    private final String pattern;
+    private final String[] literals; ///< Text before every argument plus the text after the last one
+    private final int[] arguments; ///< Index of the argument of every segment
+    private final boolean compiled;
+
+    private MessageTemplate(String pattern, String[] literals, int[] arguments, boolean compiled) {
+        this.pattern = pattern;
+        this.literals = literals;
+        this.arguments = arguments;
+        this.compiled = compiled;
+    }
+
+    /**
+     * Parse a pattern
+     *
+     * @param pattern Pattern in String.format syntax
+     * @return Template of the pattern
+     */
+    public static MessageTemplate compile(String pattern) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> arguments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int nextArgument = 0;
+        int position = 0;
+        while (position < pattern.length()) {
+            char character = pattern.charAt(position++);
+            if (character != '%') {
+                literal.append(character);
+                continue;
+            }
+            int specifierStart = position;
+            while (position < pattern.length() && Character.isDigit(pattern.charAt(position))) {
+                position++;
+            }
+            int argument;
+            if (position > specifierStart && position < pattern.length() && pattern.charAt(position) == '$') {
+                argument = Integer.parseInt(pattern, specifierStart, position, 10) - 1;
+                position++;
+            } else if (position == specifierStart) {
+                argument = -1;
+            } else {
+                return new MessageTemplate(pattern, null, null, false);
+            }
+            char conversion = position < pattern.length() ? pattern.charAt(position++) : 0;
+            if (conversion == '%' && argument == -1) {
+                literal.append('%');
+            } else if (conversion == 'n' && argument == -1) {
+                literal.append(System.lineSeparator());
+            } else if (conversion == 's' || conversion == 'd') {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                arguments.add(argument == -1 ? nextArgument++ : argument);
+            } else {
+                return new MessageTemplate(pattern, null, null, false);
+            }
+        }
+        literals.add(literal.toString());
+        return new MessageTemplate(pattern, literals.toArray(new String[0]),
+                arguments.stream().mapToInt(Integer::intValue).toArray(), true);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Render the template
+     *
+     * @param args Arguments of the pattern
+     * @return Message rendered
+     */
+    public String render(Object... args) {
+        if (!compiled) {
+            return String.format(pattern, args);
+        }
+        if (arguments.length == 0) {
+            return literals[0];
+        }
+        StringBuilder builder = builders.get();
+        builder.setLength(0);
+        renderTo(builder, args);
+        String result = builder.toString();
+        if (builder.capacity() > MAXRETAINEDCAPACITY) {
+            builders.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Render the template at the end of a builder
+     *
+     * @param builder Builder to append to
+     * @param args    Arguments of the pattern
+     * @return The same builder
+     */
+    public StringBuilder renderTo(StringBuilder builder, Object... args) {
+        if (!compiled) {
+            return builder.append(String.format(pattern, args));
+        }
+        for (int i = 0; i < arguments.length; i++) {
+            builder.append(literals[i]);
+            int argument = arguments[i];
+            if (argument >= args.length) {
+                throw new MissingFormatArgumentException("Argument " + (argument + 1) + " of " + pattern);
+            }
+            builder.append(args[argument]);
+        }
+        return builder.append(literals[arguments.length]);
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,193 @@
+package org.telegram.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.telegram.structure.CurrentWeather;
+import org.telegram.structure.WeatherForecast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Streaming decoder of OpenWeather responses, reads the bytes of the response directly into records
+ * skipping every field that isn't used to build the messages.
+ */
+public class OpenWeatherDecoder {
+    private static final JsonFactory JSONFACTORY = new JsonFactory();
+
+    private OpenWeatherDecoder() {
+    }
+
+    /**
+     * Decode a response of the daily forecast api
+     *
+     * @param input Body of the response
+     * @return Forecast decoded
+     * @throws IOException If the body can't be read or isn't a json object
+     */
+    public static WeatherForecast decodeForecast(InputStream input) throws IOException {
+        int code = 0;
+        int cityId = 0;
+        String cityName = null;
+        String country = null;
+        List<WeatherForecast.Day> days = new ArrayList<>();
+        try (JsonParser parser = JSONFACTORY.createParser(input)) {
+            startObject(parser, parser.nextToken());
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "cod" -> code = parser.getValueAsInt();
+                    case "city" -> {
+                        startObject(parser, value);
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String cityField = parser.currentName();
+                            parser.nextToken();
+                            switch (cityField) {
+                                case "id" -> cityId = parser.getValueAsInt();
+                                case "name" -> cityName = parser.getValueAsString();
+                                case "country" -> country = parser.getValueAsString();
+                                default -> parser.skipChildren();
+                            }
+                        }
+                    }
+                    case "list" -> {
+                        if (value == JsonToken.START_ARRAY) {
+                            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                                days.add(decodeDay(parser));
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return new WeatherForecast(code, cityId, cityName, country, List.copyOf(days));
+    }
+
+    /**
+     * Decode a response of the current weather api
+     *
+     * @param input Body of the response
+     * @return Current weather decoded
+     * @throws IOException If the body can't be read or isn't a json object
+     */
+    public static CurrentWeather decodeCurrentWeather(InputStream input) throws IOException {
+        int code = 0;
+        int cityId = 0;
+        String cityName = null;
+        String country = null;
+        double temp = 0;
+        int cloudiness = 0;
+        String[] weather = new String[2];
+        try (JsonParser parser = JSONFACTORY.createParser(input)) {
+            startObject(parser, parser.nextToken());
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "cod" -> code = parser.getValueAsInt();
+                    case "id" -> cityId = parser.getValueAsInt();
+                    case "name" -> cityName = parser.getValueAsString();
+                    case "sys" -> country = readField(parser, value, "country") instanceof String text ? text : null;
+                    case "main" -> temp = readField(parser, value, "temp") instanceof Double number ? number : 0;
+                    case "clouds" -> cloudiness = readField(parser, value, "all") instanceof Double number ? number.intValue() : 0;
+                    case "weather" -> readWeather(parser, value, weather);
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return new CurrentWeather(code, cityId, cityName, country, temp, cloudiness, weather[0], weather[1]);
+    }
+
+    private static WeatherForecast.Day decodeDay(JsonParser parser) throws IOException {
+        long epochSecond = 0;
+        double tempMax = 0;
+        double tempMin = 0;
+        String[] weather = new String[2];
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "dt" -> epochSecond = parser.getValueAsLong();
+                case "temp" -> {
+                    startObject(parser, value);
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String tempField = parser.currentName();
+                        parser.nextToken();
+                        switch (tempField) {
+                            case "max" -> tempMax = parser.getValueAsDouble();
+                            case "min" -> tempMin = parser.getValueAsDouble();
+                            default -> parser.skipChildren();
+                        }
+                    }
+                }
+                case "weather" -> readWeather(parser, value, weather);
+                default -> parser.skipChildren();
+            }
+        }
+        return new WeatherForecast.Day(epochSecond, tempMax, tempMin, weather[0], weather[1]);
+    }
+
+    /**
+     * Read description and icon of the first element of a weather array, skipping the others
+     */
+    private static void readWeather(JsonParser parser, JsonToken value, String[] weather) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        boolean first = true;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (!first) {
+                parser.skipChildren();
+                continue;
+            }
+            first = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "description" -> weather[0] = parser.getValueAsString();
+                    case "icon" -> weather[1] = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a single field of an object, skipping the others
+     *
+     * @return String for text values, Double for numbers or null if not found
+     */
+    private static Object readField(JsonParser parser, JsonToken value, String name) throws IOException {
+        startObject(parser, value);
+        Object result = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken fieldValue = parser.nextToken();
+            if (name.equals(field) && fieldValue == JsonToken.VALUE_STRING) {
+                result = parser.getText();
+            } else if (name.equals(field) && fieldValue.isNumeric()) {
+                result = parser.getValueAsDouble();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    private static void startObject(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a json object at " + parser.currentLocation() + " but found " + token);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package org.telegram.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.telegram.BuildVars;
+import org.telegram.structure.TokenBucket;
+import org.telegram.telegrambots.meta.api.objects.ResponseParameters;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Queue shared by all bots for requests sent to Telegram.
+ * Requests are throttled with a token bucket per bot and a token bucket per chat of every bot, as Telegram
+ * limits every bot token on its own. Interactive requests are always sent before bulk ones and requests
+ * answered with "Too Many Requests" are retried after the time requested by Telegram. Requests of a bot to
+ * the same chat are sent one at a time and in order.
+ */
+@Slf4j
+public class OutboundDispatcher {
+    private static final int TOOMANYREQUESTS = 429; ///< Error code of a rate limited request
+    private static final int MAXSCANNEDTASKS = 256; ///< Max queued requests checked per lane looking for one ready to send
+    private static final long MAXWAITNANOS = TimeUnit.SECONDS.toNanos(1); ///< Max time the dispatcher sleeps without checking the queues
+    private static final long IDLECLEANUPNANOS = TimeUnit.MINUTES.toNanos(1); ///< Period to discard buckets of idle chats
+    private static volatile OutboundDispatcher instance; ///< Instance of this class
+
+    private final int botMessagesPerSecond;
+    private final int chatBurst;
+    private final int chatMessagesPerSecond;
+    private final ConcurrentHashMap<String, TokenBucket> botBuckets = new ConcurrentHashMap<>(); ///< Buckets by bot token
+    private final ConcurrentHashMap<ChatKey, TokenBucket> chatBuckets = new ConcurrentHashMap<>();
+    private final ArrayDeque<OutboundTask<?>> interactiveLane = new ArrayDeque<>();
+    private final ArrayDeque<OutboundTask<?>> bulkLane = new ArrayDeque<>();
+    private final List<ArrayDeque<OutboundTask<?>>> lanes = List.of(interactiveLane, bulkLane); ///< Lanes by priority
+    private final Set<ChatKey> inFlightChats = new HashSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ExecutorService senders;
+    private long lastCleanupNanos = System.nanoTime();
+    private long nextWaitNanos; ///< Min time until a skipped bot or chat can get a new request
+
+    /**
+     * Priority of a request
+     */
+    public enum Priority {
+        INTERACTIVE, ///< Answers to users, sent as soon as possible
+        BULK ///< Broadcasts like alerts, only sent when no interactive request is ready
+    }
+
+    /**
+     * Call to Telegram api performed once the request is allowed by the rate limits
+     */
+    @FunctionalInterface
+    public interface TelegramCall<T> {
+        T call() throws TelegramApiException;
+    }
+
+    private OutboundDispatcher() {
+        this(BuildVars.outboundBotMessagesPerSecond, BuildVars.outboundChatBurst, BuildVars.outboundChatMessagesPerSecond,
+                BuildVars.outboundSenderThreads);
+    }
+
+    OutboundDispatcher(int botMessagesPerSecond, int chatBurst, int chatMessagesPerSecond, int senderThreads) {
+        this.botMessagesPerSecond = botMessagesPerSecond;
+        this.chatBurst = chatBurst;
+        this.chatMessagesPerSecond = chatMessagesPerSecond;
+        AtomicInteger senderCount = new AtomicInteger();
+        senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "outbound-sender-" + senderCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread dispatcher = new Thread(this::dispatchLoop, "outbound-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Singleton
+     *
+     * @return Return the instance of this class
+     */
+    public static OutboundDispatcher getInstance() {
+        OutboundDispatcher currentInstance;
+        if (instance == null) {
+            synchronized (OutboundDispatcher.class) {
+                if (instance == null) {
+                    instance = new OutboundDispatcher();
+                }
+                currentInstance = instance;
+            }
+        } else {
+            currentInstance = instance;
+        }
+        return currentInstance;
+    }
+
+    /**
+     * Queue a request and wait for its result
+     *
+     * @param botToken Token of the bot sending the request
+     * @param priority Lane of the request
+     * @param chatId   Chat the request is sent to, null if it isn't sent to a chat
+     * @param call     Call to perform
+     * @return Result of the call
+     * @throws TelegramApiException If the call fails or the thread is interrupted while waiting
+     */
+    public <T> T execute(String botToken, Priority priority, String chatId, TelegramCall<T> call) throws TelegramApiException {
+        try {
+            return submit(botToken, priority, chatId, call).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TelegramApiException("Interrupted waiting to send request", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TelegramApiException telegramApiException) {
+                throw telegramApiException;
+            }
+            throw new TelegramApiException("Error sending request", e.getCause());
+        }
+    }
+
+    /**
+     * Queue a request
+     *
+     * @param botToken Token of the bot sending the request
+     * @param priority Lane of the request
+     * @param chatId   Chat the request is sent to, null if it isn't sent to a chat
+     * @param call     Call to perform
+     * @return Future completed with the result of the call
+     */
+    public <T> CompletableFuture<T> submit(String botToken, Priority priority, String chatId, TelegramCall<T> call) {
+        OutboundTask<T> task = new OutboundTask<>(botToken, priority, chatId == null ? null : new ChatKey(botToken, chatId), call);
+        lock.lock();
+        try {
+            laneOf(priority).addLast(task);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        return task.future;
+    }
+
+    private ArrayDeque<OutboundTask<?>> laneOf(Priority priority) {
+        return priority == Priority.INTERACTIVE ? interactiveLane : bulkLane;
+    }
+
+    private void dispatchLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            OutboundTask<?> task;
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                nextWaitNanos = MAXWAITNANOS;
+                task = null;
+                for (ArrayDeque<OutboundTask<?>> lane : lanes) {
+                    task = pollReadyTask(lane, now);
+                    if (task != null) {
+                        break;
+                    }
+                }
+                if (task == null) {
+                    cleanupIdleBuckets(now);
+                    changed.awaitNanos(Math.max(nextWaitNanos, 1));
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            OutboundTask<?> readyTask = task;
+            senders.execute(() -> send(readyTask));
+        }
+    }
+
+    /**
+     * Take the first request of the lane whose bot and chat are allowed to get a new request now.
+     * As requests of a bot or chat not ready are skipped together, requests to the same chat keep their order.
+     */
+    private OutboundTask<?> pollReadyTask(ArrayDeque<OutboundTask<?>> lane, long now) {
+        Iterator<OutboundTask<?>> iterator = lane.iterator();
+        for (int scanned = 0; iterator.hasNext() && scanned < MAXSCANNEDTASKS; scanned++) {
+            OutboundTask<?> task = iterator.next();
+            if (task.chatKey != null && inFlightChats.contains(task.chatKey)) {
+                continue;
+            }
+            TokenBucket botBucket = getBotBucket(task.botToken);
+            long botWait = botBucket.nanosUntilAvailable(now);
+            if (botWait > 0) {
+                nextWaitNanos = Math.min(nextWaitNanos, botWait);
+                continue;
+            }
+            if (task.chatKey != null) {
+                TokenBucket chatBucket = getChatBucket(task.chatKey);
+                long chatWait = chatBucket.nanosUntilAvailable(now);
+                if (chatWait > 0) {
+                    nextWaitNanos = Math.min(nextWaitNanos, chatWait);
+                    continue;
+                }
+                chatBucket.consume(now);
+                inFlightChats.add(task.chatKey);
+            }
+            botBucket.consume(now);
+            iterator.remove();
+            return task;
+        }
+        return null;
+    }
+
+    private TokenBucket getBotBucket(String botToken) {
+        return botBuckets.computeIfAbsent(botToken, key -> new TokenBucket(botMessagesPerSecond, botMessagesPerSecond));
+    }
+
+    private TokenBucket getChatBucket(ChatKey chatKey) {
+        return chatBuckets.computeIfAbsent(chatKey, key -> new TokenBucket(chatBurst, chatMessagesPerSecond));
+    }
+
+    private void cleanupIdleBuckets(long now) {
+        if (now - lastCleanupNanos < IDLECLEANUPNANOS) {
+            return;
+        }
+        lastCleanupNanos = now;
+        chatBuckets.entrySet().removeIf(entry -> !inFlightChats.contains(entry.getKey()) && entry.getValue().isIdle(now));
+    }
+
+    private <T> void send(OutboundTask<T> task) {
+        boolean retry = false;
+        try {
+            task.future.complete(task.call.call());
+        } catch (TelegramApiRequestException e) {
+            long retryAfterNanos = getRetryAfterNanos(e);
+            if (retryAfterNanos > 0 && task.attempts < BuildVars.outboundMaxRetries) {
+                task.attempts++;
+                retry = true;
+                log.warn("Too many requests to chat {}, retrying in {}ms", task.chatKey == null ? null : task.chatKey.chatId(),
+                        TimeUnit.NANOSECONDS.toMillis(retryAfterNanos));
+                if (task.chatKey != null) {
+                    getChatBucket(task.chatKey).blockFor(retryAfterNanos);
+                } else {
+                    getBotBucket(task.botToken).blockFor(retryAfterNanos);
+                }
+            } else {
+                task.future.completeExceptionally(e);
+            }
+        } catch (Exception e) {
+            task.future.completeExceptionally(e);
+        } finally {
+            finish(task, retry);
+        }
+    }
+
+    private void finish(OutboundTask<?> task, boolean retry) {
+        lock.lock();
+        try {
+            if (task.chatKey != null) {
+                inFlightChats.remove(task.chatKey);
+            }
+            if (retry) {
+                laneOf(task.priority).addFirst(task);
+            }
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long getRetryAfterNanos(TelegramApiRequestException e) {
+        if (e.getErrorCode() == null || e.getErrorCode() != TOOMANYREQUESTS) {
+            return 0;
+        }
+        ResponseParameters parameters = e.getParameters();
+        int retryAfterSeconds = parameters != null && parameters.getRetryAfter() != null ? parameters.getRetryAfter() : 1;
+        return TimeUnit.SECONDS.toNanos(Math.max(1, retryAfterSeconds));
+    }
+
+    private static class OutboundTask<T> {
+        private final String botToken;
+        private final Priority priority;
+        private final ChatKey chatKey; ///< Chat the request is sent to, null if it isn't sent to a chat
+        private final TelegramCall<T> call;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private int attempts = 0;
+
+        private OutboundTask(String botToken, Priority priority, ChatKey chatKey, TelegramCall<T> call) {
+            this.botToken = botToken;
+            this.priority = priority;
+            this.chatKey = chatKey;
+            this.call = call;
+        }
+    }
+
+    /**
+     * Chat of a bot, the same user talking to two bots are two chats for Telegram limits
+     */
+    private record ChatKey(String botToken, String chatId) {
+    }
+}
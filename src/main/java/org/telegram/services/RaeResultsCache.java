@@ -0,0 +1,252 @@
+package org.telegram.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.telegram.BuildVars;
+import org.telegram.structure.ExpiringLruCache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Cache of RAE results by query, kept in memory for the most used queries and in disk so that
+ * they survive restarts. Results older than the ttl are still returned but marked as expired, until the
+ * periodic sweep deletes them from disk along with the oldest results above the max entries in disk.
+ */
+@Slf4j
+public class RaeResultsCache {
+    private static final Locale SPANISH = Locale.forLanguageTag("es");
+    private static final String RESULTSSUFFIX = ".json";
+    private static final String TEMPORARYPREFIX = "rae";
+    private static final String TEMPORARYSUFFIX = ".tmp";
+    private static final long TEMPORARYTTLMILLIS = 600000; ///< Temporary files older than this were left by a crash
+
+    private final ExpiringLruCache<String, CachedResults> memoryCache;
+    private final Path directory;
+    private final int diskSize;
+    private final long ttlMillis;
+
+    public RaeResultsCache() {
+        this(Paths.get(BuildVars.raeCacheDirectory), BuildVars.raeCacheMemorySize, BuildVars.raeCacheDiskSize, BuildVars.raeCacheTtlMillis);
+        TimerExecutor.getInstance().startExecutionAtFixedRate(new CustomTimerTask("Sweep RAE cache", -1) {
+            @Override
+            public void execute() {
+                sweepDisk();
+            }
+        }, BuildVars.raeCacheSweepMillis, BuildVars.raeCacheSweepMillis);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param directory  Directory where results are stored
+     * @param memorySize Max queries kept in memory
+     * @param diskSize   Max queries kept in disk after a sweep
+     * @param ttlMillis  Time after which results are considered expired
+     */
+    public RaeResultsCache(Path directory, int memorySize, int diskSize, long ttlMillis) {
+        this.memoryCache = new ExpiringLruCache<>(memorySize, 0);
+        this.directory = directory;
+        this.diskSize = diskSize;
+        this.ttlMillis = ttlMillis;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            log.error("Error creating RAE cache directory {}", directory, e);
+        }
+    }
+
+    /**
+     * Normalise a query so that different ways of writing the same word share the cache entry
+     *
+     * @param query Query received
+     * @return Query trimmed, in lower case and with single spaces
+     */
+    public static String normaliseQuery(String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(SPANISH);
+    }
+
+    /**
+     * Get the results of a query
+     *
+     * @param key Normalised query
+     * @return Results or null if the query isn't cached
+     */
+    public CachedResults get(String key) {
+        CachedResults cachedResults = memoryCache.get(key);
+        if (cachedResults == null) {
+            cachedResults = readFromDisk(key);
+            if (cachedResults != null) {
+                memoryCache.put(key, cachedResults);
+            }
+        }
+        return cachedResults;
+    }
+
+    /**
+     * Store the results of a query
+     *
+     * @param key     Normalised query
+     * @param results Results to store
+     */
+    public void put(String key, List<RaeService.RaeResult> results) {
+        CachedResults cachedResults = new CachedResults(List.copyOf(results), System.currentTimeMillis() + ttlMillis);
+        memoryCache.put(key, cachedResults);
+        writeToDisk(key, cachedResults);
+    }
+
+    private CachedResults readFromDisk(String key) {
+        try {
+            JSONObject jsonObject = new JSONObject(Files.readString(getPath(key), StandardCharsets.UTF_8));
+            if (!key.equals(jsonObject.getString("query"))) {
+                return null;
+            }
+            List<RaeService.RaeResult> results = new ArrayList<>();
+            JSONArray jsonResults = jsonObject.getJSONArray("results");
+            for (int i = 0; i < jsonResults.length(); i++) {
+                results.add(fromJson(jsonResults.getJSONObject(i)));
+            }
+            return new CachedResults(List.copyOf(results), jsonObject.getLong("expiresAt"));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | JSONException e) {
+            log.warn("Error reading cached RAE results for {}", key, e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, CachedResults cachedResults) {
+        JSONArray jsonResults = new JSONArray();
+        cachedResults.results().forEach(result -> jsonResults.put(toJson(result)));
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("query", key);
+        jsonObject.put("expiresAt", cachedResults.expiresAt());
+        jsonObject.put("results", jsonResults);
+
+        Path path = getPath(key);
+        Path temporaryPath = null;
+        try {
+            temporaryPath = Files.createTempFile(directory, TEMPORARYPREFIX, TEMPORARYSUFFIX);
+            Files.writeString(temporaryPath, jsonObject.toString(), StandardCharsets.UTF_8);
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Error writing cached RAE results for {}", key, e);
+        } finally {
+            if (temporaryPath != null) {
+                delete(temporaryPath);
+            }
+        }
+    }
+
+    /**
+     * Delete from disk the expired results, the oldest results while there are more than the max entries
+     * and the temporary files left by a crash while writing
+     *
+     * @return Number of files deleted
+     */
+    public int sweepDisk() {
+        final long now = System.currentTimeMillis();
+        final List<StoredResults> storedResults = new ArrayList<>();
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                "{*" + RESULTSSUFFIX + "," + TEMPORARYPREFIX + "*" + TEMPORARYSUFFIX + "}")) {
+            for (Path file : files) {
+                final boolean temporary = file.getFileName().toString().endsWith(TEMPORARYSUFFIX);
+                final long writtenMillis;
+                try {
+                    writtenMillis = Files.getLastModifiedTime(file).toMillis();
+                } catch (IOException e) {
+                    continue; // Replaced or deleted meanwhile
+                }
+                if (temporary ? writtenMillis + TEMPORARYTTLMILLIS < now : writtenMillis + ttlMillis < now) {
+                    deleted += delete(file) ? 1 : 0;
+                } else if (!temporary) {
+                    storedResults.add(new StoredResults(file, writtenMillis));
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error sweeping RAE cache directory {}", directory, e);
+        }
+        if (storedResults.size() > diskSize) {
+            storedResults.sort(Comparator.comparingLong(StoredResults::writtenMillis));
+            for (StoredResults oldResults : storedResults.subList(0, storedResults.size() - diskSize)) {
+                deleted += delete(oldResults.path()) ? 1 : 0;
+            }
+        }
+        log.info("Deleted {} files from RAE cache", deleted);
+        return deleted;
+    }
+
+    private static boolean delete(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Error deleting {}", path, e);
+            return false;
+        }
+    }
+
+    private Path getPath(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(hash) + RESULTSSUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static JSONObject toJson(RaeService.RaeResult result) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("index", result.index);
+        jsonObject.put("word", result.word);
+        jsonObject.put("tags", new JSONObject(result.tags));
+        jsonObject.put("definition", result.definition);
+        jsonObject.put("link", result.link);
+        return jsonObject;
+    }
+
+    private static RaeService.RaeResult fromJson(JSONObject jsonObject) {
+        RaeService.RaeResult result = new RaeService.RaeResult();
+        result.index = jsonObject.getInt("index");
+        result.word = jsonObject.optString("word", null);
+        result.definition = jsonObject.optString("definition", null);
+        result.link = jsonObject.optString("link", null);
+        JSONObject tags = jsonObject.getJSONObject("tags");
+        for (String tag : tags.keySet()) {
+            result.tags.put(tag, tags.getString(tag));
+        }
+        return result;
+    }
+
+    private record StoredResults(Path path, long writtenMillis) {
+    }
+
+    /**
+     * Results of a query
+     *
+     * @param results   Results found
+     * @param expiresAt Time after which the results should be fetched again
+     */
+    public record CachedResults(List<RaeService.RaeResult> results, long expiresAt) {
+        public boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+}
@@ -18,6 +18,18 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 /**
  * @author Ruben Bermudez
@@ -31,41 +43,126 @@ public class RaeService {
     private static final String SEARCHWORDURL = "search?m=form&w=";
     private static final String WORDLINKBYID = "http://dle.rae.es/?id=";
 
-    private final OkHttpClient okHttpClient = new OkHttpClient().newBuilder().build();
+    private static final int MAXPARALLELFETCHES = 8; ///< Max requests to RAE at the same time
+    private static final long DEFAULTTIMEOUTMILLIS = 5000; ///< Time to get the results, enough to answer an inline query on time
+
+    private final OkHttpClient okHttpClient = HttpClientProvider.getInstance().getRaeClient();
+    private final RaeResultsCache resultsCache = new RaeResultsCache();
+    private final RaeWordIndex wordIndex = new RaeWordIndex();
+    private final Set<String> refreshingQueries = ConcurrentHashMap.newKeySet();
+    private final Semaphore fetchPermits = new Semaphore(MAXPARALLELFETCHES);
+    private final ExecutorService fetchExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "rae-fetcher-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     public List<RaeResult> getResults(String query) {
+        return getResults(query, DEFAULTTIMEOUTMILLIS, () -> false);
+    }
+
+    /**
+     * Get the definitions of a word, stopping before any new request to RAE once the search is cancelled
+     *
+     * @param query     Word to search
+     * @param cancelled Returns true when the results aren't needed anymore
+     * @return Results found before the timeout or the cancellation
+     */
+    public List<RaeResult> getResults(String query, BooleanSupplier cancelled) {
+        return getResults(query, DEFAULTTIMEOUTMILLIS, cancelled);
+    }
+
+    /**
+     * Get the definitions of a word, from the cache if they were fetched before.
+     * Expired definitions are returned while they are fetched again in background.
+     *
+     * @param query         Word to search
+     * @param timeoutMillis Max time to get the results if they aren't cached
+     * @param cancelled     Returns true when the results aren't needed anymore
+     * @return Results found before the timeout or the cancellation
+     */
+    public List<RaeResult> getResults(String query, long timeoutMillis, BooleanSupplier cancelled) {
+        final String key = RaeResultsCache.normaliseQuery(query);
+        RaeResultsCache.CachedResults cachedResults = resultsCache.get(key);
+        if (cachedResults != null) {
+            if (cachedResults.isExpired() && refreshingQueries.add(key)) {
+                fetchExecutor.execute(() -> {
+                    try {
+                        searchAndCache(query, key, DEFAULTTIMEOUTMILLIS, () -> false);
+                    } finally {
+                        refreshingQueries.remove(key);
+                    }
+                });
+            }
+            return cachedResults.results();
+        }
+        return searchAndCache(query, key, timeoutMillis, cancelled);
+    }
+
+    private List<RaeResult> searchAndCache(String query, String key, long timeoutMillis, BooleanSupplier cancelled) {
+        final Search search = new Search(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), cancelled);
+        List<RaeResult> results = search(query, search);
+        if (!search.partial && !results.isEmpty()) {
+            resultsCache.put(key, results);
+            wordIndex.addWords(results.stream().map(result -> result.word).toList());
+        }
+        return results;
+    }
+
+    /**
+     * Get the definitions of a word in background
+     *
+     * @param query     Word to search
+     * @param cancelled Returns true when the results aren't needed anymore
+     * @return Future completed with the results
+     */
+    public CompletableFuture<List<RaeResult>> getResultsAsync(String query, BooleanSupplier cancelled) {
+        return CompletableFuture.supplyAsync(() -> getResults(query, cancelled), fetchExecutor);
+    }
+
+    /**
+     * Get words found before that start with a query, without any request to RAE
+     *
+     * @param query Beginning of the word
+     * @param limit Max number of words
+     * @return Words sorted alphabetically
+     */
+    public List<String> getSuggestions(String query, int limit) {
+        return wordIndex.suggest(query, limit);
+    }
+
+    /**
+     * Get the definitions of a word from RAE. Words and redirects found are fetched in parallel,
+     * when the deadline is reached the results fetched so far are returned.
+     *
+     * @param query  Word to search
+     * @param search Deadline of the search
+     * @return Results found before the deadline
+     */
+    private List<RaeResult> search(String query, Search search) {
         List<RaeResult> results = new ArrayList<>();
 
-        String completeURL;
         try {
-            completeURL = BASEURL + SEARCHEXACTURL + URLEncoder.encode(query, StandardCharsets.UTF_8);
-
-            Request request = new Request.Builder()
-                    .url(completeURL)
-                    .header("charset", StandardCharsets.UTF_8.name())
-                    .header("content-type", "application/json")
-                    .get()
-                    .build();
+            String completeURL = BASEURL + SEARCHEXACTURL + URLEncoder.encode(query, StandardCharsets.UTF_8);
+            String body = fetchBody(completeURL, search);
+            if (body != null) {
+                Document document = Jsoup.parse(body);
+                Element article = document.getElementsByTag("article").first();
+                String articleId = null;
+                if (article != null) {
+                    articleId = article.attributes().get("id");
+                }
+                Elements elements = document.select(".j");
 
-            try (Response response = okHttpClient.newCall(request).execute()) {
-                if (response.isSuccessful()) {
-                    try (ResponseBody body = response.body()) {
-                        if (body != null) {
-                            Document document = Jsoup.parse(body.string());
-                            Element article = document.getElementsByTag("article").first();
-                            String articleId = null;
-                            if (article != null) {
-                                articleId = article.attributes().get("id");
-                            }
-                            Elements elements = document.select(".j");
-
-                            if (elements.isEmpty()) {
-                                results = getResultsWordSearch(query);
-                            } else {
-                                results = getResultsFromExactMatch(elements, query, articleId);
-                            }
-                        }
-                    }
+                if (elements.isEmpty()) {
+                    results = getResultsWordSearch(query, search);
+                } else {
+                    results = getResultsFromExactMatch(elements, query, articleId, search);
                 }
             }
         } catch (IOException e) {
@@ -75,38 +172,24 @@ public class RaeService {
         return results;
     }
 
-    private List<RaeResult> getResultsWordSearch(String query) {
+    private List<RaeResult> getResultsWordSearch(String query, Search search) {
         List<RaeResult> results = new ArrayList<>();
 
-        String completeURL;
         try {
-            completeURL = BASEURL + SEARCHWORDURL + URLEncoder.encode(query, StandardCharsets.UTF_8);
+            String completeURL = BASEURL + SEARCHWORDURL + URLEncoder.encode(query, StandardCharsets.UTF_8);
+            String body = fetchBody(completeURL, search);
+            if (body != null) {
+                Document document = Jsoup.parse(body);
+                Element list = document.select("body div ul").first();
 
-            Request request = new Request.Builder()
-                    .url(completeURL)
-                    .header("charset", StandardCharsets.UTF_8.name())
-                    .get()
-                    .build();
-
-            try (Response response = okHttpClient.newCall(request).execute()) {
-                if (response.isSuccessful()) {
-                    try (ResponseBody body = response.body()) {
-                        if (body != null) {
-                            Document document = Jsoup.parse(body.string());
-                            Element list = document.select("body div ul").first();
-
-                            if (list != null) {
-                                Elements links = list.getElementsByTag("a");
-                                if (!links.isEmpty()) {
-                                    for (Element link : links) {
-                                        List<RaeResult> partialResults = fetchWord(URLEncoder.encode(link.attributes().get("href"), StandardCharsets.UTF_8), link.text());
-                                        if (!partialResults.isEmpty()) {
-                                            results.addAll(partialResults);
-                                        }
-                                    }
-                                }
-                            }
+                if (list != null) {
+                    Elements links = list.getElementsByTag("a");
+                    if (!links.isEmpty()) {
+                        List<CompletableFuture<List<RaeResult>>> partialResults = new ArrayList<>();
+                        for (Element link : links) {
+                            partialResults.add(fetchWordAsync(URLEncoder.encode(link.attributes().get("href"), StandardCharsets.UTF_8), link.text(), search));
                         }
+                        results = collectResults(partialResults, search);
                     }
                 }
             }
@@ -117,47 +200,123 @@ public class RaeService {
         return results;
     }
 
-    private List<RaeResult> fetchWord(String link, String word) {
+    private CompletableFuture<List<RaeResult>> fetchWordAsync(String link, String word, Search search) {
+        return CompletableFuture.supplyAsync(() -> fetchWord(link, word, search), fetchExecutor);
+    }
+
+    private List<RaeResult> fetchWord(String link, String word, Search search) {
         List<RaeResult> results = new ArrayList<>();
 
-        String completeURL;
         try {
-            completeURL = BASEURL + link;
+            String completeURL = BASEURL + link;
+            String body = fetchBody(completeURL, search);
+            if (body != null) {
+                Document document = Jsoup.parse(body);
+                Element article = document.getElementsByTag("article").first();
+                String articleId = null;
+                if (article != null) {
+                    articleId = article.attributes().get("id");
+                }
+                Elements elements = document.select(".j");
 
+                if (!elements.isEmpty()) {
+                    results = getResultsFromExactMatch(elements, word, articleId, search);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Fetching words", e);
+        }
+
+        return results;
+    }
+
+    /**
+     * Get the body of a page, waiting for a free slot if too many pages are being fetched
+     *
+     * @param completeURL Url of the page
+     * @param search      Search the page belongs to
+     * @return Body of the page or null if it wasn't fetched before the deadline or the request failed
+     */
+    private String fetchBody(String completeURL, Search search) throws IOException {
+        long remainingNanos = search.deadline - System.nanoTime();
+        try {
+            if (search.cancelled.getAsBoolean()) {
+                log.debug("Search cancelled before fetching {}", completeURL);
+                search.partial = true;
+                return null;
+            }
+            if (remainingNanos <= 0 || !fetchPermits.tryAcquire(remainingNanos, TimeUnit.NANOSECONDS)) {
+                log.debug("Deadline reached before fetching {}", completeURL);
+                search.partial = true;
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        try {
+            remainingNanos = search.deadline - System.nanoTime();
+            if (remainingNanos <= 0 || search.cancelled.getAsBoolean()) {
+                search.partial = true;
+                return null;
+            }
             Request request = new Request.Builder()
                     .url(completeURL)
                     .header("charset", StandardCharsets.UTF_8.name())
                     .get()
                     .build();
 
-            try (Response response = okHttpClient.newCall(request).execute()) {
+            OkHttpClient deadlineClient = okHttpClient.newBuilder().callTimeout(remainingNanos, TimeUnit.NANOSECONDS).build();
+            try (Response response = deadlineClient.newCall(request).execute()) {
                 if (response.isSuccessful()) {
                     try (ResponseBody body = response.body()) {
                         if (body != null) {
-                            Document document = Jsoup.parse(body.string());
-                            Element article = document.getElementsByTag("article").first();
-                            String articleId = null;
-                            if (article != null) {
-                                articleId = article.attributes().get("id");
-                            }
-                            Elements elements = document.select(".j");
-
-                            if (!elements.isEmpty()) {
-                                results = getResultsFromExactMatch(elements, word, articleId);
-                            }
+                            return body.string();
                         }
                     }
                 }
             }
+            search.partial = true;
+            return null;
         } catch (IOException e) {
-            log.error("Fetching words", e);
+            search.partial = true;
+            throw e;
+        } finally {
+            fetchPermits.release();
         }
+    }
 
+    /**
+     * Join results fetched in parallel keeping their order, the ones not ready before the deadline are discarded
+     */
+    private List<RaeResult> collectResults(List<CompletableFuture<List<RaeResult>>> partialResults, Search search) {
+        List<RaeResult> results = new ArrayList<>();
+        int missingResults = 0;
+        for (CompletableFuture<List<RaeResult>> partialResult : partialResults) {
+            try {
+                results.addAll(partialResult.get(Math.max(0, search.deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                partialResult.cancel(true);
+                missingResults++;
+            } catch (ExecutionException e) {
+                log.error("Fetching words", e.getCause());
+                missingResults++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                partialResult.cancel(true);
+                missingResults++;
+            }
+        }
+        if (missingResults > 0) {
+            search.partial = true;
+            log.warn("Returning partial RAE results, {} of {} fetches missing", missingResults, partialResults.size());
+        }
         return results;
     }
 
-    private List<RaeResult> getResultsFromExactMatch(Elements elements, String word, String link) {
-        List<RaeResult> results = new ArrayList<>();
+    private List<RaeResult> getResultsFromExactMatch(Elements elements, String word, String link, Search search) {
+        List<CompletableFuture<List<RaeResult>>> results = new ArrayList<>();
         for (int i = 0; i < elements.size(); i++) {
             Element element = elements.get(i);
             RaeResult result = new RaeResult();
@@ -174,7 +333,7 @@ public class RaeService {
             Elements definition = element.getElementsByTag("mark");
             definition.removeIf(x -> !Objects.equals(x.parent(), element));
             if (definition.isEmpty()) {
-                results.addAll(findResultsFromRedirect(element, word));
+                results.add(findResultsFromRedirect(element, word, search));
             } else {
                 StringBuilder definitionBuilder = new StringBuilder();
                 definition.forEach(y -> {
@@ -186,22 +345,21 @@ public class RaeService {
                     definitionBuilder.append(partialText);
                 });
                 result.definition = capitalizeFirstLetter(definitionBuilder.toString());
-                results.add(result);
+                results.add(CompletableFuture.completedFuture(List.of(result)));
             }
         }
 
-        return results;
+        return collectResults(results, search);
     }
 
-    private List<RaeResult> findResultsFromRedirect(Element element, String word) {
-        List<RaeResult> results = new ArrayList<>();
+    private CompletableFuture<List<RaeResult>> findResultsFromRedirect(Element element, String word, Search search) {
         Element redirect = element.getElementsByTag("a").first();
         if (redirect != null) {
             String link = redirect.attributes().get("href");
-            results = fetchWord(link, word);
+            return fetchWordAsync(link, word, search);
         }
 
-        return results;
+        return CompletableFuture.completedFuture(new ArrayList<>());
     }
 
     private static String capitalizeFirstLetter(String original) {
@@ -211,6 +369,20 @@ public class RaeService {
         return original.substring(0, 1).toUpperCase() + original.substring(1);
     }
 
+    /**
+     * Deadline and cancellation of a search and whether some of its pages couldn't be fetched
+     */
+    private static class Search {
+        private final long deadline; ///< Time, in {@link System#nanoTime()} units, when the results must be ready
+        private final BooleanSupplier cancelled; ///< True once the results aren't needed
+        private volatile boolean partial = false; ///< True if some results are missing
+
+        private Search(long deadline, BooleanSupplier cancelled) {
+            this.deadline = deadline;
+            this.cancelled = cancelled;
+        }
+    }
+
     public static class RaeResult {
         public int index;
         public String word;
@@ -0,0 +1,130 @@
+package org.telegram.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.telegram.BuildVars;
+import org.telegram.structure.MappedPrefixIndex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Index of the words already found in RAE to suggest them while the user types.
+ * Words are stored in a memory mapped file loaded at startup, new words are kept in memory
+ * and written to the file periodically.
+ */
+@Slf4j
+public class RaeWordIndex {
+    private static final long PERSISTPERIODMINUTES = 5; ///< Period to write new words to disk
+
+    private final Path path;
+    private final ConcurrentSkipListMap<String, String> newWords = new ConcurrentSkipListMap<>();
+    private volatile MappedPrefixIndex persistedWords;
+
+    public RaeWordIndex() {
+        this(Paths.get(BuildVars.raeWordIndexFile));
+    }
+
+    public RaeWordIndex(Path path) {
+        this.path = path;
+        this.persistedWords = loadIndex(path);
+        ScheduledExecutorService persistExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rae-word-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        persistExecutor.scheduleWithFixedDelay(this::persist, PERSISTPERIODMINUTES, PERSISTPERIODMINUTES, TimeUnit.MINUTES);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::persist, "rae-word-index-shutdown"));
+    }
+
+    private static MappedPrefixIndex loadIndex(Path path) {
+        try {
+            MappedPrefixIndex index = MappedPrefixIndex.load(path);
+            log.info("Loaded {} RAE words from {}", index.size(), path);
+            return index;
+        } catch (IOException e) {
+            log.error("Error loading RAE word index {}", path, e);
+            return MappedPrefixIndex.empty();
+        }
+    }
+
+    /**
+     * Add the words of some results
+     *
+     * @param words Words to add
+     */
+    public void addWords(Collection<String> words) {
+        for (String word : words) {
+            if (word == null || word.isBlank()) {
+                continue;
+            }
+            String key = RaeResultsCache.normaliseQuery(word);
+            if (!persistedWords.contains(key)) {
+                newWords.putIfAbsent(key, word);
+            }
+        }
+    }
+
+    /**
+     * Find words starting with a prefix
+     *
+     * @param prefix Query of the user
+     * @param limit  Max number of words returned
+     * @return Words sorted alphabetically
+     */
+    public List<String> suggest(String prefix, int limit) {
+        String key = RaeResultsCache.normaliseQuery(prefix);
+        if (key.isEmpty()) {
+            return new ArrayList<>();
+        }
+        TreeMap<String, String> suggestions = new TreeMap<>();
+        for (String word : persistedWords.findByPrefix(key, limit)) {
+            suggestions.put(RaeResultsCache.normaliseQuery(word), word);
+        }
+        int newSuggestions = 0;
+        for (Map.Entry<String, String> entry : newWords.tailMap(key).entrySet()) {
+            if (!entry.getKey().startsWith(key) || newSuggestions++ >= limit) {
+                break;
+            }
+            suggestions.put(entry.getKey(), entry.getValue());
+        }
+        return suggestions.values().stream().limit(limit).toList();
+    }
+
+    /**
+     * Write the new words to the index file and map it again
+     */
+    public synchronized void persist() {
+        if (newWords.isEmpty()) {
+            return;
+        }
+        try {
+            TreeMap<String, String> allWords = new TreeMap<>();
+            persistedWords.forEach(allWords::put);
+            Map<String, String> persistedNewWords = new TreeMap<>(newWords);
+            allWords.putAll(persistedNewWords);
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            MappedPrefixIndex.write(path, allWords);
+            persistedWords = MappedPrefixIndex.load(path);
+            persistedNewWords.forEach(newWords::remove);
+            log.info("Saved {} RAE words to {}", allWords.size(), path);
+        } catch (IOException e) {
+            log.error("Error saving RAE word index {}", path, e);
+        }
+    }
+}
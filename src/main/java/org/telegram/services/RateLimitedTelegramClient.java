@@ -0,0 +1,303 @@
+package org.telegram.services;
+
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.botapimethods.PartialBotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.groupadministration.SetChatPhoto;
+import org.telegram.telegrambots.meta.api.methods.send.SendAnimation;
+import org.telegram.telegrambots.meta.api.methods.send.SendAudio;
+import org.telegram.telegrambots.meta.api.methods.send.SendChatAction;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.methods.send.SendLocation;
+import org.telegram.telegrambots.meta.api.methods.send.SendMediaBotMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMediaGroup;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
+import org.telegram.telegrambots.meta.api.methods.send.SendSticker;
+import org.telegram.telegrambots.meta.api.methods.send.SendVideo;
+import org.telegram.telegrambots.meta.api.methods.send.SendVideoNote;
+import org.telegram.telegrambots.meta.api.methods.send.SendVoice;
+import org.telegram.telegrambots.meta.api.methods.stickers.AddStickerToSet;
+import org.telegram.telegrambots.meta.api.methods.stickers.CreateNewStickerSet;
+import org.telegram.telegrambots.meta.api.methods.stickers.ReplaceStickerInSet;
+import org.telegram.telegrambots.meta.api.methods.stickers.SetStickerSetThumbnail;
+import org.telegram.telegrambots.meta.api.methods.stickers.UploadStickerFile;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageCaption;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageMedia;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageReplyMarkup;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.File;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Telegram client that sends every request through the {@link OutboundDispatcher} shared by all bots,
+ * limited by the rates of its bot token. Files are downloaded directly as they aren't limited
+ */
+public class RateLimitedTelegramClient implements TelegramClient {
+    private final String botToken;
+    private final TelegramClient telegramClient;
+    private final OutboundDispatcher.Priority priority;
+
+    /**
+     * Client for interactive requests
+     *
+     * @param botToken       Token of the bot, requests are limited by bot
+     * @param telegramClient Client performing the requests
+     */
+    public RateLimitedTelegramClient(String botToken, TelegramClient telegramClient) {
+        this(botToken, telegramClient, OutboundDispatcher.Priority.INTERACTIVE);
+    }
+
+    public RateLimitedTelegramClient(String botToken, TelegramClient telegramClient, OutboundDispatcher.Priority priority) {
+        this.botToken = botToken;
+        this.telegramClient = telegramClient;
+        this.priority = priority;
+    }
+
+    /**
+     * Get a client sharing the same underlying client that sends its requests with other priority
+     *
+     * @param priority Priority of the requests of the new client
+     * @return New client
+     */
+    public RateLimitedTelegramClient withPriority(OutboundDispatcher.Priority priority) {
+        return new RateLimitedTelegramClient(botToken, telegramClient, priority);
+    }
+
+    @Override
+    public <T extends Serializable, Method extends BotApiMethod<T>> CompletableFuture<T> executeAsync(Method method) {
+        return submit(method, () -> telegramClient.execute(method));
+    }
+
+    @Override
+    public <T extends Serializable, Method extends BotApiMethod<T>> T execute(Method method) throws TelegramApiException {
+        return execute(method, () -> telegramClient.execute(method));
+    }
+
+    @Override
+    public Message execute(SendDocument sendDocument) throws TelegramApiException {
+        return execute(sendDocument, () -> telegramClient.execute(sendDocument));
+    }
+
+    @Override
+    public CompletableFuture<Message> executeAsync(SendDocument sendDocument) {
+        return submit(sendDocument, () -> telegramClient.execute(sendDocument));
+    }
+
+    @Override
+    public Message execute(SendPhoto sendPhoto) throws TelegramApiException {
+        return execute(sendPhoto, () -> telegramClient.execute(sendPhoto));
+    }
+
+    @Override
+    public CompletableFuture<Message> executeAsync(SendPhoto sendPhoto) {
+        return submit(sendPhoto, () -> telegramClient.execute(sendPhoto));
+    }
+
+    @Override
+    public Message execute(SendVideo sendVideo) throws TelegramApiException {
+        return execute(sendVideo, () -> telegramClient.execute(sendVideo));
+    }
+
+    @Override
+    public CompletableFuture<Message> executeAsync(SendVideo sendVideo) {
+        return submit(sendVideo, () -> telegramClient.execute(sendVideo));
+    }
+
+    @Override
+    public Message execute(SendVideoNote sendVideoNote) throws TelegramApiException {
+        return execute(sendVideoNote, () -> telegramClient.execute(sendVideoNote));
+    }
+
+    @Override
+    public CompletableFuture<Message> executeAsync(SendVideoNote sendVideoNote) {
+        return submit(sendVideoNote, () -> telegramClient.execute(sendVideoNote));
+    }
+
+    @Override
+    public Message execute(SendSticker sendSticker) throws TelegramApiException {
+        return execute(sendSticker, () -> telegramClient.execute(sendSticker));
+    }
+
+    @Override
+    public CompletableFuture<Message> executeAsync(SendSticker sendSticker) {
+        return submit(sendSticker, () -> telegramClient.execute(sendSticker));
+    }
+
+    @Override
+    public Message execute(SendAudio sendAudio) throws TelegramApiException {
+        return execute(sendAudio, () -> telegramClient.execute(sendAudio));
+    }
+
+    @Override
+    public CompletableFuture<Message> executeAsync(SendAudio sendAudio) {
+        return submit(sendAudio, () -> telegramClient.execute(sendAudio));
+    }
+
+    @Override
+    public Message execute(SendVoice sendVoice) throws TelegramApiException {
+        return execute(sendVoice, () -> telegramClient.execute(sendVoice));
+    }
+
+    @Override
+    public CompletableFuture<Message> executeAsync(SendVoice sendVoice) {
+        return submit(sendVoice, () -> telegramClient.execute(sendVoice));
+    }
+
+    @Override
+    public Message execute(SendAnimation sendAnimation) throws TelegramApiException {
+        return execute(sendAnimation, () -> telegramClient.execute(sendAnimation));
+    }
+
+    @Override
+    public CompletableFuture<Message> executeAsync(SendAnimation sendAnimation) {
+        return submit(sendAnimation, () -> telegramClient.execute(sendAnimation));
+    }
+
+    @Override
+    public List<Message> execute(SendMediaGroup sendMediaGroup) throws TelegramApiException {
+        return execute(sendMediaGroup, () -> telegramClient.execute(sendMediaGroup));
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> executeAsync(SendMediaGroup sendMediaGroup) {
+        return submit(sendMediaGroup, () -> telegramClient.execute(sendMediaGroup));
+    }
+
+    @Override
+    public Boolean execute(SetChatPhoto setChatPhoto) throws TelegramApiException {
+        return execute(setChatPhoto, () -> telegramClient.execute(setChatPhoto));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> executeAsync(SetChatPhoto setChatPhoto) {
+        return submit(setChatPhoto, () -> telegramClient.execute(setChatPhoto));
+    }
+
+    @Override
+    public Boolean execute(AddStickerToSet addStickerToSet) throws TelegramApiException {
+        return execute(addStickerToSet, () -> telegramClient.execute(addStickerToSet));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> executeAsync(AddStickerToSet addStickerToSet) {
+        return submit(addStickerToSet, () -> telegramClient.execute(addStickerToSet));
+    }
+
+    @Override
+    public Boolean execute(ReplaceStickerInSet replaceStickerInSet) throws TelegramApiException {
+        return execute(replaceStickerInSet, () -> telegramClient.execute(replaceStickerInSet));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> executeAsync(ReplaceStickerInSet replaceStickerInSet) {
+        return submit(replaceStickerInSet, () -> telegramClient.execute(replaceStickerInSet));
+    }
+
+    @Override
+    public Boolean execute(SetStickerSetThumbnail setStickerSetThumbnail) throws TelegramApiException {
+        return execute(setStickerSetThumbnail, () -> telegramClient.execute(setStickerSetThumbnail));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> executeAsync(SetStickerSetThumbnail setStickerSetThumbnail) {
+        return submit(setStickerSetThumbnail, () -> telegramClient.execute(setStickerSetThumbnail));
+    }
+
+    @Override
+    public Boolean execute(CreateNewStickerSet createNewStickerSet) throws TelegramApiException {
+        return execute(createNewStickerSet, () -> telegramClient.execute(createNewStickerSet));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> executeAsync(CreateNewStickerSet createNewStickerSet) {
+        return submit(createNewStickerSet, () -> telegramClient.execute(createNewStickerSet));
+    }
+
+    @Override
+    public File execute(UploadStickerFile uploadStickerFile) throws TelegramApiException {
+        return execute(uploadStickerFile, () -> telegramClient.execute(uploadStickerFile));
+    }
+
+    @Override
+    public CompletableFuture<File> executeAsync(UploadStickerFile uploadStickerFile) {
+        return submit(uploadStickerFile, () -> telegramClient.execute(uploadStickerFile));
+    }
+
+    @Override
+    public Serializable execute(EditMessageMedia editMessageMedia) throws TelegramApiException {
+        return execute(editMessageMedia, () -> telegramClient.execute(editMessageMedia));
+    }
+
+    @Override
+    public CompletableFuture<Serializable> executeAsync(EditMessageMedia editMessageMedia) {
+        return submit(editMessageMedia, () -> telegramClient.execute(editMessageMedia));
+    }
+
+    @Override
+    public java.io.File downloadFile(File file) throws TelegramApiException {
+        return telegramClient.downloadFile(file);
+    }
+
+    @Override
+    public InputStream downloadFileAsStream(File file) throws TelegramApiException {
+        return telegramClient.downloadFileAsStream(file);
+    }
+
+    @Override
+    public CompletableFuture<java.io.File> downloadFileAsync(File file) {
+        return telegramClient.downloadFileAsync(file);
+    }
+
+    @Override
+    public CompletableFuture<InputStream> downloadFileAsStreamAsync(File file) {
+        return telegramClient.downloadFileAsStreamAsync(file);
+    }
+
+    private <T> T execute(PartialBotApiMethod<?> method, OutboundDispatcher.TelegramCall<T> call) throws TelegramApiException {
+        return OutboundDispatcher.getInstance().execute(botToken, priority, getChatId(method), call);
+    }
+
+    private <T> CompletableFuture<T> submit(PartialBotApiMethod<?> method, OutboundDispatcher.TelegramCall<T> call) {
+        return OutboundDispatcher.getInstance().submit(botToken, priority, getChatId(method), call);
+    }
+
+    /**
+     * Chat a request is sent to, so that it is limited by the rate of that chat
+     *
+     * @param method Request
+     * @return Id of the chat or null if the request isn't sent to a known chat
+     */
+    private static String getChatId(PartialBotApiMethod<?> method) {
+        if (method instanceof SendMessage sendMessage) {
+            return sendMessage.getChatId();
+        } else if (method instanceof SendMediaBotMethod<?> sendMediaBotMethod) {
+            return sendMediaBotMethod.getChatId();
+        } else if (method instanceof SendMediaGroup sendMediaGroup) {
+            return sendMediaGroup.getChatId();
+        } else if (method instanceof SendLocation sendLocation) {
+            return sendLocation.getChatId();
+        } else if (method instanceof SendChatAction sendChatAction) {
+            return sendChatAction.getChatId();
+        } else if (method instanceof EditMessageText editMessageText) {
+            return editMessageText.getChatId();
+        } else if (method instanceof EditMessageReplyMarkup editMessageReplyMarkup) {
+            return editMessageReplyMarkup.getChatId();
+        } else if (method instanceof EditMessageCaption editMessageCaption) {
+            return editMessageCaption.getChatId();
+        } else if (method instanceof EditMessageMedia editMessageMedia) {
+            return editMessageMedia.getChatId();
+        } else if (method instanceof SetChatPhoto setChatPhoto) {
+            return setChatPhoto.getChatId();
+        }
+        return null;
+    }
+}
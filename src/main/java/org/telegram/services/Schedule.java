@@ -0,0 +1,47 @@
+package org.telegram.services;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * When a periodic task runs
+ */
+@FunctionalInterface
+public interface Schedule {
+    /**
+     * @param afterMillis Time of the last execution, or the current time before the first one
+     * @return Time of the next execution after that one, or -1 if there are no more
+     */
+    long nextExecutionMillis(long afterMillis);
+
+    /**
+     * Run at a fixed rate, skipping the executions missed while the previous one was running
+     *
+     * @param initialDelayMillis Time until the first execution
+     * @param periodMillis       Time between executions
+     */
+    static Schedule fixedRate(long initialDelayMillis, long periodMillis) {
+        final long firstMillis = System.currentTimeMillis() + initialDelayMillis;
+        return afterMillis -> {
+            if (afterMillis < firstMillis) {
+                return firstMillis;
+            }
+            return firstMillis + ((afterMillis - firstMillis) / periodMillis + 1) * periodMillis;
+        };
+    }
+
+    /**
+     * Run every day at a time, in UTC
+     */
+    static Schedule dailyAt(int hour, int minute, int second) {
+        return CronSchedule.parse(second + " " + minute + " " + hour + " * * *");
+    }
+
+    /**
+     * Run when the time matches a cron expression, in UTC
+     *
+     * @see CronSchedule
+     */
+    static Schedule cron(String expression) {
+        return CronSchedule.parse(expression);
+    }
+}
@@ -1,28 +1,48 @@
 package org.telegram.services;
 
 import lombok.extern.slf4j.Slf4j;
+import org.telegram.BuildVars;
+import org.telegram.structure.TimingWheel;
 
-import java.time.Clock;
-import java.time.Duration;
-import java.time.LocalDateTime;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Ruben Bermudez
- * @version 2.0
- * Execute a task periodically
+ * @version 3.0
+ * Execute tasks periodically or after a delay
+ * <p>
+ * Pending tasks wait in a hierarchical timing wheel advanced by a single thread every tick, so holding
+ * millions of per user timers is cheap. Tasks due are handed to a pool of workers, so a long task doesn't
+ * delay the others.
  */
 @Slf4j
 public class TimerExecutor {
     private static volatile TimerExecutor instance; ///< Instance
-    private static final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1); ///< Thread to execute operations
+
+    private final TimingWheel wheel = new TimingWheel(BuildVars.timerTickMillis, BuildVars.timerWheelSlots,
+            System.currentTimeMillis()); ///< Pending tasks, guarded by itself
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "timer-wheel");
+        thread.setDaemon(true);
+        return thread;
+    }); ///< Thread advancing the wheel
+    private final ExecutorService workers; ///< Threads running the tasks
 
     /**
      * Private constructor due to singleton
      */
     private TimerExecutor() {
+        final AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(BuildVars.timerWorkerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "timer-worker-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::advance, BuildVars.timerTickMillis, BuildVars.timerTickMillis, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -55,39 +75,87 @@ public class TimerExecutor {
      * @param targetSec  Second to execute it
      */
     public void startExecutionEveryDayAt(CustomTimerTask task, int targetHour, int targetMin, int targetSec) {
+        startExecution(task, Schedule.dailyAt(targetHour, targetMin, targetSec));
+    }
+
+    /**
+     * Add a new CustomTimerTask to be executed at a fixed rate
+     *
+     * @param task               Task to execute
+     * @param initialDelayMillis Time until the first execution
+     * @param periodMillis       Time between executions
+     */
+    public void startExecutionAtFixedRate(CustomTimerTask task, long initialDelayMillis, long periodMillis) {
+        startExecution(task, Schedule.fixedRate(initialDelayMillis, periodMillis));
+    }
+
+    /**
+     * Add a new CustomTimerTask to be executed following a schedule. The next execution is scheduled when
+     * the previous one finishes, so executions of the same task never overlap.
+     *
+     * @param task     Task to execute
+     * @param schedule When to execute it
+     */
+    public void startExecution(CustomTimerTask task, Schedule schedule) {
         log.warn("Posting new task {}", task.getTaskName());
+        scheduleNextExecution(task, schedule, System.currentTimeMillis());
+    }
+
+    /**
+     * Execute a task once after a delay
+     *
+     * @param task        Task to execute
+     * @param delayMillis Time to wait
+     * @return Handle to cancel the task, or null if it was due at once and is already running
+     */
+    public TimingWheel.Timeout schedule(Runnable task, long delayMillis) {
         final Runnable taskWrapper = () -> {
             try {
-                task.execute();
-                task.reduceTimes();
-                startExecutionEveryDayAt(task, targetHour, targetMin, targetSec);
+                task.run();
             } catch (Exception e) {
                 log.error("Bot threw an unexpected exception at TimerExecutor", e);
             }
         };
-        if (task.getTimes() != 0) {
-            final long delay = computNextDilay(targetHour, targetMin, targetSec);
-            executorService.schedule(taskWrapper, delay, TimeUnit.SECONDS);
+        final TimingWheel.Timeout timeout = wheel.add(taskWrapper, System.currentTimeMillis() + delayMillis);
+        if (timeout == null) {
+            workers.execute(taskWrapper);
         }
+        return timeout;
     }
 
     /**
-     * Find out next daily execution
-     *
-     * @param targetHour Target hour
-     * @param targetMin  Target minute
-     * @param targetSec  Target second
-     * @return time in second to wait
+     * @return Number of tasks waiting to be executed
      */
-    private long computNextDilay(int targetHour, int targetMin, int targetSec) {
-        final LocalDateTime localNow = LocalDateTime.now(Clock.systemUTC());
-        LocalDateTime localNextTarget = localNow.withHour(targetHour).withMinute(targetMin).withSecond(targetSec);
-        while (localNow.isAfter(localNextTarget.minusSeconds(1))) {
-            localNextTarget = localNextTarget.plusDays(1);
+    public int getPendingTasks() {
+        return wheel.size();
+    }
+
+    private void scheduleNextExecution(CustomTimerTask task, Schedule schedule, long afterMillis) {
+        if (task.getTimes() == 0) {
+            return;
         }
+        final long nextExecutionMillis = schedule.nextExecutionMillis(afterMillis);
+        if (nextExecutionMillis < 0) {
+            log.warn("Task {} has no more executions", task.getTaskName());
+            return;
+        }
+        schedule(() -> {
+            try {
+                task.execute();
+            } catch (Exception e) {
+                log.error("Bot threw an unexpected exception at TimerExecutor", e);
+            }
+            task.reduceTimes();
+            scheduleNextExecution(task, schedule, Math.max(nextExecutionMillis, System.currentTimeMillis()));
+        }, nextExecutionMillis - System.currentTimeMillis());
+    }
 
-        final Duration duration = Duration.between(localNow, localNextTarget);
-        return duration.getSeconds();
+    private void advance() {
+        try {
+            wheel.advance(System.currentTimeMillis(), workers::execute);
+        } catch (Exception e) {
+            log.error("Bot threw an unexpected exception at TimerExecutor", e);
+        }
     }
 
     @Override
@@ -96,12 +164,13 @@ public class TimerExecutor {
     }
 
     /**
-     * Stop the thread
+     * Stop the threads
      */
     private void stop() {
-        executorService.shutdown();
+        ticker.shutdown();
+        workers.shutdown();
         try {
-            executorService.awaitTermination(1, TimeUnit.DAYS);
+            workers.awaitTermination(1, TimeUnit.DAYS);
         } catch (InterruptedException ex) {
             log.error("Task interrupted", ex);
         } catch (Exception e) {
@@ -1,14 +1,21 @@
 package org.telegram.services;
 
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
-import org.json.JSONObject;
 import org.telegram.BuildVars;
 import org.telegram.database.DatabaseManager;
+import org.telegram.structure.CityWeatherAlert;
+import org.telegram.structure.CurrentWeather;
+import org.telegram.structure.ExpiringLruCache;
+import org.telegram.structure.WeatherForecast;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -16,6 +23,16 @@ import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * @author Ruben Bermudez
@@ -35,14 +52,27 @@ public class WeatherService {
     private static final String ALERTPARAMS = "&cnt=1&units=@units@&lang=@language@";
     private static final String CURRENTPARAMS = "&cnt=1&units=@units@&lang=@language@";
     private static final DateTimeFormatter dateFormaterFromDate = DateTimeFormatter.ofPattern("dd/MM/yyyy"); ///< Date to text formater
+    private static final int RESPONSECACHESIZE = 20000; ///< Max responses kept in cache
+    private static final long CURRENTCACHETTL = 10 * 60 * 1000; ///< Time a current weather response is reused
+    private static final long FORECASTCACHETTL = 60 * 60 * 1000; ///< Time a forecast or alert response is reused
+    private static final long RESPONSETIMEOUTSECONDS = 30; ///< Max time a caller waits for a response, including the time queued
     private static volatile WeatherService instance; ///< Instance of this class
 
-    private final OkHttpClient okHttpClient = new OkHttpClient().newBuilder().build();
+    private final OkHttpClient okHttpClient = HttpClientProvider.getInstance().getWeatherClient();
+    private final ExpiringLruCache<WeatherRequestKey, Object> responseCache = new ExpiringLruCache<>(RESPONSECACHESIZE, FORECASTCACHETTL);
+    private final ConcurrentHashMap<WeatherRequestKey, InFlightRequest<?>> inFlightRequests = new ConcurrentHashMap<>();
+    private final ExecutorService readerExecutor; ///< Reads the responses, out of the http threads as readers write to the db
 
     /**
      * Constructor (private due to singleton pattern)
      */
     private WeatherService() {
+        AtomicInteger threadCount = new AtomicInteger();
+        readerExecutor = Executors.newFixedThreadPool(BuildVars.weatherReaderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "weather-reader-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
@@ -73,46 +103,47 @@ public class WeatherService {
      * @apiNote Forecast for the day
      */
     public String fetchWeatherAlert(int cityId, long userId, String language, String units) {
-        String cityFound;
-        String responseToUser;
+        CityWeatherAlert cityWeatherAlert = fetchCityWeatherAlert(cityId, language, units);
+        if (cityWeatherAlert.isCityFound()) {
+            saveRecentWeather(userId, cityWeatherAlert.getCityName(), cityWeatherAlert.getCityId());
+        }
+        return cityWeatherAlert.getMessage();
+    }
+
+    /**
+     * Fetch the weather of a city for one day, without linking it to any user so that the
+     * same message can be sent to everyone with an alert for that city, language and units
+     *
+     * @param cityId City to get the weather
+     * @return Alert message and the city found
+     * @apiNote Forecast for the day
+     */
+    public CityWeatherAlert fetchCityWeatherAlert(int cityId, String language, String units) {
+        return fetchCityWeatherAlertAsync(cityId, language, units).join();
+    }
+
+    /**
+     * Fetch the weather of a city for one day without blocking
+     *
+     * @param cityId City to get the weather
+     * @return Future with the alert message and the city found, cancelling it cancels the request if nobody else waits for it
+     * @apiNote Forecast for the day
+     */
+    public CompletableFuture<CityWeatherAlert> fetchCityWeatherAlertAsync(int cityId, String language, String units) {
         try {
-            String completeURL = BASEURL + FORECASTPATH + "?" + getCityQuery(cityId + "") +
+            String cityQuery = getCityQuery(cityId + "");
+            String completeURL = BASEURL + FORECASTPATH + "?" + cityQuery +
                     ALERTPARAMS.replace("@language@", language).replace("@units@", units) + APIIDEND;
-            Request request = new Request.Builder()
-                    .url(completeURL)
-                    .header("charset", StandardCharsets.UTF_8.name())
-                    .get()
-                    .build();
-
-            try (Response response = okHttpClient.newCall(request).execute()) {
-                if (response.isSuccessful()) {
-                    try (ResponseBody body = response.body()) {
-                        if (body != null) {
-                            JSONObject jsonObject = new JSONObject(body.string());
-                            log.info("Alert fetched: {}", jsonObject);
-                            if (jsonObject.getInt("cod") == 200) {
-                                cityFound = jsonObject.getJSONObject("city").getString("name") + " (" +
-                                        jsonObject.getJSONObject("city").getString("country") + ")";
-                                saveRecentWeather(userId, cityFound, jsonObject.getJSONObject("city").getInt("id"));
-                                responseToUser = String.format(LocalisationService.getString("weatherAlert", language),
-                                        cityFound, convertListOfForecastToString(jsonObject, language, units, false));
-                            } else {
-                                log.warn("Unable to read alerts fetched {}", jsonObject);
-                                responseToUser = LocalisationService.getString("cityNotFound", language);
-                            }
-                        } else {
-                            responseToUser = LocalisationService.getString("errorFetchingWeather", language);
-                        }
-                    }
-                } else {
-                    responseToUser = LocalisationService.getString("errorFetchingWeather", language);
-                }
-            }
+            return readResponse(fetchResponseAsync(new WeatherRequestKey("alert", cityQuery, language, units), completeURL, FORECASTCACHETTL, OpenWeatherDecoder::decodeForecast),
+                    forecast -> readAlert(forecast, language, units),
+                    e -> {
+                        log.error("Error fetching alerts", e);
+                        return new CityWeatherAlert(LocalisationService.getString("errorFetchingWeather", language), null, null);
+                    });
         } catch (Exception e) {
             log.error("Error fetching alerts", e);
-            responseToUser = LocalisationService.getString("errorFetchingWeather", language);
+            return CompletableFuture.completedFuture(new CityWeatherAlert(LocalisationService.getString("errorFetchingWeather", language), null, null));
         }
-        return responseToUser;
     }
 
     /**
@@ -123,46 +154,27 @@ public class WeatherService {
      * @note Forecast for the following 3 days
      */
     public String fetchWeatherForecast(String city, Long userId, String language, String units) {
-        String cityFound;
-        String responseToUser;
+        return fetchWeatherForecastAsync(city, userId, language, units).join();
+    }
+
+    /**
+     * Fetch the weather of a city without blocking
+     *
+     * @param city City to get the weather
+     * @return Future with the message to send, cancelling it cancels the request if nobody else waits for it
+     * @note Forecast for the following 3 days
+     */
+    public CompletableFuture<String> fetchWeatherForecastAsync(String city, Long userId, String language, String units) {
         try {
-            String completeURL = BASEURL + FORECASTPATH + "?" + getCityQuery(city) +
+            String cityQuery = getCityQuery(city);
+            String completeURL = BASEURL + FORECASTPATH + "?" + cityQuery +
                     FORECASTPARAMS.replace("@language@", language).replace("@units@", units) + APIIDEND;
-            Request request = new Request.Builder()
-                    .url(completeURL)
-                    .header("charset", StandardCharsets.UTF_8.name())
-                    .get()
-                    .build();
-
-            try (Response response = okHttpClient.newCall(request).execute()) {
-                if (response.isSuccessful()) {
-                    try (ResponseBody body = response.body()) {
-                        if (body != null) {
-                            JSONObject jsonObject = new JSONObject(body.string());
-                            log.info("Fetched weather forecast {}", jsonObject);
-                            if (jsonObject.getInt("cod") == 200) {
-                                cityFound = jsonObject.getJSONObject("city").getString("name") + " (" +
-                                        jsonObject.getJSONObject("city").getString("country") + ")";
-                                saveRecentWeather(userId, cityFound, jsonObject.getJSONObject("city").getInt("id"));
-                                responseToUser = String.format(LocalisationService.getString("weatherForcast", language),
-                                        cityFound, convertListOfForecastToString(jsonObject, language, units, true));
-                            } else {
-                                log.warn("City forecast not found {}", jsonObject);
-                                responseToUser = LocalisationService.getString("cityNotFound", language);
-                            }
-                        } else {
-                            responseToUser = LocalisationService.getString("errorFetchingWeather", language);
-                        }
-                    }
-                } else {
-                    responseToUser = LocalisationService.getString("errorFetchingWeather", language);
-                }
-            }
+            return readResponse(fetchResponseAsync(new WeatherRequestKey("forecast", cityQuery, language, units), completeURL, FORECASTCACHETTL, OpenWeatherDecoder::decodeForecast),
+                    forecast -> readForecast(forecast, userId, language, units),
+                    e -> getErrorMessage("Error fetching city forecast", e, language));
         } catch (Exception e) {
-            log.error("Error fetching city forecast", e);
-            responseToUser = LocalisationService.getString("errorFetchingWeather", language);
+            return CompletableFuture.completedFuture(getErrorMessage("Error fetching city forecast", e, language));
         }
-        return responseToUser;
     }
 
     /**
@@ -172,46 +184,22 @@ public class WeatherService {
      * @note Forecast for the following 3 days
      */
     public String fetchWeatherForecastByLocation(Double longitude, Double latitude, Long userId, String language, String units) {
-        String cityFound;
-        String responseToUser;
-        try {
-            String completeURL = BASEURL + FORECASTPATH + "?lat=" + URLEncoder.encode(latitude + "", StandardCharsets.UTF_8) + "&lon="
-                    + URLEncoder.encode(longitude + "", StandardCharsets.UTF_8) +
-                    FORECASTPARAMS.replace("@language@", language).replace("@units@", units) + APIIDEND;
-            Request request = new Request.Builder()
-                    .url(completeURL)
-                    .header("charset", StandardCharsets.UTF_8.name())
-                    .get()
-                    .build();
+        return fetchWeatherForecastByLocationAsync(longitude, latitude, userId, language, units).join();
+    }
 
-            try (Response response = okHttpClient.newCall(request).execute()) {
-                if (response.isSuccessful()) {
-                    try (ResponseBody body = response.body()) {
-                        if (body != null) {
-                            JSONObject jsonObject = new JSONObject(body.string());
-                            if (jsonObject.getInt("cod") == 200) {
-                                cityFound = jsonObject.getJSONObject("city").getString("name") + " (" +
-                                        jsonObject.getJSONObject("city").getString("country") + ")";
-                                saveRecentWeather(userId, cityFound, jsonObject.getJSONObject("city").getInt("id"));
-                                responseToUser = String.format(LocalisationService.getString("weatherForcast", language),
-                                        cityFound, convertListOfForecastToString(jsonObject, language, units, true));
-                            } else {
-                                log.warn("No forecast for location found {}", jsonObject);
-                                responseToUser = LocalisationService.getString("cityNotFound", language);
-                            }
-                        } else {
-                            responseToUser = LocalisationService.getString("errorFetchingWeather", language);
-                        }
-                    }
-                } else {
-                    responseToUser = LocalisationService.getString("errorFetchingWeather", language);
-                }
-            }
-        } catch (Exception e) {
-            log.error("Error fetching location forecast", e);
-            responseToUser = LocalisationService.getString("errorFetchingWeather", language);
-        }
-        return responseToUser;
+    /**
+     * Fetch the weather of a location without blocking
+     *
+     * @return Future with the message to send, cancelling it cancels the request if nobody else waits for it
+     * @note Forecast for the following 3 days
+     */
+    public CompletableFuture<String> fetchWeatherForecastByLocationAsync(Double longitude, Double latitude, Long userId, String language, String units) {
+        String locationQuery = getLocationQuery(longitude, latitude);
+        String completeURL = BASEURL + FORECASTPATH + "?" + locationQuery +
+                FORECASTPARAMS.replace("@language@", language).replace("@units@", units) + APIIDEND;
+        return readResponse(fetchResponseAsync(new WeatherRequestKey("forecast", locationQuery, language, units), completeURL, FORECASTCACHETTL, OpenWeatherDecoder::decodeForecast),
+                forecast -> readForecast(forecast, userId, language, units),
+                e -> getErrorMessage("Error fetching location forecast", e, language));
     }
 
     /**
@@ -222,47 +210,26 @@ public class WeatherService {
      * @apiNote Forecast for the following 3 days
      */
     public String fetchWeatherCurrent(String city, Long userId, String language, String units) {
-        String cityFound;
-        String responseToUser;
-        Emoji emoji = null;
+        return fetchWeatherCurrentAsync(city, userId, language, units).join();
+    }
+
+    /**
+     * Fetch the current weather of a city without blocking
+     *
+     * @param city City to get the weather
+     * @return Future with the message to send, cancelling it cancels the request if nobody else waits for it
+     */
+    public CompletableFuture<String> fetchWeatherCurrentAsync(String city, Long userId, String language, String units) {
         try {
-            String completeURL = BASEURL + CURRENTPATH + "?" + getCityQuery(city) +
+            String cityQuery = getCityQuery(city);
+            String completeURL = BASEURL + CURRENTPATH + "?" + cityQuery +
                     CURRENTPARAMS.replace("@language@", language).replace("@units@", units) + APIIDEND;
-            Request request = new Request.Builder()
-                    .url(completeURL)
-                    .header("charset", StandardCharsets.UTF_8.name())
-                    .get()
-                    .build();
-
-            try (Response response = okHttpClient.newCall(request).execute()) {
-                if (response.isSuccessful()) {
-                    try (ResponseBody body = response.body()) {
-                        if (body != null) {
-                            JSONObject jsonObject = new JSONObject(body.string());
-                            if (jsonObject.getInt("cod") == 200) {
-                                cityFound = jsonObject.getString("name") + " (" +
-                                        jsonObject.getJSONObject("sys").getString("country") + ")";
-                                saveRecentWeather(userId, cityFound, jsonObject.getInt("id"));
-                                emoji = getEmojiForWeather(jsonObject.getJSONArray("weather").getJSONObject(0));
-                                responseToUser = String.format(LocalisationService.getString("weatherCurrent", language),
-                                        cityFound, convertCurrentWeatherToString(jsonObject, language, units, emoji));
-                            } else {
-                                log.warn("No current weather found {}", jsonObject);
-                                responseToUser = LocalisationService.getString("cityNotFound", language);
-                            }
-                        } else {
-                            responseToUser = LocalisationService.getString("errorFetchingWeather", language);
-                        }
-                    }
-                } else {
-                    responseToUser = LocalisationService.getString("errorFetchingWeather", language);
-                }
-            }
+            return readResponse(fetchResponseAsync(new WeatherRequestKey("current", cityQuery, language, units), completeURL, CURRENTCACHETTL, OpenWeatherDecoder::decodeCurrentWeather),
+                    currentWeather -> readCurrentWeather(currentWeather, userId, language, units, true),
+                    e -> getErrorMessage("Error fetching current weather", e, language));
         } catch (Exception e) {
-            log.error("Error fetching current weather", e);
-            responseToUser = LocalisationService.getString("errorFetchingWeather", language);
+            return CompletableFuture.completedFuture(getErrorMessage("Error fetching current weather", e, language));
         }
-        return responseToUser;
     }
 
     /**
@@ -272,120 +239,166 @@ public class WeatherService {
      * @note Forecast for the following 3 days
      */
     public String fetchWeatherCurrentByLocation(Double longitude, Double latitude, Long userId, String language, String units) {
-        String cityFound;
-        String responseToUser;
-        try {
-            String completeURL = BASEURL + CURRENTPATH + "?lat=" + URLEncoder.encode(latitude + "", StandardCharsets.UTF_8) + "&lon="
-                    + URLEncoder.encode(longitude + "", StandardCharsets.UTF_8) +
-                    CURRENTPARAMS.replace("@language@", language).replace("@units@", units) + APIIDEND;
-            Request request = new Request.Builder()
-                    .url(completeURL)
-                    .header("charset", StandardCharsets.UTF_8.name())
-                    .get()
-                    .build();
+        return fetchWeatherCurrentByLocationAsync(longitude, latitude, userId, language, units).join();
+    }
 
-            try (Response response = okHttpClient.newCall(request).execute()) {
-                if (response.isSuccessful()) {
-                    try (ResponseBody body = response.body()) {
-                        if (body != null) {
-                            JSONObject jsonObject = new JSONObject(body.string());
-                            if (jsonObject.getInt("cod") == 200) {
-                                cityFound = jsonObject.getString("name") + " (" +
-                                        jsonObject.getJSONObject("sys").getString("country") + ")";
-                                saveRecentWeather(userId, cityFound, jsonObject.getInt("id"));
-                                responseToUser = String.format(LocalisationService.getString("weatherCurrent", language),
-                                        cityFound, convertCurrentWeatherToString(jsonObject, language, units, null));
-                            } else {
-                                log.warn("No weather found for location {}", jsonObject);
-                                responseToUser = LocalisationService.getString("cityNotFound", language);
-                            }
-                        } else {
-                            responseToUser = LocalisationService.getString("errorFetchingWeather", language);
-                        }
-                    }
-                } else {
-                    responseToUser = LocalisationService.getString("errorFetchingWeather", language);
-                }
-            }
-        } catch (Exception e) {
-            log.error("Error fetching weather for location", e);
-            responseToUser = LocalisationService.getString("errorFetchingWeather", language);
+    /**
+     * Fetch the current weather of a location without blocking
+     *
+     * @return Future with the message to send, cancelling it cancels the request if nobody else waits for it
+     */
+    public CompletableFuture<String> fetchWeatherCurrentByLocationAsync(Double longitude, Double latitude, Long userId, String language, String units) {
+        String locationQuery = getLocationQuery(longitude, latitude);
+        String completeURL = BASEURL + CURRENTPATH + "?" + locationQuery +
+                CURRENTPARAMS.replace("@language@", language).replace("@units@", units) + APIIDEND;
+        return readResponse(fetchResponseAsync(new WeatherRequestKey("current", locationQuery, language, units), completeURL, CURRENTCACHETTL, OpenWeatherDecoder::decodeCurrentWeather),
+                currentWeather -> readCurrentWeather(currentWeather, userId, language, units, false),
+                e -> getErrorMessage("Error fetching weather for location", e, language));
+    }
+
+    private CityWeatherAlert readAlert(WeatherForecast forecast, String language, String units) {
+        if (forecast == null) {
+            return new CityWeatherAlert(LocalisationService.getString("errorFetchingWeather", language), null, null);
         }
-        return responseToUser;
+        if (forecast.isCityFound()) {
+            String cityFound = forecast.cityName() + " (" + forecast.country() + ")";
+            String responseToUser = LocalisationService.format("weatherAlert", language,
+                    cityFound, convertListOfForecastToString(forecast, language, units, false));
+            return new CityWeatherAlert(responseToUser, forecast.cityId(), cityFound);
+        }
+        log.warn("Unable to read alerts fetched, code {}", forecast.code());
+        return new CityWeatherAlert(LocalisationService.getString("cityNotFound", language), null, null);
     }
 
-    private String convertCurrentWeatherToString(JSONObject jsonObject, String language, String units, Emoji emoji) {
-        String temp = ((int)jsonObject.getJSONObject("main").getDouble("temp"))+"";
-        String cloudiness = jsonObject.getJSONObject("clouds").getInt("all") + "%";
-        String weatherDesc = jsonObject.getJSONArray("weather").getJSONObject(0).getString("description");
+    private String readForecast(WeatherForecast forecast, Long userId, String language, String units) {
+        if (forecast == null) {
+            return LocalisationService.getString("errorFetchingWeather", language);
+        }
+        if (forecast.isCityFound()) {
+            String cityFound = forecast.cityName() + " (" + forecast.country() + ")";
+            saveRecentWeather(userId, cityFound, forecast.cityId());
+            return LocalisationService.format("weatherForcast", language,
+                    cityFound, convertListOfForecastToString(forecast, language, units, true));
+        }
+        log.warn("Forecast not found, code {}", forecast.code());
+        return LocalisationService.getString("cityNotFound", language);
+    }
 
-        String responseToUser;
+    private String readCurrentWeather(CurrentWeather currentWeather, Long userId, String language, String units, boolean useEmoji) {
+        if (currentWeather == null) {
+            return LocalisationService.getString("errorFetchingWeather", language);
+        }
+        if (currentWeather.isCityFound()) {
+            String cityFound = currentWeather.cityName() + " (" + currentWeather.country() + ")";
+            saveRecentWeather(userId, cityFound, currentWeather.cityId());
+            Emoji emoji = useEmoji ? getEmojiForWeather(currentWeather.icon()) : null;
+            return LocalisationService.format("weatherCurrent", language,
+                    cityFound, convertCurrentWeatherToString(currentWeather, language, units, emoji));
+        }
+        log.warn("No current weather found, code {}", currentWeather.code());
+        return LocalisationService.getString("cityNotFound", language);
+    }
+
+    private String getErrorMessage(String logMessage, Throwable throwable, String language) {
+        log.error(logMessage, throwable);
+        return LocalisationService.getString("errorFetchingWeather", language);
+    }
+
+    private String convertCurrentWeatherToString(CurrentWeather currentWeather, String language, String units, Emoji emoji) {
+        String cloudiness = currentWeather.cloudiness() + "%";
+        String weatherDesc = currentWeather.description();
+
+        MessageTemplate template;
         if (units.equals(METRICSYSTEM)) {
-            responseToUser = LocalisationService.getString("currentWeatherPartMetric", language);
+            template = LocalisationService.getTemplate("currentWeatherPartMetric", language);
         } else {
-            responseToUser = LocalisationService.getString("currentWeatherPartImperial", language);
+            template = LocalisationService.getTemplate("currentWeatherPartImperial", language);
         }
-        responseToUser = String.format(responseToUser, emoji == null ? weatherDesc : emoji.toString(), cloudiness, temp);
-
-        return responseToUser;
+        return template.render(emoji == null ? weatherDesc : emoji.toString(), cloudiness, (int) currentWeather.temp());
     }
 
     /**
      * Convert a list of weather forcast to a list of strings to be sent
      *
-     * @param jsonObject JSONObject contining the list
+     * @param forecast Forecast contining the list
      * @return String to be sent to the user
      */
-    private String convertListOfForecastToString(JSONObject jsonObject, String language, String units, boolean addDate) {
-        String responseToUser = "";
-        for (int i = 0; i < jsonObject.getJSONArray("list").length(); i++) {
-            JSONObject internalJSON = jsonObject.getJSONArray("list").getJSONObject(i);
-            responseToUser += convertInternalInformationToString(internalJSON, language, units, addDate);
+    private String convertListOfForecastToString(WeatherForecast forecast, String language, String units, boolean addDate) {
+        MessageTemplate template;
+        if (units.equals(METRICSYSTEM)) {
+            template = LocalisationService.getTemplate(addDate ? "forecastWeatherPartMetric" : "alertWeatherPartMetric", language);
+        } else {
+            template = LocalisationService.getTemplate(addDate ? "forecastWeatherPartImperial" : "alertWeatherPartImperial", language);
         }
-        return responseToUser;
+        StringBuilder responseToUser = new StringBuilder();
+        for (WeatherForecast.Day day : forecast.days()) {
+            appendDayForecast(responseToUser, template, day, addDate);
+        }
+        return responseToUser.toString();
     }
 
     /**
      * Convert internal part of then answer to string
      *
-     * @param internalJSON JSONObject containing the part to convert
-     * @return String to be sent to the user
+     * @param responseToUser Builder of the message to be sent to the user
+     * @param template       Template of the part of the day
+     * @param day            Forecast of the day to convert
      */
-    private String convertInternalInformationToString(JSONObject internalJSON, String language, String units, boolean addDate) {
-        String responseToUser = "";
-        LocalDate date;
-        String tempMax;
-        String tempMin;
-        String weatherDesc;
-        date = Instant.ofEpochSecond(internalJSON.getLong("dt")).atZone(ZoneId.systemDefault()).toLocalDate();
-        tempMax = ((int)internalJSON.getJSONObject("temp").getDouble("max")) + "";
-        tempMin = ((int)internalJSON.getJSONObject("temp").getDouble("min")) + "";
-        JSONObject weatherObject = internalJSON.getJSONArray("weather").getJSONObject(0);
-        Emoji emoji = getEmojiForWeather(internalJSON.getJSONArray("weather").getJSONObject(0));
-        weatherDesc = weatherObject.getString("description");
-
-        if (units.equals(METRICSYSTEM)) {
-            if (addDate) {
-                responseToUser = LocalisationService.getString("forecastWeatherPartMetric", language);
-            } else {
-                responseToUser = LocalisationService.getString("alertWeatherPartMetric", language);
-            }
-        } else {
-            if (addDate) {
-                responseToUser = LocalisationService.getString("forecastWeatherPartImperial", language);
-            } else {
-                responseToUser = LocalisationService.getString("alertWeatherPartImperial", language);
-            }
-        }
+    private void appendDayForecast(StringBuilder responseToUser, MessageTemplate template, WeatherForecast.Day day, boolean addDate) {
+        Emoji emoji = getEmojiForWeather(day.icon());
+        String weatherDesc = emoji == null ? day.description() : emoji.toString();
         if (addDate) {
-            responseToUser = String.format(responseToUser, Emoji.LARGE_ORANGE_DIAMOND.toString(),
-                    dateFormaterFromDate.format(date), emoji == null ? weatherDesc : emoji.toString(), tempMax, tempMin);
+            LocalDate date = Instant.ofEpochSecond(day.epochSecond()).atZone(ZoneId.systemDefault()).toLocalDate();
+            template.renderTo(responseToUser, Emoji.LARGE_ORANGE_DIAMOND.toString(),
+                    dateFormaterFromDate.format(date), weatherDesc, (int) day.tempMax(), (int) day.tempMin());
         } else {
-            responseToUser = String.format(responseToUser, emoji == null ? weatherDesc : emoji.toString(),
-                    tempMax, tempMin);
+            template.renderTo(responseToUser, weatherDesc, (int) day.tempMax(), (int) day.tempMin());
+        }
+    }
+
+    /**
+     * Get the decoded response of a request from the cache or from the api without blocking.
+     * Concurrent requests for the same key while it isn't cached share a single call to the api,
+     * the call is cancelled once every caller cancelled its future.
+     *
+     * @param key         Key of the request in the cache, the endpoint of the key always uses the same decoder
+     * @param completeURL Url to fetch if the response isn't cached
+     * @param ttlMillis   Time the response is reused
+     * @param decoder     Decoder of the body of the response
+     * @return Future with the decoded response or null if the request wasn't successful
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> fetchResponseAsync(WeatherRequestKey key, String completeURL, long ttlMillis,
+                                                        ResponseDecoder<T> decoder) {
+        T response = (T) responseCache.get(key);
+        if (response != null) {
+            return CompletableFuture.completedFuture(response);
+        }
+        InFlightRequest<T> newRequest = new InFlightRequest<>(key, completeURL, ttlMillis, decoder);
+        InFlightRequest<T> inFlightRequest = (InFlightRequest<T>) inFlightRequests.putIfAbsent(key, newRequest);
+        if (inFlightRequest != null) {
+            return inFlightRequest.subscribe();
         }
+        CompletableFuture<T> subscription = newRequest.subscribe();
+        newRequest.start();
+        return subscription;
+    }
 
-        return responseToUser;
+    /**
+     * Read a decoded response in the reader threads, as readers save the recent cities of the users and the
+     * http threads completing the responses must not wait for the db. Cancelling the returned future cancels
+     * the response.
+     */
+    private <R, T> CompletableFuture<T> readResponse(CompletableFuture<R> response, Function<R, T> reader,
+                                                     Function<Throwable, T> errorHandler) {
+        CompletableFuture<T> result = response.thenApplyAsync(reader, readerExecutor).exceptionally(throwable ->
+                errorHandler.apply(throwable instanceof CompletionException ? throwable.getCause() : throwable));
+        result.whenComplete((value, throwable) -> {
+            if (result.isCancelled()) {
+                response.cancel(true);
+            }
+        });
+        return result;
     }
 
     private void saveRecentWeather(Long userId, String cityName, int cityId) {
@@ -402,10 +415,18 @@ public class WeatherService {
         return cityQuery;
     }
 
-    private Emoji getEmojiForWeather(JSONObject weather) {
+    /**
+     * Location query with the coordinates rounded to ~1km so that close locations share cached responses
+     */
+    private String getLocationQuery(Double longitude, Double latitude) {
+        return "lat=" + URLEncoder.encode(String.format(Locale.ROOT, "%.2f", latitude), StandardCharsets.UTF_8) +
+                "&lon=" + URLEncoder.encode(String.format(Locale.ROOT, "%.2f", longitude), StandardCharsets.UTF_8);
+    }
+
+    private Emoji getEmojiForWeather(String icon) {
         Emoji emoji;
 
-        switch(weather.getString("icon")) {
+        switch(icon == null ? "" : icon) {
             case "01n":
             case "01d":
                 emoji = Emoji.SUN_WITH_FACE;
@@ -444,4 +465,85 @@ public class WeatherService {
 
         return emoji;
     }
+
+    /**
+     * Call to the api shared by every caller asking for the same request while it runs
+     */
+    private class InFlightRequest<T> implements Callback {
+        private final WeatherRequestKey key;
+        private final long ttlMillis;
+        private final ResponseDecoder<T> decoder;
+        private final Call call;
+        private final CompletableFuture<T> response = new CompletableFuture<>();
+        private final AtomicInteger subscribers = new AtomicInteger();
+
+        private InFlightRequest(WeatherRequestKey key, String completeURL, long ttlMillis, ResponseDecoder<T> decoder) {
+            this.key = key;
+            this.ttlMillis = ttlMillis;
+            this.decoder = decoder;
+            Request request = new Request.Builder()
+                    .url(completeURL)
+                    .header("charset", StandardCharsets.UTF_8.name())
+                    .get()
+                    .build();
+            this.call = okHttpClient.newCall(request);
+        }
+
+        /**
+         * Enqueue the call, only once the request is registered so that it is always removed when done
+         */
+        private void start() {
+            call.enqueue(this);
+        }
+
+        /**
+         * @return Future for a new caller, cancelling or timing it out doesn't affect the other callers
+         */
+        private CompletableFuture<T> subscribe() {
+            subscribers.incrementAndGet();
+            CompletableFuture<T> subscription = response.copy().orTimeout(RESPONSETIMEOUTSECONDS, TimeUnit.SECONDS);
+            subscription.whenComplete((decoded, throwable) -> {
+                if ((subscription.isCancelled() || throwable instanceof TimeoutException) && subscribers.decrementAndGet() == 0) {
+                    inFlightRequests.remove(key, this);
+                    call.cancel();
+                }
+            });
+            return subscription;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            inFlightRequests.remove(key, this);
+            response.completeExceptionally(e);
+        }
+
+        @Override
+        public void onResponse(Call call, Response httpResponse) {
+            T decoded = null;
+            try (httpResponse) {
+                ResponseBody responseBody = httpResponse.body();
+                if (httpResponse.isSuccessful() && responseBody != null) {
+                    decoded = decoder.decode(responseBody.byteStream());
+                    responseCache.put(key, decoded, ttlMillis);
+                }
+            } catch (IOException | RuntimeException e) {
+                inFlightRequests.remove(key, this);
+                response.completeExceptionally(e);
+                return;
+            }
+            inFlightRequests.remove(key, this);
+            response.complete(decoded);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResponseDecoder<T> {
+        T decode(InputStream input) throws IOException;
+    }
+
+    private record WeatherRequestKey(String endpoint, String location, String language, String units) {
+        private WeatherRequestKey {
+            location = location.toLowerCase(Locale.ROOT);
+        }
+    }
 }
@@ -0,0 +1,21 @@
+package org.telegram.structure;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Alert message rendered once for every user of the same city, language and units
+ */
+@Data
+@AllArgsConstructor
+public class CityWeatherAlert {
+    private String message; ///< Text to send to the users
+    private Integer cityId; ///< Id of the city found, null if the forecast couldn't be fetched
+    private String cityName; ///< Name of the city found, null if the forecast couldn't be fetched
+
+    public boolean isCityFound() {
+        return cityId != null;
+    }
+}
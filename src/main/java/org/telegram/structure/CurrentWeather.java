@@ -0,0 +1,22 @@
+package org.telegram.structure;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Current weather of a city with only the fields used to build the messages
+ *
+ * @param code        Code of the response, 200 if the city was found
+ * @param cityId      Id of the city found
+ * @param cityName    Name of the city found
+ * @param country     Country of the city found
+ * @param temp        Temperature
+ * @param cloudiness  Percentage of clouds
+ * @param description Description of the weather
+ * @param icon        Icon of the weather
+ */
+public record CurrentWeather(int code, int cityId, String cityName, String country, double temp, int cloudiness,
+                             String description, String icon) {
+    public boolean isCityFound() {
+        return code == 200;
+    }
+}
@@ -0,0 +1,123 @@
+package org.telegram.structure;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Thread safe cache bounded in size that evicts the least recently used entries and the ones older than a ttl
+ * <p>
+ * Values loaded from a slower storage must be put with {@link #putIfNotRemoved(Object, Object, long)} using
+ * the stamp taken with {@link #getRemovalStamp()} before reading them, so a value read before a concurrent
+ * update of the storage is discarded instead of overwriting the invalidation. Removals are tracked per key,
+ * so only values of keys removed meanwhile are discarded. The last removals are remembered up to the max
+ * size of the cache, values loaded before a removal already forgotten are discarded too.
+ */
+public class ExpiringLruCache<K, V> {
+    private final long ttlMillis;
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+    private final LinkedHashMap<K, Long> removalStamps; ///< Stamp of the last removal by key, oldest first
+    private long removals; ///< Number of removals, guarded by this
+    private long forgottenRemovals; ///< Stamp of the newest removal no longer in removalStamps
+
+    /**
+     * Constructor
+     *
+     * @param maxSize   Max number of entries kept
+     * @param ttlMillis Default time an entry stays valid since it was put, 0 or less to never expire
+     */
+    public ExpiringLruCache(int maxSize, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.removalStamps = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Long> eldest) {
+                if (size() > maxSize) {
+                    forgottenRemovals = eldest.getValue();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a value from the cache
+     *
+     * @param key Key of the value
+     * @return The value or null if it is not present or expired
+     */
+    public synchronized V get(K key) {
+        CacheEntry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() > entry.expiresAt()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+
+    public void put(K key, V value) {
+        put(key, value, ttlMillis);
+    }
+
+    /**
+     * Put a value with its own ttl
+     *
+     * @param key       Key of the value
+     * @param value     Value to store
+     * @param ttlMillis Time the entry stays valid, 0 or less to never expire
+     */
+    public synchronized void put(K key, V value, long ttlMillis) {
+        final long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+        entries.put(key, new CacheEntry<>(value, expiresAt));
+    }
+
+    /**
+     * Put a value loaded from the storage unless its key was removed since it started loading
+     *
+     * @param removalStamp Value of {@link #getRemovalStamp()} before loading the value
+     * @return True if the value was put
+     */
+    public synchronized boolean putIfNotRemoved(K key, V value, long removalStamp) {
+        final Long keyRemovalStamp = removalStamps.get(key);
+        if (removalStamp < forgottenRemovals || (keyRemovalStamp != null && keyRemovalStamp > removalStamp)) {
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    /**
+     * @return Stamp to pass to {@link #putIfNotRemoved(Object, Object, long)}
+     */
+    public synchronized long getRemovalStamp() {
+        return removals;
+    }
+
+    public synchronized void remove(K key) {
+        entries.remove(key);
+        removals++;
+        removalStamps.remove(key); ///< Moved to the end, as the newest removal
+        removalStamps.put(key, removals);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private record CacheEntry<V>(V value, long expiresAt) {
+    }
+}
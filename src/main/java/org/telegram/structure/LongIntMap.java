@@ -0,0 +1,274 @@
+package org.telegram.structure;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Thread safe map from long to int for per user state. Keys and values are stored in primitive arrays
+ * with open addressing, so an entry takes around 20 bytes instead of the nodes and boxed keys and values
+ * of a ConcurrentHashMap. The map is split in segments locked independently.
+ * <p>
+ * Entries can expire, with a resolution of one second. Expired entries are removed when they are read,
+ * before a segment grows and by {@link #purgeExpired()}.
+ */
+public class LongIntMap {
+    private static final int SEGMENTS = 16; ///< Must be a power of two
+    private static final int SEGMENTBITS = Integer.numberOfTrailingZeros(SEGMENTS);
+    private static final int INITIALCAPACITY = 16; ///< Initial slots of every segment, must be a power of two
+    private static final int NOEXPIRATION = Integer.MAX_VALUE;
+    private static final long FREEKEY = 0; ///< Marks free slots, the key 0 is stored apart
+
+    private final long ttlMillis;
+    private final long baseMillis = System.currentTimeMillis(); ///< Expirations are seconds since this time
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * Constructor
+     *
+     * @param ttlMillis Default time an entry stays valid since it was put, 0 or less to never expire
+     */
+    public LongIntMap(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Get the value of a key
+     *
+     * @param key          Key of the value
+     * @param defaultValue Value returned if the key is not present or expired
+     * @return The value of the key or the default one
+     */
+    public int get(long key, int defaultValue) {
+        int hash = hash(key);
+        return segments[hash >>> (32 - SEGMENTBITS)].get(key, hash, defaultValue, now());
+    }
+
+    public boolean containsKey(long key) {
+        int hash = hash(key);
+        return segments[hash >>> (32 - SEGMENTBITS)].indexOf(key, hash, now()) != Segment.MISSING;
+    }
+
+    public void put(long key, int value) {
+        put(key, value, ttlMillis);
+    }
+
+    /**
+     * Put a value with its own ttl
+     *
+     * @param key       Key of the value
+     * @param value     Value to store
+     * @param ttlMillis Time the entry stays valid, 0 or less to never expire
+     */
+    public void put(long key, int value, long ttlMillis) {
+        int hash = hash(key);
+        int now = now();
+        int expiration = ttlMillis <= 0 ? NOEXPIRATION : (int) Math.min(now + (ttlMillis + 999) / 1000, NOEXPIRATION - 1);
+        segments[hash >>> (32 - SEGMENTBITS)].put(key, hash, value, expiration, now);
+    }
+
+    /**
+     * Remove a key
+     *
+     * @return True if the key was present and not expired
+     */
+    public boolean remove(long key) {
+        int hash = hash(key);
+        return segments[hash >>> (32 - SEGMENTBITS)].remove(key, hash, now());
+    }
+
+    /**
+     * @return Number of entries, including expired ones not removed yet
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Remove every expired entry
+     *
+     * @return Number of entries removed
+     */
+    public int purgeExpired() {
+        int now = now();
+        int removed = 0;
+        for (Segment segment : segments) {
+            removed += segment.purgeExpired(now);
+        }
+        return removed;
+    }
+
+    private int now() {
+        return (int) ((System.currentTimeMillis() - baseMillis) / 1000);
+    }
+
+    private static int hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Open addressing table with linear probing. Removals shift the following entries back instead of
+     * leaving tombstones, so lookups never scan removed slots.
+     */
+    private static final class Segment {
+        private static final int MISSING = -1;
+        private static final int ZEROKEY = -2;
+
+        private long[] keys = new long[INITIALCAPACITY];
+        private int[] values = new int[INITIALCAPACITY];
+        private int[] expirations = new int[INITIALCAPACITY];
+        private int size; ///< Entries in the arrays
+        private boolean hasZeroKey;
+        private int zeroKeyValue;
+        private int zeroKeyExpiration;
+
+        private synchronized int get(long key, int hash, int defaultValue, int now) {
+            int index = indexOf(key, hash, now);
+            if (index == MISSING) {
+                return defaultValue;
+            }
+            return index == ZEROKEY ? zeroKeyValue : values[index];
+        }
+
+        private synchronized void put(long key, int hash, int value, int expiration, int now) {
+            if (key == FREEKEY) {
+                hasZeroKey = true;
+                zeroKeyValue = value;
+                zeroKeyExpiration = expiration;
+                return;
+            }
+            int mask = keys.length - 1;
+            int index = hash & mask;
+            while (keys[index] != FREEKEY) {
+                if (keys[index] == key) {
+                    values[index] = value;
+                    expirations[index] = expiration;
+                    return;
+                }
+                index = (index + 1) & mask;
+            }
+            if ((size + 1) * 4 > keys.length * 3) {
+                purgeExpired(now);
+                if ((size + 1) * 4 > keys.length * 3) {
+                    rehash(keys.length * 2, now);
+                }
+                put(key, hash, value, expiration, now);
+                return;
+            }
+            keys[index] = key;
+            values[index] = value;
+            expirations[index] = expiration;
+            size++;
+        }
+
+        private synchronized boolean remove(long key, int hash, int now) {
+            int index = indexOf(key, hash, now);
+            if (index == MISSING) {
+                return false;
+            }
+            if (index == ZEROKEY) {
+                hasZeroKey = false;
+            } else {
+                removeAt(index);
+            }
+            return true;
+        }
+
+        private synchronized int size() {
+            return size + (hasZeroKey ? 1 : 0);
+        }
+
+        /**
+         * @return Slot of the key, {@link #ZEROKEY} for the key 0 or {@link #MISSING}. An expired key is
+         * removed and reported as missing.
+         */
+        private synchronized int indexOf(long key, int hash, int now) {
+            if (key == FREEKEY) {
+                if (hasZeroKey && zeroKeyExpiration <= now) {
+                    hasZeroKey = false;
+                }
+                return hasZeroKey ? ZEROKEY : MISSING;
+            }
+            int mask = keys.length - 1;
+            int index = hash & mask;
+            while (keys[index] != FREEKEY) {
+                if (keys[index] == key) {
+                    if (expirations[index] <= now) {
+                        removeAt(index);
+                        return MISSING;
+                    }
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return MISSING;
+        }
+
+        private void removeAt(int index) {
+            int mask = keys.length - 1;
+            int gap = index;
+            int next = (index + 1) & mask;
+            while (keys[next] != FREEKEY) {
+                int home = hash(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    expirations[gap] = expirations[next];
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[gap] = FREEKEY;
+            size--;
+        }
+
+        private synchronized int purgeExpired(int now) {
+            int removed = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != FREEKEY && expirations[i] <= now) {
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                rehash(keys.length, now);
+            }
+            if (hasZeroKey && zeroKeyExpiration <= now) {
+                hasZeroKey = false;
+                removed++;
+            }
+            return removed;
+        }
+
+        /**
+         * Move the entries that didn't expire to new arrays
+         */
+        private void rehash(int capacity, int now) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            int[] oldExpirations = expirations;
+            keys = new long[capacity];
+            values = new int[capacity];
+            expirations = new int[capacity];
+            size = 0;
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREEKEY && oldExpirations[i] > now) {
+                    int index = hash(oldKeys[i]) & mask;
+                    while (keys[index] != FREEKEY) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                    expirations[index] = oldExpirations[i];
+                    size++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.telegram.structure;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Thread safe set of longs with expiring entries, backed by a {@link LongIntMap}
+ */
+public class LongSet {
+    private final LongIntMap entries;
+
+    /**
+     * Constructor
+     *
+     * @param ttlMillis Time an entry stays in the set since it was added, 0 or less to never expire
+     */
+    public LongSet(long ttlMillis) {
+        entries = new LongIntMap(ttlMillis);
+    }
+
+    /**
+     * Add a key, renewing its ttl if it was already present
+     */
+    public void add(long key) {
+        entries.put(key, 1);
+    }
+
+    public boolean contains(long key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Remove a key
+     *
+     * @return True if the key was present and not expired
+     */
+    public boolean remove(long key) {
+        return entries.remove(key);
+    }
+
+    /**
+     * @return Number of keys, including expired ones not removed yet
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove every expired key
+     *
+     * @return Number of keys removed
+     */
+    public int purgeExpired() {
+        return entries.purgeExpired();
+    }
+}
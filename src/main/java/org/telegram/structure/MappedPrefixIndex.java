@@ -0,0 +1,226 @@
+package org.telegram.structure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Read only index of words sorted by key, stored in a file that is memory mapped so that lookups
+ * by prefix are binary searches over the file without loading it in the heap.
+ * <p>
+ * File layout: magic, number of entries, offset of every entry plus the end of data, and entries
+ * as the utf-8 bytes of the key, a 0 byte and the utf-8 bytes of the value. As utf-8 keeps the order
+ * of code points, comparing bytes is the same as comparing the keys.
+ */
+public class MappedPrefixIndex {
+    private static final int MAGIC = 0x52414549; ///< Identifies the file format
+    private static final int HEADERSIZE = 8; ///< Bytes of magic and number of entries
+    private static final MappedPrefixIndex EMPTY = new MappedPrefixIndex(ByteBuffer.allocate(HEADERSIZE + 4).putInt(MAGIC).putInt(0).putInt(0).flip());
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int dataStart;
+
+    private MappedPrefixIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a prefix index file");
+        }
+        this.size = buffer.getInt(4);
+        this.dataStart = HEADERSIZE + (size + 1) * 4;
+    }
+
+    public static MappedPrefixIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Map an index file
+     *
+     * @param path File written by {@link #write(Path, Map)}
+     * @return Index or an empty index if the file doesn't exist
+     * @throws IOException If the file can't be read or isn't an index
+     */
+    public static MappedPrefixIndex load(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return EMPTY;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return new MappedPrefixIndex(buffer);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid prefix index " + path, e);
+            }
+        }
+    }
+
+    /**
+     * Write an index file, replacing the previous one atomically
+     *
+     * @param path    File to write
+     * @param entries Entries by key, keys can't contain the 0 character
+     * @throws IOException If the file can't be written
+     */
+    public static void write(Path path, Map<String, String> entries) throws IOException {
+        List<byte[]> encodedEntries = new ArrayList<>(entries.size());
+        int dataSize = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            byte[] encodedEntry = new byte[key.length + 1 + value.length];
+            System.arraycopy(key, 0, encodedEntry, 0, key.length);
+            System.arraycopy(value, 0, encodedEntry, key.length + 1, value.length);
+            encodedEntries.add(encodedEntry);
+            dataSize += encodedEntry.length;
+        }
+        // Entries are sorted as bytes since they are searched as bytes, the 0 separator sorts shorter keys first
+        encodedEntries.sort(Arrays::compareUnsigned);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADERSIZE + (encodedEntries.size() + 1) * 4 + dataSize);
+        buffer.putInt(MAGIC).putInt(encodedEntries.size());
+        int offset = 0;
+        for (byte[] encodedEntry : encodedEntries) {
+            buffer.putInt(offset);
+            offset += encodedEntry.length;
+        }
+        buffer.putInt(offset);
+        encodedEntries.forEach(buffer::put);
+        buffer.flip();
+
+        Path temporaryPath = Files.createTempFile(path.toAbsolutePath().getParent(), "index", ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the entries whose key starts with a prefix
+     *
+     * @param prefix Prefix of the keys
+     * @param limit  Max entries returned
+     * @return Values of the entries sorted by key
+     */
+    public List<String> findByPrefix(String prefix, int limit) {
+        List<String> values = new ArrayList<>();
+        byte[] encodedPrefix = prefix.getBytes(StandardCharsets.UTF_8);
+        for (int i = lowerBound(encodedPrefix); i < size && values.size() < limit && startsWith(i, encodedPrefix); i++) {
+            values.add(getValue(i));
+        }
+        return values;
+    }
+
+    /**
+     * @return True if the index has an entry with the key
+     */
+    public boolean contains(String key) {
+        byte[] encodedKey = key.getBytes(StandardCharsets.UTF_8);
+        int index = lowerBound(encodedKey);
+        return index < size && compareKey(index, encodedKey) == 0;
+    }
+
+    /**
+     * Iterate all the entries sorted by key
+     */
+    public void forEach(BiConsumer<String, String> consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(getKey(i), getValue(i));
+        }
+    }
+
+    /**
+     * @return Position of the first key not lower than the given one
+     */
+    private int lowerBound(byte[] key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareKey(middle, key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int compareKey(int index, byte[] key) {
+        int start = entryStart(index);
+        int keyLength = keyLength(index);
+        int length = Math.min(keyLength, key.length);
+        for (int i = 0; i < length; i++) {
+            int compare = Integer.compare(buffer.get(start + i) & 0xff, key[i] & 0xff);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return Integer.compare(keyLength, key.length);
+    }
+
+    private boolean startsWith(int index, byte[] prefix) {
+        if (keyLength(index) < prefix.length) {
+            return false;
+        }
+        int start = entryStart(index);
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int entryStart(int index) {
+        return dataStart + buffer.getInt(HEADERSIZE + index * 4);
+    }
+
+    private int entryEnd(int index) {
+        return dataStart + buffer.getInt(HEADERSIZE + (index + 1) * 4);
+    }
+
+    private int keyLength(int index) {
+        int start = entryStart(index);
+        int position = start;
+        while (buffer.get(position) != 0) {
+            position++;
+        }
+        return position - start;
+    }
+
+    private String getKey(int index) {
+        return decode(entryStart(index), keyLength(index));
+    }
+
+    private String getValue(int index) {
+        int valueStart = entryStart(index) + keyLength(index) + 1;
+        return decode(valueStart, entryEnd(index) - valueStart);
+    }
+
+    private String decode(int start, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
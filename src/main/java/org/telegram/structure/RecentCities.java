@@ -0,0 +1,121 @@
+package org.telegram.structure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Last cities whose weather an user requested, most recent first. Instances are immutable, adding a city
+ * returns a new instance so they can be shared between the cache and the pending writes.
+ */
+public final class RecentCities {
+    public static final int MAXCITIES = 5; ///< Cities kept per user
+    private static final RecentCities EMPTY = new RecentCities(new int[0], new String[0], new long[0]);
+
+    private final int[] cityIds;
+    private final String[] cityNames;
+    private final long[] timestamps; ///< Time every city was requested, in millis
+
+    private RecentCities(int[] cityIds, String[] cityNames, long[] timestamps) {
+        this.cityIds = cityIds;
+        this.cityNames = cityNames;
+        this.timestamps = timestamps;
+    }
+
+    public static RecentCities empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Add a city as the most recent one, removing it from its previous position and dropping the oldest
+     * city if there are already {@link #MAXCITIES}
+     *
+     * @param cityId    Id of the city
+     * @param cityName  Name of the city
+     * @param timestamp Time of the request in millis
+     * @return New instance with the city added
+     */
+    public RecentCities add(int cityId, String cityName, long timestamp) {
+        int previousPosition = indexOf(cityId);
+        int size = previousPosition >= 0 ? cityIds.length : Math.min(cityIds.length + 1, MAXCITIES);
+        int[] newCityIds = new int[size];
+        String[] newCityNames = new String[size];
+        long[] newTimestamps = new long[size];
+        newCityIds[0] = cityId;
+        newCityNames[0] = cityName;
+        newTimestamps[0] = timestamp;
+        int position = 1;
+        for (int i = 0; i < cityIds.length && position < size; i++) {
+            if (i != previousPosition) {
+                newCityIds[position] = cityIds[i];
+                newCityNames[position] = cityNames[i];
+                newTimestamps[position] = timestamps[i];
+                position++;
+            }
+        }
+        return new RecentCities(newCityIds, newCityNames, newTimestamps);
+    }
+
+    /**
+     * Append an older city, used when loading the cities already sorted from the most recent one
+     */
+    public RecentCities append(int cityId, String cityName, long timestamp) {
+        if (cityIds.length >= MAXCITIES || indexOf(cityId) >= 0) {
+            return this;
+        }
+        int size = cityIds.length + 1;
+        int[] newCityIds = Arrays.copyOf(cityIds, size);
+        String[] newCityNames = Arrays.copyOf(cityNames, size);
+        long[] newTimestamps = Arrays.copyOf(timestamps, size);
+        newCityIds[size - 1] = cityId;
+        newCityNames[size - 1] = cityName;
+        newTimestamps[size - 1] = timestamp;
+        return new RecentCities(newCityIds, newCityNames, newTimestamps);
+    }
+
+    /**
+     * @return Id of the city with that name or null if it isn't a recent city
+     */
+    public Integer getCityId(String cityName) {
+        for (int i = 0; i < cityNames.length; i++) {
+            if (cityNames[i].equals(cityName)) {
+                return cityIds[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Names of the cities, most recent first
+     */
+    public List<String> getCityNames() {
+        return new ArrayList<>(Arrays.asList(cityNames));
+    }
+
+    public int size() {
+        return cityIds.length;
+    }
+
+    public int getCityId(int position) {
+        return cityIds[position];
+    }
+
+    public String getCityName(int position) {
+        return cityNames[position];
+    }
+
+    public long getTimestamp(int position) {
+        return timestamps[position];
+    }
+
+    private int indexOf(int cityId) {
+        for (int i = 0; i < cityIds.length; i++) {
+            if (cityIds[i] == cityId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
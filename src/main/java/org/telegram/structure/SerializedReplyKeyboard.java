@@ -0,0 +1,56 @@
+package org.telegram.structure;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboard;
+
+import java.io.IOException;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Keyboard serialized once, its json is written as it is every time a message using it is sent.
+ * The wrapped keyboard must not be modified after creating this.
+ */
+@JsonSerialize(using = SerializedReplyKeyboard.Serializer.class)
+public class SerializedReplyKeyboard implements ReplyKeyboard {
+    private static final long serialVersionUID = 1L;
+
+    private final ReplyKeyboard keyboard;
+    private final String json;
+
+    public SerializedReplyKeyboard(ReplyKeyboard keyboard, String json) {
+        this.keyboard = keyboard;
+        this.json = json;
+    }
+
+    public ReplyKeyboard getKeyboard() {
+        return keyboard;
+    }
+
+    public String getJson() {
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return json;
+    }
+
+    public static class Serializer extends JsonSerializer<SerializedReplyKeyboard> {
+        @Override
+        public void serialize(SerializedReplyKeyboard value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeRawValue(value.json);
+        }
+
+        @Override
+        public void serializeWithType(SerializedReplyKeyboard value, JsonGenerator gen, SerializerProvider serializers,
+                                      TypeSerializer typeSer) throws IOException {
+            // Keyboards are deduced by their fields, there is no type id to write
+            serialize(value, gen, serializers);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.telegram.structure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Hierarchical timing wheel of tasks. The first level has a slot per tick, every next level has a slot per
+ * turn of the previous one, so any deadline is held by a few levels of fixed size. Adding and cancelling a
+ * task takes constant time, and advancing the wheel only looks at the slots of the elapsed ticks and at the
+ * tasks moving down a level, whatever the number of tasks.
+ * <p>
+ * Tasks in a slot are kept in a linked list, so a cancelled task is unlinked at once instead of waiting for
+ * its slot to be reached.
+ */
+public class TimingWheel {
+    private final long tickMillis;
+    private final int slotsPerLevel;
+    private final List<Level> levels = new ArrayList<>(); ///< Created when a deadline doesn't fit the previous ones
+    private long currentMillis; ///< Start of the current tick, its tasks expire when it ends
+    private int size;
+
+    /**
+     * Constructor
+     *
+     * @param tickMillis    Duration of a tick, the resolution of the deadlines
+     * @param slotsPerLevel Ticks in a turn of the first level
+     * @param startMillis   Current time
+     */
+    public TimingWheel(long tickMillis, int slotsPerLevel, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.slotsPerLevel = slotsPerLevel;
+        this.currentMillis = startMillis - startMillis % tickMillis;
+        levels.add(new Level(tickMillis, slotsPerLevel));
+    }
+
+    /**
+     * Add a task to the wheel
+     *
+     * @param task           Task to run
+     * @param deadlineMillis Time when the task is due
+     * @return Handle to cancel the task, or null if it is already due and must be run now
+     */
+    public synchronized Timeout add(Runnable task, long deadlineMillis) {
+        Timeout timeout = new Timeout(this, task, deadlineMillis);
+        if (!place(timeout)) {
+            return null;
+        }
+        size++;
+        return timeout;
+    }
+
+    /**
+     * @return Number of tasks waiting in the wheel
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Fire the ticks elapsed until a time
+     *
+     * @param nowMillis Current time
+     * @param onExpired Receives every task due, while holding the lock of the wheel so it must be quick
+     * @return Number of tasks expired
+     */
+    public synchronized int advance(long nowMillis, Consumer<Runnable> onExpired) {
+        int expired = 0;
+        while (currentMillis + tickMillis <= nowMillis) {
+            if (size == 0) {
+                currentMillis = nowMillis - nowMillis % tickMillis;
+                break;
+            }
+            currentMillis += tickMillis;
+            expired += fire(levels.get(0).drain(currentMillis - tickMillis), onExpired);
+            for (int i = levels.size() - 1; i > 0; i--) {
+                Level level = levels.get(i);
+                if (currentMillis % level.tickMillis == 0) {
+                    ///< A slot of this level starts, its tasks move down to the lower levels
+                    expired += fire(level.drain(currentMillis), onExpired);
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Place again the tasks of a drained slot, expiring the ones due
+     *
+     * @return Number of tasks expired
+     */
+    private int fire(Timeout timeout, Consumer<Runnable> onExpired) {
+        int expired = 0;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            timeout.previous = null;
+            timeout.level = null;
+            if (!place(timeout)) {
+                size--;
+                expired++;
+                onExpired.accept(timeout.task);
+            }
+            timeout = next;
+        }
+        return expired;
+    }
+
+    /**
+     * Put a task in the slot of the lowest level whose turn reaches its deadline
+     *
+     * @return False if the task is due, its deadline is before the current tick
+     */
+    private boolean place(Timeout timeout) {
+        if (timeout.deadlineMillis < currentMillis) {
+            return false;
+        }
+        int index = 0;
+        while (true) {
+            Level level = levels.get(index);
+            long levelStart = currentMillis - currentMillis % level.tickMillis;
+            boolean lastLevel = level.tickMillis > Long.MAX_VALUE / slotsPerLevel / slotsPerLevel;
+            if (lastLevel || timeout.deadlineMillis - levelStart < level.tickMillis * slotsPerLevel) {
+                ///< Deadlines beyond the largest level wait in its last slot and are placed again from there
+                level.add(timeout, Math.min(timeout.deadlineMillis, levelStart + level.tickMillis * (slotsPerLevel - 1)));
+                return true;
+            }
+            index++;
+            if (index == levels.size()) {
+                levels.add(new Level(level.tickMillis * slotsPerLevel, slotsPerLevel));
+            }
+        }
+    }
+
+    private synchronized boolean cancel(Timeout timeout) {
+        if (timeout.level == null) {
+            return false;
+        }
+        timeout.level.unlink(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * Level of the wheel, every slot holds the tasks due within one of its ticks
+     */
+    private static final class Level {
+        private final long tickMillis;
+        private final Timeout[] heads;
+
+        private Level(long tickMillis, int slots) {
+            this.tickMillis = tickMillis;
+            this.heads = new Timeout[slots];
+        }
+
+        private int slotOf(long millis) {
+            return (int) ((millis / tickMillis) % heads.length);
+        }
+
+        private void add(Timeout timeout, long slotMillis) {
+            int slot = slotOf(slotMillis);
+            timeout.level = this;
+            timeout.slot = slot;
+            timeout.previous = null;
+            timeout.next = heads[slot];
+            if (heads[slot] != null) {
+                heads[slot].previous = timeout;
+            }
+            heads[slot] = timeout;
+        }
+
+        private void unlink(Timeout timeout) {
+            if (timeout.previous == null) {
+                heads[timeout.slot] = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.next = null;
+            timeout.previous = null;
+            timeout.level = null;
+        }
+
+        /**
+         * Empty the slot starting at a time
+         *
+         * @return First task of the slot, the rest are linked from it
+         */
+        private Timeout drain(long slotStartMillis) {
+            int slot = slotOf(slotStartMillis);
+            Timeout head = heads[slot];
+            heads[slot] = null;
+            return head;
+        }
+    }
+
+    /**
+     * Task waiting in the wheel
+     */
+    public static final class Timeout {
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadlineMillis;
+        private Level level; ///< Level holding the task, null once expired or cancelled
+        private int slot;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadlineMillis) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        /**
+         * Remove the task from the wheel
+         *
+         * @return True if the task was waiting, false if it already expired or was cancelled
+         */
+        public boolean cancel() {
+            return wheel.cancel(this);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.telegram.structure;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Token bucket rate limiter that can also be blocked for a while, i.e. after a "Too Many Requests" answer
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+    private long blockedUntilNanos;
+
+    /**
+     * Constructor
+     *
+     * @param capacity        Max tokens that can be consumed at once
+     * @param tokensPerSecond Tokens added every second
+     */
+    public TokenBucket(int capacity, double tokensPerSecond) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+        this.tokens = this.capacity;
+        this.lastRefillNanos = System.nanoTime();
+        this.blockedUntilNanos = lastRefillNanos;
+    }
+
+    /**
+     * @return Nanoseconds until a token can be consumed, 0 if it can be consumed now
+     */
+    public synchronized long nanosUntilAvailable(long nowNanos) {
+        refill(nowNanos);
+        long blockedNanos = Math.max(0, blockedUntilNanos - nowNanos);
+        if (tokens >= 1) {
+            return blockedNanos;
+        }
+        long refillNanos = (long) Math.ceil((1 - tokens) / tokensPerNano);
+        return Math.max(blockedNanos, refillNanos);
+    }
+
+    /**
+     * Consume a token, callers should check {@link #nanosUntilAvailable(long)} first
+     */
+    public synchronized void consume(long nowNanos) {
+        refill(nowNanos);
+        tokens -= 1;
+    }
+
+    /**
+     * Don't give any token until the delay has passed
+     *
+     * @param delayNanos Time to wait
+     */
+    public synchronized void blockFor(long delayNanos) {
+        blockedUntilNanos = Math.max(blockedUntilNanos, System.nanoTime() + delayNanos);
+        tokens = Math.min(tokens, 0);
+    }
+
+    /**
+     * @return True if the bucket is full and not blocked, so it can be discarded and recreated later
+     */
+    public synchronized boolean isIdle(long nowNanos) {
+        refill(nowNanos);
+        return tokens >= capacity && nowNanos - blockedUntilNanos >= 0;
+    }
+
+    private void refill(long nowNanos) {
+        long elapsedNanos = nowNanos - lastRefillNanos;
+        if (elapsedNanos > 0) {
+            tokens = Math.min(capacity, tokens + elapsedNanos * tokensPerNano);
+            lastRefillNanos = nowNanos;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.telegram.structure;
+
+import java.util.List;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Daily forecast of a city with only the fields used to build the messages
+ *
+ * @param code     Code of the response, 200 if the city was found
+ * @param cityId   Id of the city found
+ * @param cityName Name of the city found
+ * @param country  Country of the city found
+ * @param days     Forecast for every day requested
+ */
+public record WeatherForecast(int code, int cityId, String cityName, String country, List<Day> days) {
+    public boolean isCityFound() {
+        return code == 200;
+    }
+
+    /**
+     * Forecast for a day
+     *
+     * @param epochSecond Time of the forecast
+     * @param tempMax     Max temperature
+     * @param tempMin     Min temperature
+     * @param description Description of the weather
+     * @param icon        Icon of the weather
+     */
+    public record Day(long epochSecond, double tempMax, double tempMin, String description, String icon) {
+    }
+}
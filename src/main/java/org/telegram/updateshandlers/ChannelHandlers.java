@@ -1,6 +1,11 @@
 package org.telegram.updateshandlers;
 
 import lombok.extern.slf4j.Slf4j;
+import org.telegram.BuildVars;
+import org.telegram.services.ConversationSessions;
+import org.telegram.services.HttpClientProvider;
+import org.telegram.services.RateLimitedTelegramClient;
+import org.telegram.structure.LongIntMap;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
 import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -12,7 +17,6 @@ import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
 
 import java.io.InvalidObjectException;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Ruben Bermudez
@@ -31,11 +35,12 @@ public class ChannelHandlers implements LongPollingSingleThreadUpdateConsumer {
     private static final String CHANNEL_MESSAGE_TEXT = "This message was sent by *@updateschannelbot*. Enjoy!";
     private static final String ERROR_MESSAGE_TEXT = "There was an error sending the message to channel *%s*, the error was: ```%s```";
 
-    private final ConcurrentHashMap<Long, Integer> userState = new ConcurrentHashMap<>();
+    private final LongIntMap userState = new LongIntMap(BuildVars.channelSessionTtlMillis);
     private final TelegramClient telegramClient;
 
     public ChannelHandlers(String botToken) {
-        telegramClient = new OkHttpTelegramClient(botToken);
+        telegramClient = new RateLimitedTelegramClient(botToken, new OkHttpTelegramClient(HttpClientProvider.getInstance().getTelegramClient(), botToken));
+        ConversationSessions.getInstance().expirePeriodically("channel", userState::purgeExpired);
     }
 
     @Override
@@ -57,7 +62,7 @@ public class ChannelHandlers implements LongPollingSingleThreadUpdateConsumer {
     // region Incoming messages handlers
 
     private void handleIncomingMessage(Message message) throws InvalidObjectException {
-        int state = userState.getOrDefault(message.getFrom().getId(), 0);
+        int state = userState.get(message.getFrom().getId(), 0);
         switch(state) {
             case WAITINGCHANNEL:
                 onWaitingChannelMessage(message);
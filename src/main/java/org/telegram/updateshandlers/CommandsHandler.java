@@ -7,6 +7,8 @@ import org.telegram.commands.StartCommand;
 import org.telegram.commands.StopCommand;
 import org.telegram.database.DatabaseManager;
 import org.telegram.services.Emoji;
+import org.telegram.services.HttpClientProvider;
+import org.telegram.services.RateLimitedTelegramClient;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
 import org.telegram.telegrambots.extensions.bots.commandbot.CommandLongPollingTelegramBot;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -25,7 +27,7 @@ public class CommandsHandler extends CommandLongPollingTelegramBot {
      * Constructor.
      */
     public CommandsHandler(String botToken, String botUsername) {
-        super(new OkHttpTelegramClient(botToken), true, () -> botUsername);
+        super(new RateLimitedTelegramClient(botToken, new OkHttpTelegramClient(HttpClientProvider.getInstance().getTelegramClient(), botToken)), true, () -> botUsername);
         register(new HelloCommand());
         register(new StartCommand());
         register(new StopCommand());
@@ -0,0 +1,57 @@
+package org.telegram.updateshandlers;
+
+import org.telegram.services.ChatOrderedExecutor;
+import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.List;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Consumer that processes updates of different chats in parallel while the updates of a chat are processed
+ * one after another, in the order they were received. Handlers only need to implement {@link #consume(Update)}.
+ */
+public interface ConcurrentUpdateConsumer extends LongPollingSingleThreadUpdateConsumer {
+    @Override
+    default void consume(List<Update> updates) {
+        for (Update update : updates) {
+            Long chatId = getChatId(update);
+            ChatOrderedExecutor.getInstance().execute(chatId == null ? null : new ChatKey(this, chatId), () -> consume(update));
+        }
+    }
+
+    /**
+     * Chat an update belongs to, updates without chat use the user that sent them
+     *
+     * @param update Update received
+     * @return Id of the chat or user, null if the update doesn't need to be ordered
+     */
+    default Long getChatId(Update update) {
+        if (update.hasMessage()) {
+            return update.getMessage().getChatId();
+        } else if (update.hasEditedMessage()) {
+            return update.getEditedMessage().getChatId();
+        } else if (update.hasChannelPost()) {
+            return update.getChannelPost().getChatId();
+        } else if (update.hasEditedChannelPost()) {
+            return update.getEditedChannelPost().getChatId();
+        } else if (update.hasCallbackQuery()) {
+            if (update.getCallbackQuery().getMessage() != null) {
+                return update.getCallbackQuery().getMessage().getChatId();
+            }
+            return update.getCallbackQuery().getFrom().getId();
+        } else if (update.hasInlineQuery()) {
+            return update.getInlineQuery().getFrom().getId();
+        } else if (update.hasChosenInlineQuery()) {
+            return update.getChosenInlineQuery().getFrom().getId();
+        }
+        return null;
+    }
+
+    /**
+     * Chat of a consumer, so that the same chat in different bots is processed in parallel
+     */
+    record ChatKey(ConcurrentUpdateConsumer consumer, long chatId) {
+    }
+}
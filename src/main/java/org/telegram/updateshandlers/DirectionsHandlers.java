@@ -1,12 +1,16 @@
 package org.telegram.updateshandlers;
 
 import lombok.extern.slf4j.Slf4j;
+import org.telegram.BuildVars;
 import org.telegram.Commands;
 import org.telegram.database.DatabaseManager;
 import org.telegram.services.DirectionsService;
+import org.telegram.services.ConversationSessions;
+import org.telegram.services.HttpClientProvider;
 import org.telegram.services.LocalisationService;
+import org.telegram.services.RateLimitedTelegramClient;
+import org.telegram.structure.LongSet;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
-import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.message.Message;
@@ -20,7 +24,6 @@ import org.telegram.telegrambots.meta.generics.TelegramClient;
 import java.io.InvalidObjectException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * @author Ruben Bermudez
@@ -28,14 +31,15 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * Handler for updates to Directions Bot
  */
 @Slf4j
-public class DirectionsHandlers implements LongPollingSingleThreadUpdateConsumer {
+public class DirectionsHandlers implements ConcurrentUpdateConsumer {
     private static final int WATING_ORIGIN_STATUS = 0;
     private static final int WATING_DESTINY_STATUS = 1;
-    private final ConcurrentLinkedQueue<Long> languageMessages = new ConcurrentLinkedQueue<>();
+    private final LongSet languageMessages = new LongSet(BuildVars.languageSessionTtlMillis);
     private final TelegramClient telegramClient;
 
     public DirectionsHandlers(String botToken) {
-        telegramClient = new OkHttpTelegramClient(botToken);
+        telegramClient = new RateLimitedTelegramClient(botToken, new OkHttpTelegramClient(HttpClientProvider.getInstance().getTelegramClient(), botToken));
+        ConversationSessions.getInstance().expirePeriodically("directions-language", languageMessages::purgeExpired);
     }
 
     @Override
@@ -133,8 +137,7 @@ public class DirectionsHandlers implements LongPollingSingleThreadUpdateConsumer
     }
 
     private void sendHelpMessage(Message message, String language) throws InvalidObjectException {
-        String helpDirectionsFormated = String.format(
-                LocalisationService.getString("helpDirections", language),
+        String helpDirectionsFormated = LocalisationService.format("helpDirections", language,
                 Commands.startDirectionCommand);
         SendMessage sendMessageRequest = new SendMessage(String.valueOf(message.getChatId()), helpDirectionsFormated);
         try {
@@ -2,6 +2,8 @@ package org.telegram.updateshandlers;
 
 
 import lombok.extern.slf4j.Slf4j;
+import org.telegram.services.HttpClientProvider;
+import org.telegram.services.RateLimitedTelegramClient;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
 import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
 import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
@@ -37,7 +39,7 @@ public class ElektrollArtFanHandler implements LongPollingSingleThreadUpdateCons
 	private final TelegramClient telegramClient;
 
 	public ElektrollArtFanHandler(String botToken) {
-		telegramClient = new OkHttpTelegramClient(botToken);
+		telegramClient = new RateLimitedTelegramClient(botToken, new OkHttpTelegramClient(HttpClientProvider.getInstance().getTelegramClient(), botToken));
 		this.urls = new ArrayList<>();
 		this.addUrls();
 	}
@@ -1,12 +1,16 @@
 package org.telegram.updateshandlers;
 
 import lombok.extern.slf4j.Slf4j;
+import org.telegram.BuildVars;
 import org.telegram.Commands;
 import org.telegram.database.DatabaseManager;
 import org.telegram.services.Emoji;
+import org.telegram.services.ConversationSessions;
+import org.telegram.services.HttpClientProvider;
 import org.telegram.services.LocalisationService;
+import org.telegram.services.RateLimitedTelegramClient;
+import org.telegram.structure.LongSet;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
-import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
 import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.InputFile;
@@ -24,7 +28,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * @author Ruben Bermudez
@@ -33,14 +36,15 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * This bot is an example for the use of sendMessage asynchronously
  */
 @Slf4j
-public class FilesHandlers implements LongPollingSingleThreadUpdateConsumer {
+public class FilesHandlers implements ConcurrentUpdateConsumer {
     private static final int INITIAL_UPLOAD_STATUS = 0;
     private static final int DELETE_UPLOADED_STATUS = 1;
-    private final ConcurrentLinkedQueue<Long> languageMessages = new ConcurrentLinkedQueue<>();
+    private final LongSet languageMessages = new LongSet(BuildVars.languageSessionTtlMillis);
     private final TelegramClient telegramClient;
 
     public FilesHandlers(String botToken) {
-        telegramClient = new OkHttpTelegramClient(botToken);
+        telegramClient = new RateLimitedTelegramClient(botToken, new OkHttpTelegramClient(HttpClientProvider.getInstance().getTelegramClient(), botToken));
+        ConversationSessions.getInstance().expirePeriodically("files-language", languageMessages::purgeExpired);
     }
 
     @Override
@@ -183,8 +187,7 @@ public class FilesHandlers implements LongPollingSingleThreadUpdateConsumer {
 
     private void sendHelpMessage(Message message, String language) throws TelegramApiException {
 
-        String formatedString = String.format(
-                LocalisationService.getString("helpFiles", language),
+        String formatedString = LocalisationService.format("helpFiles", language,
                 Commands.startCommand, Commands.uploadCommand, Commands.deleteCommand,
                 Commands.listCommand);
         SendMessage sendMessageRequest = new SendMessage(String.valueOf(message.getChatId()), formatedString);
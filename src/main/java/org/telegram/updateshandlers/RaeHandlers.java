@@ -1,9 +1,12 @@
 package org.telegram.updateshandlers;
 
 import lombok.extern.slf4j.Slf4j;
+import org.telegram.services.HttpClientProvider;
 import org.telegram.services.RaeService;
+import org.telegram.services.RateLimitedTelegramClient;
+import org.telegram.services.TimerExecutor;
+import org.telegram.structure.TimingWheel;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
-import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
 import org.telegram.telegrambots.meta.api.methods.AnswerInlineQuery;
 import org.telegram.telegrambots.meta.api.methods.ParseMode;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -18,6 +21,10 @@ import org.telegram.telegrambots.meta.generics.TelegramClient;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Ruben Bermudez
@@ -25,7 +32,7 @@ import java.util.List;
  * Handler for inline queries in Raebot
  */
 @Slf4j
-public class RaeHandlers implements LongPollingSingleThreadUpdateConsumer {
+public class RaeHandlers implements ConcurrentUpdateConsumer {
     private static final Integer CACHETIME = 86400;
     private final RaeService raeService = new RaeService();
     private static final String THUMBNAILBLUE = "https://lh5.ggpht.com/-kSFHGvQkFivERzyCNgKPIECtIOELfPNWAQdXqQ7uqv2xztxqll4bVibI0oHJYAuAas=w300";
@@ -36,17 +43,24 @@ public class RaeHandlers implements LongPollingSingleThreadUpdateConsumer {
             "\n\n" +
             "Por ejemplo, intenta escribir `@raebot Punto` aquí.";
 
+    private static final long DEBOUNCEMILLIS = 300; ///< Time to wait for a newer query of the same user before searching
+    private static final long SUGGESTIONSDELAYMILLIS = 1500; ///< Time to wait for the definitions before answering with suggestions
+    private static final int MAXSUGGESTIONS = 20; ///< Max words suggested
+    private static final Integer SUGGESTIONSCACHETIME = 0; ///< Suggestions aren't cached so the definitions are shown on next query
+
     private final TelegramClient telegramClient;
+    private final ConcurrentHashMap<Long, Integer> latestInlineQueries = new ConcurrentHashMap<>(); ///< Latest update with inline query per user
+    private final ConcurrentHashMap<Long, TimingWheel.Timeout> pendingSearches = new ConcurrentHashMap<>(); ///< Debounced search waiting per user
 
     public RaeHandlers(String botToken) {
-        telegramClient = new OkHttpTelegramClient(botToken);
+        telegramClient = new RateLimitedTelegramClient(botToken, new OkHttpTelegramClient(HttpClientProvider.getInstance().getTelegramClient(), botToken));
     }
 
     @Override
     public void consume(Update update) {
         try {
             if (update.hasInlineQuery()) {
-                handleIncomingInlineQuery(update.getInlineQuery());
+                handleIncomingInlineQuery(update.getUpdateId(), update.getInlineQuery());
             } else if (update.hasMessage() && update.getMessage().isUserMessage()) {
                 try {
                     telegramClient.execute(getHelpMessage(update.getMessage()));
@@ -60,30 +74,102 @@ public class RaeHandlers implements LongPollingSingleThreadUpdateConsumer {
     }
 
     /**
-     * For an InlineQuery, results from RAE dictionariy are fetch and returned
+     * Inline queries are not ordered by user, so that a newer query can supersede the ones still running
+     */
+    @Override
+    public Long getChatId(Update update) {
+        if (update.hasInlineQuery()) {
+            return null;
+        }
+        return ConcurrentUpdateConsumer.super.getChatId(update);
+    }
+
+    /**
+     * For an InlineQuery, results from RAE dictionariy are fetch and returned.
+     * The search waits in the timer for a newer query of the same user, which cancels it, and the
+     * answer is sent once the results are fetched, so no thread is parked while users type.
+     * @param updateId Id of the update with the query
+     * @param inlineQuery InlineQuery recieved
+     */
+    private void handleIncomingInlineQuery(Integer updateId, InlineQuery inlineQuery) {
+        String query = inlineQuery.getQuery();
+        Long userId = inlineQuery.getFrom().getId();
+        if (query.isEmpty()) {
+            answerInlineQuery(converteResultsToResponse(inlineQuery, new ArrayList<>()));
+            return;
+        }
+        latestInlineQueries.merge(userId, updateId, Math::max);
+        AtomicReference<TimingWheel.Timeout> debouncedSearch = new AtomicReference<>();
+        debouncedSearch.set(TimerExecutor.getInstance().schedule(() -> {
+            TimingWheel.Timeout timeout = debouncedSearch.get();
+            if (timeout != null) {
+                pendingSearches.remove(userId, timeout);
+            }
+            search(updateId, inlineQuery);
+        }, DEBOUNCEMILLIS));
+        TimingWheel.Timeout previousSearch = debouncedSearch.get() == null ? null : pendingSearches.put(userId, debouncedSearch.get());
+        if (previousSearch != null && previousSearch.cancel()) {
+            log.debug("Dropping superseded query");
+        }
+    }
+
+    /**
+     * Search the query once debounced, answering with suggestions if the definitions take too long
+     * @param updateId Id of the update with the query
      * @param inlineQuery InlineQuery recieved
      */
-    private void handleIncomingInlineQuery(InlineQuery inlineQuery) {
+    private void search(Integer updateId, InlineQuery inlineQuery) {
         String query = inlineQuery.getQuery();
+        Long userId = inlineQuery.getFrom().getId();
+        if (isSuperseded(userId, updateId)) {
+            log.debug("Dropping superseded query: {}", query);
+            latestInlineQueries.remove(userId, updateId);
+            return;
+        }
         log.debug("Searching: {}", query);
-        try {
-            if (!query.isEmpty()) {
-                List<RaeService.RaeResult> results = raeService.getResults(query);
-                telegramClient.execute(converteResultsToResponse(inlineQuery, results));
-            } else {
-                telegramClient.execute(converteResultsToResponse(inlineQuery, new ArrayList<>()));
+        AtomicBoolean answered = new AtomicBoolean();
+        CompletableFuture<List<RaeService.RaeResult>> futureResults = raeService.getResultsAsync(query, () -> isSuperseded(userId, updateId));
+        TimingWheel.Timeout suggestionsTimeout = TimerExecutor.getInstance().schedule(() -> {
+            List<String> suggestions = raeService.getSuggestions(query, MAXSUGGESTIONS);
+            if (!suggestions.isEmpty() && !isSuperseded(userId, updateId) && answered.compareAndSet(false, true)) {
+                answerInlineQuery(convertSuggestionsToResponse(inlineQuery, suggestions));
             }
+        }, SUGGESTIONSDELAYMILLIS);
+        futureResults.whenComplete((results, throwable) -> {
+            if (suggestionsTimeout != null) {
+                suggestionsTimeout.cancel();
+            }
+            try {
+                if (throwable != null) {
+                    log.error("Error searching inline query", throwable);
+                } else if (isSuperseded(userId, updateId)) {
+                    log.debug("Dropping superseded query: {}", query);
+                } else if (answered.compareAndSet(false, true)) {
+                    answerInlineQuery(converteResultsToResponse(inlineQuery, results));
+                }
+            } finally {
+                latestInlineQueries.remove(userId, updateId);
+            }
+        });
+    }
+
+    private void answerInlineQuery(AnswerInlineQuery answerInlineQuery) {
+        try {
+            telegramClient.executeAsync(answerInlineQuery).whenComplete((answered, throwable) -> {
+                if (throwable != null) {
+                    log.error("Error handing inline query", throwable);
+                }
+            });
         } catch (TelegramApiException e) {
             log.error("Error handing inline query", e);
         }
     }
 
-    /**
-     * Converts resutls from RaeService to an answer to an inline query
-     * @param inlineQuery Original inline query
-     * @param results Results from RAE service
-     * @return AnswerInlineQuery method to answer the query
-     */
+    private boolean isSuperseded(Long userId, Integer updateId) {
+        Integer latestUpdateId = latestInlineQueries.get(userId);
+        return latestUpdateId != null && latestUpdateId > updateId;
+    }
+
     private static AnswerInlineQuery converteResultsToResponse(InlineQuery inlineQuery, List<RaeService.RaeResult> results) {
         return AnswerInlineQuery
                 .builder()
@@ -121,6 +207,36 @@ public class RaeHandlers implements LongPollingSingleThreadUpdateConsumer {
         return results;
     }
 
+    /**
+     * Answer an inline query with words whose definitions can be found, while they are being fetched
+     * @param inlineQuery Inline query received
+     * @param suggestions Words starting with the query
+     * @return AnswerInlineQuery method
+     */
+    private static AnswerInlineQuery convertSuggestionsToResponse(InlineQuery inlineQuery, List<String> suggestions) {
+        List<InlineQueryResult> results = new ArrayList<>();
+        for (int i = 0; i < suggestions.size(); i++) {
+            InlineQueryResultArticle article = new InlineQueryResultArticle(
+                    "s" + i,
+                    suggestions.get(i),
+                    InputTextMessageContent
+                            .builder()
+                            .messageText(suggestions.get(i))
+                            .build()
+            );
+            article.setDescription("Escribe la palabra completa para ver sus definiciones");
+            article.setThumbnailUrl(THUMBNAILBLUE);
+            results.add(article);
+        }
+
+        return AnswerInlineQuery
+                .builder()
+                .inlineQueryId(inlineQuery.getId())
+                .cacheTime(SUGGESTIONSCACHETIME)
+                .results(results)
+                .build();
+    }
+
     /**
      * Create a help message when an user try to send messages directly to the bot
      * @param message Received message
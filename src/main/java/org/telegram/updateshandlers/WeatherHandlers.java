@@ -1,16 +1,22 @@
 package org.telegram.updateshandlers;
 
 import lombok.extern.slf4j.Slf4j;
+import org.telegram.BuildVars;
 import org.telegram.Commands;
 import org.telegram.database.DatabaseManager;
 import org.telegram.services.CustomTimerTask;
 import org.telegram.services.Emoji;
+import org.telegram.services.HttpClientProvider;
+import org.telegram.services.KeyboardRegistry;
 import org.telegram.services.LocalisationService;
+import org.telegram.services.MessageTemplate;
+import org.telegram.services.OutboundDispatcher;
+import org.telegram.services.RateLimitedTelegramClient;
 import org.telegram.services.TimerExecutor;
 import org.telegram.services.WeatherService;
+import org.telegram.structure.CityWeatherAlert;
 import org.telegram.structure.WeatherAlert;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
-import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
 import org.telegram.telegrambots.meta.api.methods.ParseMode;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
@@ -22,10 +28,15 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardRem
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
-import org.telegram.telegrambots.meta.generics.TelegramClient;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Ruben Bermudez
@@ -33,7 +44,7 @@ import java.util.List;
  * Handler for updates to Weather Bot
  */
 @Slf4j
-public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
+public class WeatherHandlers implements ConcurrentUpdateConsumer {
     private static final int STARTSTATE = 0;
     private static final int MAINMENU = 1;
     private static final int CURRENTWEATHER = 2;
@@ -48,12 +59,25 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
     private static final int SETTINGS = 11;
     private static final int LANGUAGE = 12;
     private static final int UNITS = 13;
-
-    private final TelegramClient telegramClient;
+    private static final KeyboardRegistry<Keyboard> keyboards = new KeyboardRegistry<>(Map.of(
+            Keyboard.MAINMENU, WeatherHandlers::buildMainMenuKeyboard,
+            Keyboard.LANGUAGES, WeatherHandlers::buildLanguagesKeyboard,
+            Keyboard.UNITS, WeatherHandlers::buildUnitsKeyboard,
+            Keyboard.SETTINGS, WeatherHandlers::buildSettingsKeyboard,
+            Keyboard.ALERTS, WeatherHandlers::buildAlertsKeyboard)); ///< Static keyboards serialized once per language
+    private static final ExecutorService alertsExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "weather-alerts");
+        thread.setDaemon(true);
+        return thread;
+    }); ///< Sends the alerts of a city once fetched, out of the http threads as it reads and writes the db
+
+    private final RateLimitedTelegramClient telegramClient;
+    private final RateLimitedTelegramClient alertsTelegramClient; ///< Client sending the alerts behind the answers to users
 
     public WeatherHandlers(String botToken) {
+        telegramClient = new RateLimitedTelegramClient(botToken, new OkHttpTelegramClient(HttpClientProvider.getInstance().getTelegramClient(), botToken));
+        alertsTelegramClient = telegramClient.withPriority(OutboundDispatcher.Priority.BULK);
         startAlertTimers();
-        telegramClient = new OkHttpTelegramClient(botToken);
     }
 
     @Override
@@ -88,30 +112,73 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
 
     private void sendAlerts() {
         List<WeatherAlert> allAlerts = DatabaseManager.getInstance().getAllAlerts();
+        DatabaseManager.getInstance().preloadUserWeatherOptions(allAlerts.stream().map(WeatherAlert::getUserId).toList());
+
+        Map<AlertGroupKey, List<WeatherAlert>> alertGroups = new LinkedHashMap<>();
         for (WeatherAlert weatherAlert : allAlerts) {
-            synchronized (Thread.currentThread()) {
-                try {
-                    Thread.currentThread().wait(35);
-                } catch (InterruptedException e) {
-                    log.error("Error sleeping for alerts", e);
-                }
-            }
             String[] userOptions = DatabaseManager.getInstance().getUserWeatherOptions(weatherAlert.getUserId());
-            String weather = WeatherService.getInstance().fetchWeatherAlert(weatherAlert.getCityId(),
-                    weatherAlert.getUserId(), userOptions[0], userOptions[1]);
-            SendMessage sendMessage = new SendMessage(String.valueOf(weatherAlert.getUserId()), weather);
-            sendMessage.enableMarkdown(true);
-            try {
-                telegramClient.execute(sendMessage);
-            } catch (TelegramApiRequestException e) {
+            alertGroups.computeIfAbsent(new AlertGroupKey(weatherAlert.getCityId(), userOptions[0], userOptions[1]),
+                    key -> new ArrayList<>()).add(weatherAlert);
+        }
+        log.info("Sending {} alerts for {} cities", allAlerts.size(), alertGroups.size());
+
+        Queue<AlertGroup> pendingGroups = new ConcurrentLinkedQueue<>();
+        alertGroups.forEach((key, weatherAlerts) -> pendingGroups.add(new AlertGroup(key, weatherAlerts, 1)));
+        for (int i = 0; i < BuildVars.weatherAlertsMaxInFlight; i++) {
+            fetchNextAlertGroup(pendingGroups);
+        }
+    }
+
+    /**
+     * Fetch the forecast of the next pending group and send it, then go on with the following group. Only
+     * the groups started at once are fetched at the same time, so the rest don't time out waiting for the
+     * http dispatcher. Groups whose forecast couldn't be fetched are queued again instead of sending the error.
+     */
+    private void fetchNextAlertGroup(Queue<AlertGroup> pendingGroups) {
+        final AlertGroup alertGroup = pendingGroups.poll();
+        if (alertGroup == null) {
+            return;
+        }
+        final AlertGroupKey key = alertGroup.key();
+        WeatherService.getInstance().fetchCityWeatherAlertAsync(key.cityId(), key.language(), key.units())
+                .whenCompleteAsync((cityWeatherAlert, throwable) -> {
+                    try {
+                        if (throwable == null && cityWeatherAlert.isCityFound()) {
+                            sendAlerts(alertGroup.weatherAlerts(), cityWeatherAlert);
+                        } else if (alertGroup.attempts() < BuildVars.weatherAlertsMaxAttempts) {
+                            pendingGroups.add(new AlertGroup(key, alertGroup.weatherAlerts(), alertGroup.attempts() + 1));
+                        } else {
+                            log.warn("Skipping {} alerts for city {}, its forecast couldn't be fetched",
+                                    alertGroup.weatherAlerts().size(), key.cityId(), throwable);
+                        }
+                    } catch (Exception e) {
+                        log.error("Error sending alerts for city {}", key.cityId(), e);
+                    }
+                    fetchNextAlertGroup(pendingGroups);
+                }, alertsExecutor);
+    }
+
+    private void sendAlerts(List<WeatherAlert> weatherAlerts, CityWeatherAlert cityWeatherAlert) {
+        DatabaseManager.getInstance().addRecentWeather(weatherAlerts.stream().map(WeatherAlert::getUserId).toList(),
+                cityWeatherAlert.getCityId(), cityWeatherAlert.getCityName());
+        for (WeatherAlert weatherAlert : weatherAlerts) {
+            sendAlert(weatherAlert, cityWeatherAlert.getMessage());
+        }
+    }
+
+    private void sendAlert(WeatherAlert weatherAlert, String weather) {
+        SendMessage sendMessage = new SendMessage(String.valueOf(weatherAlert.getUserId()), weather);
+        sendMessage.enableMarkdown(true);
+        alertsTelegramClient.executeAsync(sendMessage).whenComplete((sentMessage, throwable) -> {
+            if (throwable instanceof TelegramApiRequestException e) {
                 log.warn("Error sending alerts", e);
                 if (e.getApiResponse().contains("Can't access the chat") || e.getApiResponse().contains("Bot was blocked by the user")) {
                     DatabaseManager.getInstance().deleteAlertsForUser(weatherAlert.getUserId());
                 }
-            } catch (Exception e) {
-                log.error("Unknown error sending alerts", e);
+            } else if (throwable != null) {
+                log.error("Unknown error sending alerts", throwable);
             }
-        }
+        });
     }
 
     private static SendMessage onCancelCommand(Long chatId, Long userId, Integer messageId, ReplyKeyboard replyKeyboard, String language) {
@@ -305,7 +372,7 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
         SendMessage sendMessage = new SendMessage(String.valueOf(message.getChatId()), getSettingsMessage(language));
         sendMessage.enableMarkdown(true);
 
-        ReplyKeyboardMarkup replyKeyboardMarkup = getSettingsKeyboard(language);
+        ReplyKeyboard replyKeyboardMarkup = getSettingsKeyboard(language);
         sendMessage.setReplyMarkup(replyKeyboardMarkup);
         sendMessage.setReplyToMessageId(message.getMessageId());
 
@@ -431,7 +498,7 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
         SendMessage sendMessage = new SendMessage(String.valueOf(message.getChatId()), getSettingsMessage(language));
         sendMessage.enableMarkdown(true);
 
-        ReplyKeyboardMarkup replyKeyboardMarkup = getSettingsKeyboard(language);
+        ReplyKeyboard replyKeyboardMarkup = getSettingsKeyboard(language);
         sendMessage.setReplyMarkup(replyKeyboardMarkup);
         sendMessage.setReplyToMessageId(message.getMessageId());
 
@@ -483,7 +550,7 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
         SendMessage sendMessage = new SendMessage(String.valueOf(message.getChatId()), getSettingsMessage(language));
         sendMessage.enableMarkdown(true);
 
-        ReplyKeyboardMarkup replyKeyboardMarkup = getSettingsKeyboard(language);
+        ReplyKeyboard replyKeyboardMarkup = getSettingsKeyboard(language);
         sendMessage.setReplyMarkup(replyKeyboardMarkup);
         sendMessage.setReplyToMessageId(message.getMessageId());
 
@@ -734,7 +801,7 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
         SendMessage sendMessage = new SendMessage(String.valueOf(message.getChatId()), getSettingsMessage(language));
         sendMessage.enableMarkdown(true);
 
-        ReplyKeyboardMarkup replyKeyboardMarkup = getSettingsKeyboard(language);
+        ReplyKeyboard replyKeyboardMarkup = getSettingsKeyboard(language);
         sendMessage.setReplyMarkup(replyKeyboardMarkup);
         sendMessage.setReplyToMessageId(message.getMessageId());
 
@@ -783,32 +850,27 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
     // region Get Messages
 
     private static String getSettingsMessage(String language) {
-        String baseString = LocalisationService.getString("onSettingsCommand", language);
-        return String.format(baseString, Emoji.GLOBE_WITH_MERIDIANS.toString(),
+        return LocalisationService.format("onSettingsCommand", language, Emoji.GLOBE_WITH_MERIDIANS.toString(),
                 Emoji.STRAIGHT_RULER.toString(), Emoji.ALARM_CLOCK.toString(),
                 Emoji.BACK_WITH_LEFTWARDS_ARROW_ABOVE.toString());
     }
 
     private static String getHelpMessage(String language) {
-        String baseString = LocalisationService.getString("helpWeatherMessage", language);
-        return String.format(baseString, Emoji.BLACK_RIGHT_POINTING_TRIANGLE.toString(),
+        return LocalisationService.format("helpWeatherMessage", language, Emoji.BLACK_RIGHT_POINTING_TRIANGLE.toString(),
                 Emoji.BLACK_RIGHT_POINTING_DOUBLE_TRIANGLE.toString(), Emoji.ALARM_CLOCK.toString(),
                 Emoji.EARTH_GLOBE_EUROPE_AFRICA.toString(), Emoji.STRAIGHT_RULER.toString());
     }
 
     private static String getLanguageMessage(String language) {
-        String baseString = LocalisationService.getString("selectLanguage", language);
-        return String.format(baseString, language);
+        return LocalisationService.format("selectLanguage", language, language);
     }
 
     private static String getUnitsMessage(Long userId, String language) {
-        String baseString = LocalisationService.getString("selectUnits", language);
-        return String.format(baseString, DatabaseManager.getInstance().getUserWeatherOptions(userId)[1]);
+        return LocalisationService.format("selectUnits", language, DatabaseManager.getInstance().getUserWeatherOptions(userId)[1]);
     }
 
     private static String getChooseNewAlertSetMessage(String city, String language) {
-        String baseString = LocalisationService.getString("newAlertSaved", language);
-        return String.format(baseString, Emoji.THUMBS_UP_SIGN.toString(), city);
+        return LocalisationService.format("newAlertSaved", language, Emoji.THUMBS_UP_SIGN.toString(), city);
     }
 
     private static String getAlertListMessage(long userId, String language) {
@@ -816,13 +878,12 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
 
         List<String> alertCities = DatabaseManager.getInstance().getAlertCitiesNameByUser(userId);
         if (!alertCities.isEmpty()) {
-            String baseAlertListString = LocalisationService.getString("initialAlertList", language);
-            String partialAlertListString = LocalisationService.getString("partialAlertList", language);
+            MessageTemplate partialAlertListTemplate = LocalisationService.getTemplate("partialAlertList", language);
             StringBuilder fullListOfAlerts = new StringBuilder();
             for (String alertCity : alertCities) {
-                fullListOfAlerts.append(String.format(partialAlertListString, Emoji.ALARM_CLOCK, alertCity));
+                partialAlertListTemplate.renderTo(fullListOfAlerts, Emoji.ALARM_CLOCK, alertCity);
             }
-            alertListMessage = String.format(baseAlertListString, alertCities.size(), fullListOfAlerts);
+            alertListMessage = LocalisationService.format("initialAlertList", language, alertCities.size(), fullListOfAlerts);
         } else {
             alertListMessage = LocalisationService.getString("noAlertList", language);
         }
@@ -835,7 +896,27 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
 
     // region ReplyKeyboards
 
-    private static ReplyKeyboardMarkup getMainMenuKeyboard(String language) {
+    private static ReplyKeyboard getMainMenuKeyboard(String language) {
+        return keyboards.get(Keyboard.MAINMENU, language);
+    }
+
+    private static ReplyKeyboard getLanguagesKeyboard(String language) {
+        return keyboards.get(Keyboard.LANGUAGES, language);
+    }
+
+    private static ReplyKeyboard getUnitsKeyboard(String language) {
+        return keyboards.get(Keyboard.UNITS, language);
+    }
+
+    private static ReplyKeyboard getSettingsKeyboard(String language) {
+        return keyboards.get(Keyboard.SETTINGS, language);
+    }
+
+    private static ReplyKeyboard getAlertsKeyboard(String language) {
+        return keyboards.get(Keyboard.ALERTS, language);
+    }
+
+    private static ReplyKeyboardMarkup buildMainMenuKeyboard(String language) {
         ReplyKeyboardMarkup.ReplyKeyboardMarkupBuilder<?, ?> replyKeyboardMarkupBuilder = ReplyKeyboardMarkup.builder();
         replyKeyboardMarkupBuilder.selective(true);
         replyKeyboardMarkupBuilder.resizeKeyboard(true);
@@ -855,7 +936,7 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
         return replyKeyboardMarkupBuilder.build();
     }
 
-    private static ReplyKeyboardMarkup getLanguagesKeyboard(String language) {
+    private static ReplyKeyboardMarkup buildLanguagesKeyboard(String language) {
         ReplyKeyboardMarkup.ReplyKeyboardMarkupBuilder<?, ?> replyKeyboardMarkupBuilder = ReplyKeyboardMarkup.builder();
         replyKeyboardMarkupBuilder.selective(true);
         replyKeyboardMarkupBuilder.resizeKeyboard(true);
@@ -877,7 +958,7 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
         return replyKeyboardMarkupBuilder.build();
     }
 
-    private static ReplyKeyboardMarkup getUnitsKeyboard(String language) {
+    private static ReplyKeyboardMarkup buildUnitsKeyboard(String language) {
         ReplyKeyboardMarkup.ReplyKeyboardMarkupBuilder<?, ?> replyKeyboardMarkupBuilder = ReplyKeyboardMarkup.builder();
         replyKeyboardMarkupBuilder.selective(true);
         replyKeyboardMarkupBuilder.resizeKeyboard(true);
@@ -898,7 +979,7 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
         return replyKeyboardMarkupBuilder.build();
     }
 
-    private static ReplyKeyboardMarkup getSettingsKeyboard(String language) {
+    private static ReplyKeyboardMarkup buildSettingsKeyboard(String language) {
         ReplyKeyboardMarkup.ReplyKeyboardMarkupBuilder<?, ?> replyKeyboardMarkupBuilder = ReplyKeyboardMarkup.builder();
         replyKeyboardMarkupBuilder.selective(true);
         replyKeyboardMarkupBuilder.resizeKeyboard(true);
@@ -954,7 +1035,7 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
         return replyKeyboardMarkupBuilder.build();
     }
 
-    private static ReplyKeyboardMarkup getAlertsKeyboard(String language) {
+    private static ReplyKeyboardMarkup buildAlertsKeyboard(String language) {
         ReplyKeyboardMarkup.ReplyKeyboardMarkupBuilder<?, ?> replyKeyboardMarkupBuilder = ReplyKeyboardMarkup.builder();
         replyKeyboardMarkupBuilder.selective(true);
         replyKeyboardMarkupBuilder.resizeKeyboard(true);
@@ -1013,67 +1094,67 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
     // region getCommnads
 
     private static String getRateCommand(String language) {
-        return String.format(LocalisationService.getString("rateMe", language),
+        return LocalisationService.format("rateMe", language,
                 Emoji.HUNDRED_POINTS_SYMBOL.toString());
     }
 
     private static String getListCommand(String language) {
-        return String.format(LocalisationService.getString("showList", language),
+        return LocalisationService.format("showList", language,
                 Emoji.CLIPBOARD.toString());
     }
 
     private static String getDeleteCommand(String language) {
-        return String.format(LocalisationService.getString("delete", language),
+        return LocalisationService.format("delete", language,
                 Emoji.HEAVY_MINUS_SIGN.toString());
     }
 
     private static String getLanguagesCommand(String language) {
-        return String.format(LocalisationService.getString("languages", language),
+        return LocalisationService.format("languages", language,
                 Emoji.GLOBE_WITH_MERIDIANS.toString());
     }
 
     private static String getUnitsCommand(String language) {
-        return String.format(LocalisationService.getString("units", language),
+        return LocalisationService.format("units", language,
                 Emoji.STRAIGHT_RULER.toString());
     }
 
     private static String getAlertsCommand(String language) {
-        return String.format(LocalisationService.getString("alerts", language),
+        return LocalisationService.format("alerts", language,
                 Emoji.ALARM_CLOCK.toString());
     }
 
     private static String getBackCommand(String language) {
-        return String.format(LocalisationService.getString("back", language),
+        return LocalisationService.format("back", language,
                 Emoji.BACK_WITH_LEFTWARDS_ARROW_ABOVE.toString());
     }
 
     private static String getNewCommand(String language) {
-        return String.format(LocalisationService.getString("new", language),
+        return LocalisationService.format("new", language,
                 Emoji.HEAVY_PLUS_SIGN.toString());
     }
 
     private static String getLocationCommand(String language) {
-        return String.format(LocalisationService.getString("location", language),
+        return LocalisationService.format("location", language,
                 Emoji.ROUND_PUSHPIN.toString());
     }
 
     private static String getSettingsCommand(String language) {
-        return String.format(LocalisationService.getString("settings", language),
+        return LocalisationService.format("settings", language,
                 Emoji.WRENCH.toString());
     }
 
     private static String getCurrentCommand(String language) {
-        return String.format(LocalisationService.getString("current", language),
+        return LocalisationService.format("current", language,
                 Emoji.BLACK_RIGHT_POINTING_TRIANGLE.toString());
     }
 
     private static String getForecastCommand(String language) {
-        return String.format(LocalisationService.getString("forecast", language),
+        return LocalisationService.format("forecast", language,
                 Emoji.BLACK_RIGHT_POINTING_DOUBLE_TRIANGLE.toString());
     }
 
     private static String getCancelCommand(String language) {
-        return String.format(LocalisationService.getString("cancel", language),
+        return LocalisationService.format("cancel", language,
                 Emoji.CROSS_MARK.toString());
     }
     // endregion getCommnads
@@ -1081,7 +1162,7 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
     // region Send common messages
 
     private static SendMessage sendMessageDefault(Message message, String language) {
-        ReplyKeyboardMarkup replyKeyboardMarkup = getMainMenuKeyboard(language);
+        ReplyKeyboard replyKeyboardMarkup = getMainMenuKeyboard(language);
         DatabaseManager.getInstance().insertWeatherState(message.getFrom().getId(), message.getChatId(), MAINMENU);
         return sendHelpMessage(message.getChatId(), message.getMessageId(), replyKeyboardMarkup, language);
     }
@@ -1096,7 +1177,7 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
         return sendMessage;
     }
 
-    private static SendMessage sendHelpMessage(Long chatId, Integer messageId, ReplyKeyboardMarkup replyKeyboardMarkup, String language) {
+    private static SendMessage sendHelpMessage(Long chatId, Integer messageId, ReplyKeyboard replyKeyboardMarkup, String language) {
         SendMessage sendMessage = new SendMessage(String.valueOf(chatId), getHelpMessage(language));
         sendMessage.enableMarkdown(true);
         sendMessage.setReplyToMessageId(messageId);
@@ -1106,7 +1187,7 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
         return sendMessage;
     }
 
-    private static SendMessage sendRateMessage(Long chatId, Integer messageId, ReplyKeyboardMarkup replyKeyboardMarkup, String language) {
+    private static SendMessage sendRateMessage(Long chatId, Integer messageId, ReplyKeyboard replyKeyboardMarkup, String language) {
         SendMessage sendMessage = new SendMessage(String.valueOf(chatId), LocalisationService.getString("rateMeMessage", language));
         sendMessage.enableMarkdown(true);
         sendMessage.setReplyToMessageId(messageId);
@@ -1172,4 +1253,14 @@ public class WeatherHandlers implements LongPollingSingleThreadUpdateConsumer {
     }
 
     // endregion Send weather
+
+    private enum Keyboard {
+        MAINMENU, LANGUAGES, UNITS, SETTINGS, ALERTS
+    }
+
+    private record AlertGroupKey(int cityId, String language, String units) {
+    }
+
+    private record AlertGroup(AlertGroupKey key, List<WeatherAlert> weatherAlerts, int attempts) {
+    }
 }
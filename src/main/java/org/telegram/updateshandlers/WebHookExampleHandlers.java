@@ -3,6 +3,8 @@ package org.telegram.updateshandlers;
 import lombok.extern.slf4j.Slf4j;
 import org.telegram.BotConfig;
 import org.telegram.BuildVars;
+import org.telegram.services.HttpClientProvider;
+import org.telegram.services.RateLimitedTelegramClient;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
 import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -23,7 +25,7 @@ public class WebHookExampleHandlers implements TelegramWebhookBot {
     private final TelegramClient telegramClient;
 
     public WebHookExampleHandlers(String botToken) {
-        telegramClient = new OkHttpTelegramClient(botToken);
+        telegramClient = new RateLimitedTelegramClient(botToken, new OkHttpTelegramClient(HttpClientProvider.getInstance().getTelegramClient(), botToken));
     }
 
     @Override
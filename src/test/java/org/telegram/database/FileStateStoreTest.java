@@ -0,0 +1,138 @@
+package org.telegram.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Changes of the file state store must survive a restart, whether they are replayed from the log or from
+ * a snapshot taken while they were being applied.
+ */
+class FileStateStoreTest {
+    private static final int SMALLSEGMENTBYTES = 512; ///< A few changes per segment, so the tests roll and snapshot often
+
+    @TempDir
+    Path directory;
+
+    private final List<FileStateStore> openStores = new ArrayList<>();
+
+    @AfterEach
+    void closeStores() {
+        openStores.forEach(FileStateStore::close);
+    }
+
+    @Test
+    void recoversEveryKindOfChange() {
+        FileStateStore store = open(1 << 20);
+        store.setUserStateForCommandsBot(1L, true);
+        store.addFile("file1", 1L, "caption 1");
+        store.addFile("file2", 1L, "caption 2");
+        store.deleteFile("file2");
+        store.addUserForFile(2L, 3);
+        store.addRecentWeather(3L, 10, "Madrid");
+        store.addRecentWeather(3L, 20, "Paris");
+        store.addUserForDirection(4L, 1, 99, "Home");
+        store.putLastUpdate("token", 1234);
+        store.putUserLanguage(5L, "es");
+        store.insertWeatherState(6L, 7L, 2);
+        store.putUserWeatherLanguageOption(6L, "it");
+        store.putUserWeatherUnitsOption(6L, "imperial");
+        store.createNewWeatherAlert(8L, 10, "Madrid");
+        store.createNewWeatherAlert(8L, 20, "Paris");
+        store.deleteAlertCity(8L, "Paris");
+        store.close();
+
+        FileStateStore recovered = open(1 << 20);
+        assertTrue(recovered.getUserStateForCommandsBot(1L));
+        assertEquals(Map.of("file1", "caption 1"), recovered.getFilesByUser(1L));
+        assertEquals(3, recovered.getUserStatusForFile(2L));
+        assertEquals(List.of("Paris", "Madrid"), recovered.getRecentWeather(3L));
+        assertEquals(1, recovered.getUserDestinationStatus(4L));
+        assertEquals(99, recovered.getUserDestinationMessageId(4L));
+        assertEquals("Home", recovered.getUserOrigin(4L));
+        assertEquals(1234, recovered.getLastUpdate("token"));
+        assertEquals("es", recovered.getUserLanguage(5L));
+        assertEquals(2, recovered.getWeatherState(6L, 7L));
+        assertArrayEquals(new String[] {"it", "imperial"}, recovered.getUserWeatherOptions(6L));
+        assertEquals(List.of("Madrid"), recovered.getAlertCitiesNameByUser(8L));
+    }
+
+    @Test
+    void recoversDeletionsAndPurges() {
+        FileStateStore store = open(1 << 20);
+        store.addUserForFile(1L, 1);
+        store.deleteUserForFile(1L);
+        store.addUserForDirection(2L, 1, 5, "Home");
+        store.insertWeatherState(3L, 4L, 2);
+        store.createNewWeatherAlert(5L, 10, "Madrid");
+        store.deleteAlertsForUser(5L);
+        assertEquals(1, store.purgeDirectionsOlderThan(System.currentTimeMillis() + 1000));
+        assertEquals(1, store.purgeWeatherStatesOlderThan(System.currentTimeMillis() + 1000));
+        store.close();
+
+        FileStateStore recovered = open(1 << 20);
+        assertEquals(-1, recovered.getUserStatusForFile(1L));
+        assertEquals(-1, recovered.getUserDestinationStatus(2L));
+        assertEquals(0, recovered.getWeatherState(3L, 4L));
+        assertTrue(recovered.getAlertCitiesNameByUser(5L).isEmpty());
+        assertTrue(recovered.getAllAlerts().isEmpty());
+    }
+
+    @Test
+    void keepsTheTimeConversationsWereUpdated() throws Exception {
+        FileStateStore store = open(1 << 20);
+        store.addUserForFile(1L, 1);
+        store.addUserForDirection(2L, 1, 5, "Home");
+        store.insertWeatherState(3L, 4L, 2);
+        long afterUpdates = System.currentTimeMillis() + 1;
+        store.close();
+        Thread.sleep(20);
+
+        open(1 << 20).close(); ///< Replays the log and writes the states to a snapshot
+        FileStateStore recovered = open(1 << 20);
+        assertEquals(0, recovered.purgeFilesUsersOlderThan(afterUpdates - 1000));
+        assertEquals(1, recovered.purgeFilesUsersOlderThan(afterUpdates));
+        assertEquals(1, recovered.purgeDirectionsOlderThan(afterUpdates));
+        assertEquals(1, recovered.purgeWeatherStatesOlderThan(afterUpdates));
+    }
+
+    @Test
+    void replayingSnapshotAndLogGivesTheLatestState() {
+        FileStateStore store = open(SMALLSEGMENTBYTES);
+        for (int i = 0; i < 500; i++) {
+            long userId = i % 13;
+            store.addUserForFile(userId, i);
+            store.putUserLanguage(userId, "lang" + i);
+            store.addRecentWeather(userId, i % 7, "City " + (i % 7));
+            if (i % 3 == 0) {
+                store.deleteUserForFile(userId);
+            }
+        }
+        store.close();
+
+        FileStateStore recovered = open(SMALLSEGMENTBYTES);
+        for (int i = 487; i < 500; i++) {
+            long userId = i % 13;
+            assertEquals(i % 3 == 0 ? -1 : i, recovered.getUserStatusForFile(userId));
+            assertEquals("lang" + i, recovered.getUserLanguage(userId));
+            assertEquals("City " + (i % 7), recovered.getRecentWeather(userId).get(0));
+        }
+    }
+
+    private FileStateStore open(int segmentBytes) {
+        FileStateStore store = new FileStateStore(directory, segmentBytes, 1, true);
+        openStores.add(store);
+        return store;
+    }
+}
@@ -0,0 +1,218 @@
+package org.telegram.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Recovery of the state log: replay of snapshots and segments, torn records and rolls during a snapshot.
+ * The state of the tests is a map of counters, every record sets a counter so replaying it twice is harmless.
+ */
+class StateLogTest {
+    private static final int SEGMENTBYTES = 256;
+
+    @TempDir
+    Path directory;
+
+    private final List<StateLog> openLogs = new ArrayList<>();
+
+    @AfterEach
+    void closeLogs() {
+        openLogs.forEach(StateLog::close);
+    }
+
+    @Test
+    void replaysAppendedRecordsAfterReopening() throws Exception {
+        Map<String, Integer> state = new TreeMap<>();
+        StateLog stateLog = open(state, SEGMENTBYTES * 16);
+        put(stateLog, state, "a", 1);
+        put(stateLog, state, "b", 2);
+        put(stateLog, state, "a", 3);
+        stateLog.close();
+
+        Map<String, Integer> recovered = new TreeMap<>();
+        open(recovered, SEGMENTBYTES * 16);
+        assertEquals(Map.of("a", 3, "b", 2), recovered);
+    }
+
+    @Test
+    void discardsTornRecordAtTheEndOfASegment() throws Exception {
+        Map<String, Integer> state = new TreeMap<>();
+        StateLog stateLog = open(state, SEGMENTBYTES * 16);
+        put(stateLog, state, "a", 1);
+        long endOfRecords = put(stateLog, state, "b", 2);
+        stateLog.close();
+
+        Path segment = latestSegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ByteBuffer tornRecord = ByteBuffer.allocate(12);
+            tornRecord.putInt(4).putInt(0xCAFE).putInt(42).flip(); ///< Header of a record whose bytes don't match its checksum
+            channel.write(tornRecord, endOfRecords);
+        }
+
+        Map<String, Integer> recovered = new TreeMap<>();
+        StateLog reopened = open(recovered, SEGMENTBYTES * 16);
+        assertEquals(Map.of("a", 1, "b", 2), recovered);
+
+        put(reopened, recovered, "c", 3);
+        reopened.close();
+        Map<String, Integer> recoveredAgain = new TreeMap<>();
+        open(recoveredAgain, SEGMENTBYTES * 16);
+        assertEquals(Map.of("a", 1, "b", 2, "c", 3), recoveredAgain);
+    }
+
+    @Test
+    void recoversFromSnapshotPlusLaterSegments() throws Exception {
+        Map<String, Integer> state = new TreeMap<>();
+        StateLog stateLog = open(state, SEGMENTBYTES);
+        for (int i = 0; i < 200; i++) {
+            put(stateLog, state, "key" + (i % 7), i);
+        }
+        awaitSnapshot();
+        put(stateLog, state, "key0", -1);
+        put(stateLog, state, "other", -2);
+        Map<String, Integer> expected = new TreeMap<>(state);
+        stateLog.close();
+
+        Map<String, Integer> recovered = new TreeMap<>();
+        open(recovered, SEGMENTBYTES);
+        assertEquals(expected, recovered);
+    }
+
+    @Test
+    void keepsChangesAppendedWhileASnapshotIsWritten() throws Exception {
+        Map<String, Integer> state = new TreeMap<>();
+        CountDownLatch snapshotStarted = new CountDownLatch(1);
+        CountDownLatch releaseSnapshot = new CountDownLatch(1);
+        StateLog stateLog = track(new StateLog(directory, SEGMENTBYTES, 1, true, record -> {
+        }, writer -> {
+            snapshotStarted.countDown();
+            try {
+                releaseSnapshot.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writeState(writer, state);
+        }));
+        assertTrue(snapshotStarted.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            put(stateLog, state, "key" + (i % 5), i); ///< Rolls several segments while the first snapshot is blocked
+        }
+        releaseSnapshot.countDown();
+        awaitSnapshot();
+        Map<String, Integer> expected = new TreeMap<>(state);
+        stateLog.close();
+
+        Map<String, Integer> recovered = new TreeMap<>();
+        open(recovered, SEGMENTBYTES);
+        assertEquals(expected, recovered);
+    }
+
+    /**
+     * Open the log replaying into a state, once the snapshot taken on start is written
+     */
+    private StateLog open(Map<String, Integer> state, int segmentBytes) throws Exception {
+        StateLog stateLog = track(new StateLog(directory, segmentBytes, 1, true,
+                record -> state.put(record.readUTF(), record.readInt()),
+                writer -> writeState(writer, state)));
+        awaitSnapshot();
+        return stateLog;
+    }
+
+    private StateLog track(StateLog stateLog) {
+        openLogs.add(stateLog);
+        return stateLog;
+    }
+
+    /**
+     * Apply a change to the state and append it, as FileStateStore does
+     *
+     * @return Position of the log after the change
+     */
+    private static long put(StateLog stateLog, Map<String, Integer> state, String key, int value) throws IOException {
+        byte[] record = encode(key, value);
+        long position;
+        synchronized (state) {
+            state.put(key, value);
+            position = stateLog.append(record, record.length);
+        }
+        stateLog.awaitSync(position);
+        return position;
+    }
+
+    private static void writeState(StateLog.RecordWriter writer, Map<String, Integer> state) throws IOException {
+        Map<String, Integer> copy;
+        synchronized (state) {
+            copy = new TreeMap<>(state);
+        }
+        for (Map.Entry<String, Integer> entry : copy.entrySet()) {
+            byte[] record = encode(entry.getKey(), entry.getValue());
+            writer.write(record, record.length);
+        }
+    }
+
+    private static byte[] encode(String key, int value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeUTF(key);
+        output.writeInt(value);
+        return bytes.toByteArray();
+    }
+
+    private Path latestSegment() throws IOException {
+        return directory.resolve("wal-" + generations("wal-").stream().mapToLong(Long::longValue).max().orElse(0));
+    }
+
+    /**
+     * @return Generations of the complete files with a prefix
+     */
+    private List<Long> generations(String prefix) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                String generation = file.getFileName().toString().substring(prefix.length());
+                if (!generation.endsWith(".tmp")) {
+                    generations.add(Long.parseLong(generation));
+                }
+            }
+        }
+        return generations;
+    }
+
+    /**
+     * Wait until the snapshot of the current segment is written and the older files are deleted
+     */
+    private void awaitSnapshot() throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            List<Long> segments = generations("wal-");
+            List<Long> snapshots = generations("snapshot-");
+            if (segments.size() == 1 && snapshots.equals(segments)) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Snapshot not written");
+    }
+}
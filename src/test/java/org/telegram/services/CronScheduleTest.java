@@ -0,0 +1,92 @@
+package org.telegram.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Next executions of cron expressions and fixed rate schedules
+ */
+class CronScheduleTest {
+    private static final long WEDNESDAY = Instant.parse("2025-01-15T10:20:30Z").toEpochMilli();
+
+    @Test
+    void runsDailyAtTheTime() {
+        Schedule schedule = Schedule.dailyAt(12, 0, 0);
+        assertEquals("2025-01-15T12:00:00Z", next(schedule, WEDNESDAY));
+        assertEquals("2025-01-16T12:00:00Z", next(schedule, Instant.parse("2025-01-15T12:00:00Z").toEpochMilli()));
+        assertEquals("2025-01-16T00:00:00Z", next(Schedule.dailyAt(0, 0, 0), WEDNESDAY));
+    }
+
+    @Test
+    void isStrictlyAfterTheGivenTime() {
+        Schedule schedule = CronSchedule.parse("* * * * * *");
+        assertEquals("2025-01-15T10:20:31Z", next(schedule, WEDNESDAY));
+        assertEquals("2025-01-15T10:20:31Z", next(schedule, WEDNESDAY + 999));
+    }
+
+    @Test
+    void supportsListsRangesAndSteps() {
+        Schedule schedule = CronSchedule.parse("0 */15 9-17 * * 1-5");
+        assertEquals("2025-01-15T10:30:00Z", next(schedule, WEDNESDAY));
+        assertEquals("2025-01-16T09:00:00Z", next(schedule, Instant.parse("2025-01-15T17:45:00Z").toEpochMilli()));
+        assertEquals("2025-01-20T09:00:00Z", next(schedule, Instant.parse("2025-01-17T17:45:00Z").toEpochMilli()));
+        assertEquals("2025-01-15T10:20:40Z", next(CronSchedule.parse("10,40 20 10 * * *"), WEDNESDAY));
+        assertEquals("2025-01-15T10:35:00Z", next(CronSchedule.parse("0 5/30 * * * *"), WEDNESDAY));
+    }
+
+    @Test
+    void matchesEitherDayWhenBothDaysAreRestricted() {
+        Schedule schedule = CronSchedule.parse("0 0 0 20 * 5");
+        assertEquals("2025-01-17T00:00:00Z", next(schedule, WEDNESDAY)); ///< Friday before the 20th
+        assertEquals("2025-01-20T00:00:00Z", next(schedule, Instant.parse("2025-01-17T00:00:00Z").toEpochMilli()));
+    }
+
+    @Test
+    void matchesBothDaysWhenOneIsAny() {
+        assertEquals("2025-01-20T00:00:00Z", next(CronSchedule.parse("0 0 0 20 * *"), WEDNESDAY));
+        assertEquals("2025-01-17T00:00:00Z", next(CronSchedule.parse("0 0 0 * * 5"), WEDNESDAY));
+    }
+
+    @Test
+    void acceptsSevenAsSunday() {
+        assertEquals("2025-01-19T00:00:00Z", next(CronSchedule.parse("0 0 0 * * 7"), WEDNESDAY));
+        assertEquals("2025-01-19T00:00:00Z", next(CronSchedule.parse("0 0 0 * * 0"), WEDNESDAY));
+    }
+
+    @Test
+    void findsRareAndImpossibleDates() {
+        assertEquals("2028-02-29T00:00:00Z", next(CronSchedule.parse("0 0 0 29 2 *"), WEDNESDAY));
+        assertEquals(-1, CronSchedule.parse("0 0 0 30 2 *").nextExecutionMillis(WEDNESDAY));
+    }
+
+    @Test
+    void rejectsInvalidExpressions() {
+        assertThrows(IllegalArgumentException.class, () -> CronSchedule.parse("0 0 12 * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronSchedule.parse("60 0 12 * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronSchedule.parse("0 0 12 0 * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronSchedule.parse("0 0 5-3 * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronSchedule.parse("0 0 */0 * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronSchedule.parse("0 0 noon * * *"));
+    }
+
+    @Test
+    void fixedRateSkipsMissedExecutions() {
+        long before = System.currentTimeMillis();
+        Schedule schedule = Schedule.fixedRate(1000, 500);
+        long first = schedule.nextExecutionMillis(before);
+        assertTrue(first >= before + 1000 && first <= System.currentTimeMillis() + 1000);
+        assertEquals(first + 500, schedule.nextExecutionMillis(first));
+        assertEquals(first + 2000, schedule.nextExecutionMillis(first + 1700));
+    }
+
+    private static String next(Schedule schedule, long afterMillis) {
+        return Instant.ofEpochMilli(schedule.nextExecutionMillis(afterMillis)).toString();
+    }
+}
@@ -0,0 +1,80 @@
+package org.telegram.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Templates must render exactly what String.format renders for the same pattern and arguments,
+ * for every string of the bundled localisation files.
+ */
+class MessageTemplateTest {
+    private static final List<String> STRINGSFILES = List.of("strings", "strings_eo", "strings_es", "strings_it",
+            "strings_nl", "strings_pt");
+    private static final Object[] ARGUMENTS = {11, 22, 33, 44, 55, 66, 77, 88, 99, 1010, 1111, 1212}; ///< Valid for %s and %d
+
+    @Test
+    void rendersTheStringsFilesLikeStringFormat() throws IOException {
+        for (String fileName : STRINGSFILES) {
+            Properties strings = readStrings(fileName);
+            for (String key : strings.stringPropertyNames()) {
+                String pattern = strings.getProperty(key);
+                assertEquals(String.format(pattern, ARGUMENTS), MessageTemplate.compile(pattern).render(ARGUMENTS),
+                        fileName + " " + key);
+            }
+        }
+    }
+
+    @Test
+    void rendersEverySupportedSpecifierLikeStringFormat() {
+        List<String> patterns = List.of(
+                "",
+                "No arguments",
+                "%s",
+                "Hello %s, you have %d files",
+                "%2$s before %1$s and %2$s again",
+                "%1$s then %s then %s", ///< Positional arguments don't move the ordinary index
+                "100%% sure %s%%",
+                "First line%nSecond line\nThird %s\n",
+                "%s%s%s",
+                "Rate %2$.2f stays with String.format");
+        Object[] arguments = {"one", 2.5, "three"};
+        for (String pattern : patterns) {
+            Object[] patternArguments = pattern.contains("%d") ? new Object[]{"Ruben", 3} : arguments;
+            assertEquals(String.format(pattern, patternArguments), MessageTemplate.compile(pattern).render(patternArguments),
+                    pattern);
+        }
+    }
+
+    @Test
+    void appendsToTheEndOfABuilder() {
+        MessageTemplate template = MessageTemplate.compile("%2$s-%1$s%n");
+        StringBuilder builder = new StringBuilder("start:");
+        template.renderTo(builder, "a", "b");
+        template.renderTo(builder, "c", "d");
+        assertEquals("start:" + String.format("%2$s-%1$s%n", "a", "b") + String.format("%2$s-%1$s%n", "c", "d"),
+                builder.toString());
+    }
+
+    private static Properties readStrings(String fileName) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream stream = MessageTemplateTest.class.getClassLoader().getResourceAsStream(fileName + ".properties")) {
+            assertNotNull(stream, fileName + " not found");
+            try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,103 @@
+package org.telegram.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Order and limits of the requests sent by the dispatcher: lanes by priority, chats one request at a time
+ * and in order, and buckets of every bot independent of the others.
+ */
+class OutboundDispatcherTest {
+    private static final String BOT = "bot";
+    private static final String OTHERBOT = "otherbot";
+
+    @Test
+    void sendsInteractiveRequestsBeforeBulkOnes() throws Exception {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(2, 100, 100, 1);
+        CompletableFuture.allOf(
+                dispatcher.submit(BOT, OutboundDispatcher.Priority.INTERACTIVE, null, () -> "first"),
+                dispatcher.submit(BOT, OutboundDispatcher.Priority.INTERACTIVE, null, () -> "second"))
+                .get(5, TimeUnit.SECONDS); ///< Bucket of the bot empty, the next requests wait in their lanes
+
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture.allOf(
+                dispatcher.submit(BOT, OutboundDispatcher.Priority.BULK, null, () -> sent.add("bulk1")),
+                dispatcher.submit(BOT, OutboundDispatcher.Priority.BULK, null, () -> sent.add("bulk2")),
+                dispatcher.submit(BOT, OutboundDispatcher.Priority.INTERACTIVE, null, () -> sent.add("interactive")))
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("interactive", "bulk1", "bulk2"), sent);
+    }
+
+    @Test
+    void sendsTheRequestsOfAChatOneAtATimeAndInOrder() throws Exception {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(1000, 1000, 1000, 4);
+        Map<String, List<Integer>> sentByChat = new TreeMap<>();
+        Map<String, AtomicInteger> inFlightByChat = new TreeMap<>();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        for (int chat = 0; chat < 4; chat++) {
+            sentByChat.put("chat" + chat, Collections.synchronizedList(new ArrayList<>()));
+            inFlightByChat.put("chat" + chat, new AtomicInteger());
+        }
+        for (int i = 0; i < 25; i++) {
+            for (int chat = 0; chat < 4; chat++) {
+                final String chatId = "chat" + chat;
+                final int request = i;
+                requests.add(dispatcher.submit(BOT, OutboundDispatcher.Priority.INTERACTIVE, chatId, () -> {
+                    if (inFlightByChat.get(chatId).incrementAndGet() > 1) {
+                        overlapped.set(true);
+                    }
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    sentByChat.get(chatId).add(request);
+                    inFlightByChat.get(chatId).decrementAndGet();
+                    return request;
+                }));
+            }
+        }
+        CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        assertFalse(overlapped.get(), "Two requests to the same chat were sent at the same time");
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            expected.add(i);
+        }
+        for (List<Integer> sent : sentByChat.values()) {
+            assertEquals(expected, sent);
+        }
+    }
+
+    @Test
+    void limitsEveryBotOnItsOwn() throws Exception {
+        OutboundDispatcher dispatcher = new OutboundDispatcher(1, 1, 1, 2);
+        dispatcher.submit(BOT, OutboundDispatcher.Priority.INTERACTIVE, "chat", () -> "first").get(5, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        CompletableFuture<Long> limitedBot = dispatcher.submit(BOT, OutboundDispatcher.Priority.INTERACTIVE, "otherchat",
+                System::nanoTime);
+        CompletableFuture<Long> otherBotSameChat = dispatcher.submit(OTHERBOT, OutboundDispatcher.Priority.INTERACTIVE, "chat",
+                System::nanoTime);
+        long otherBotSentAfter = TimeUnit.NANOSECONDS.toMillis(otherBotSameChat.get(5, TimeUnit.SECONDS) - start);
+        long limitedBotSentAfter = TimeUnit.NANOSECONDS.toMillis(limitedBot.get(5, TimeUnit.SECONDS) - start);
+        assertTrue(otherBotSentAfter < 300, "Other bot waited " + otherBotSentAfter + "ms");
+        assertTrue(limitedBotSentAfter > 500, "Limited bot waited " + limitedBotSentAfter + "ms");
+    }
+}
@@ -0,0 +1,98 @@
+package org.telegram.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Results of the RAE cache kept in disk: read back by a new cache and swept when expired or too many
+ */
+class RaeResultsCacheTest {
+    private static final long TTLMILLIS = 3600000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsResultsWrittenByAnotherCache() {
+        new RaeResultsCache(directory, 10, 10, TTLMILLIS).put("punto", List.of(result("punto")));
+        RaeResultsCache.CachedResults cachedResults = new RaeResultsCache(directory, 10, 10, TTLMILLIS).get("punto");
+        assertNotNull(cachedResults);
+        assertEquals("punto", cachedResults.results().get(0).word);
+        assertTrue(fileNames().stream().allMatch(name -> name.endsWith(".json")), "Temporary files left " + fileNames());
+    }
+
+    @Test
+    void sweepsExpiredAndOldestResults() throws IOException {
+        RaeResultsCache cache = new RaeResultsCache(directory, 10, 2, TTLMILLIS);
+        long now = System.currentTimeMillis();
+        List<String> queries = List.of("expired", "oldest", "older", "newest");
+        for (String query : queries) {
+            cache.put(query, List.of(result(query)));
+        }
+        assertEquals(4, resultFiles().size());
+        setWritten("expired", now - 2 * TTLMILLIS);
+        setWritten("oldest", now - 3000);
+        setWritten("older", now - 2000);
+        setWritten("newest", now - 1000);
+        Path temporaryFile = Files.createTempFile(directory, "rae", ".tmp");
+        Files.setLastModifiedTime(temporaryFile, FileTime.fromMillis(now - TTLMILLIS));
+
+        assertEquals(3, cache.sweepDisk());
+        RaeResultsCache reopened = new RaeResultsCache(directory, 10, 2, TTLMILLIS);
+        assertNull(reopened.get("expired"));
+        assertNull(reopened.get("oldest"));
+        assertNotNull(reopened.get("older"));
+        assertNotNull(reopened.get("newest"));
+        assertEquals(2, fileNames().size());
+    }
+
+    private void setWritten(String query, long writtenMillis) throws IOException {
+        for (Path file : resultFiles()) {
+            if (Files.readString(file).contains("\"query\":\"" + query + "\"")) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(writtenMillis));
+                return;
+            }
+        }
+        throw new AssertionError("No file for " + query);
+    }
+
+    private List<Path> resultFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private List<String> fileNames() {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(file -> names.add(file.getFileName().toString()));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return names;
+    }
+
+    private static RaeService.RaeResult result(String word) {
+        RaeService.RaeResult result = new RaeService.RaeResult();
+        result.word = word;
+        result.definition = "Definición de " + word;
+        return result;
+    }
+}
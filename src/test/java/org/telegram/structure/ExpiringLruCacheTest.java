@@ -0,0 +1,50 @@
+package org.telegram.structure;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Values loaded from the storage are discarded only when their own key was removed while loading
+ */
+class ExpiringLruCacheTest {
+
+    @Test
+    void discardsLoadedValuesOfKeysRemovedWhileLoading() {
+        ExpiringLruCache<Long, String> cache = new ExpiringLruCache<>(10, 0);
+        long removalStamp = cache.getRemovalStamp();
+        cache.remove(1L);
+        assertFalse(cache.putIfNotRemoved(1L, "stale", removalStamp));
+        assertNull(cache.get(1L));
+        assertTrue(cache.putIfNotRemoved(1L, "fresh", cache.getRemovalStamp()));
+        assertEquals("fresh", cache.get(1L));
+    }
+
+    @Test
+    void keepsLoadedValuesOfOtherKeys() {
+        ExpiringLruCache<Long, String> cache = new ExpiringLruCache<>(10, 0);
+        long removalStamp = cache.getRemovalStamp();
+        cache.remove(1L);
+        for (long key = 2; key < 6; key++) {
+            assertTrue(cache.putIfNotRemoved(key, "loaded", removalStamp));
+        }
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    void discardsValuesLoadedBeforeAForgottenRemoval() {
+        ExpiringLruCache<Long, String> cache = new ExpiringLruCache<>(2, 0);
+        long removalStamp = cache.getRemovalStamp();
+        for (long key = 1; key <= 3; key++) {
+            cache.remove(key); ///< The removal of key 1 is forgotten
+        }
+        assertFalse(cache.putIfNotRemoved(1L, "stale", removalStamp));
+        assertFalse(cache.putIfNotRemoved(4L, "unknown", removalStamp));
+        assertTrue(cache.putIfNotRemoved(4L, "loaded", cache.getRemovalStamp()));
+    }
+}
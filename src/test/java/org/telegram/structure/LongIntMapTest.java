@@ -0,0 +1,157 @@
+package org.telegram.structure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Open addressing tables of the primitive map: the key 0 stored apart, backward shift removals across the
+ * end of the table, expiry and growth, checked against a HashMap.
+ */
+class LongIntMapTest {
+    private static final int SEGMENTBITS = 4; ///< Same hash and segments as the map, to build clusters on purpose
+    private static final int INITIALCAPACITY = 16;
+
+    @Test
+    void storesTheKeyZeroApart() {
+        LongIntMap map = new LongIntMap(0);
+        assertFalse(map.containsKey(0));
+        assertEquals(-1, map.get(0, -1));
+        map.put(0, 7);
+        map.put(1, 8);
+        assertTrue(map.containsKey(0));
+        assertEquals(7, map.get(0, -1));
+        assertEquals(2, map.size());
+        assertTrue(map.remove(0));
+        assertFalse(map.remove(0));
+        assertEquals(-1, map.get(0, -1));
+        assertEquals(8, map.get(1, -1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void keepsEntriesReachableWhenRemovingAcrossTheEndOfTheTable() {
+        List<Long> lastSlotKeys = keysWithHomeSlot(INITIALCAPACITY - 1, 4); ///< Cluster wrapping to the first slots
+        List<Long> firstSlotKeys = keysWithHomeSlot(0, 2); ///< Placed after the wrapped part of the cluster
+        List<Long> allKeys = new ArrayList<>(lastSlotKeys);
+        allKeys.addAll(firstSlotKeys);
+        for (int removed = 0; removed < lastSlotKeys.size(); removed++) {
+            LongIntMap map = new LongIntMap(0);
+            Map<Long, Integer> expected = new HashMap<>();
+            for (long key : lastSlotKeys) {
+                map.put(key, (int) key);
+                expected.put(key, (int) key);
+            }
+            for (long key : firstSlotKeys) {
+                map.put(key, (int) key);
+                expected.put(key, (int) key);
+            }
+            assertTrue(map.remove(lastSlotKeys.get(removed)));
+            expected.remove(lastSlotKeys.get(removed));
+            assertSameEntries(expected, map, allKeys);
+
+            assertTrue(map.remove(firstSlotKeys.get(0)));
+            expected.remove(firstSlotKeys.get(0));
+            assertSameEntries(expected, map, allKeys);
+        }
+    }
+
+    @Test
+    void growsKeepingEveryEntry() {
+        LongIntMap map = new LongIntMap(0);
+        for (int i = 1; i <= 100000; i++) {
+            map.put(i * 31L, i);
+        }
+        assertEquals(100000, map.size());
+        for (int i = 1; i <= 100000; i += 2) {
+            assertTrue(map.remove(i * 31L));
+        }
+        assertEquals(50000, map.size());
+        for (int i = 1; i <= 100000; i++) {
+            assertEquals(i % 2 == 0 ? i : -1, map.get(i * 31L, -1));
+        }
+    }
+
+    @Test
+    void behavesLikeAHashMap() {
+        LongIntMap map = new LongIntMap(0);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(200) - 100; ///< Few keys, so removals shift long clusters
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    map.put(key, i);
+                    expected.put(key, i);
+                }
+                case 1 -> assertEquals(expected.remove(key) != null, map.remove(key), "Removing " + key);
+                default -> assertEquals(expected.getOrDefault(key, -1), map.get(key, -1), "Getting " + key);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = -100; key < 100; key++) {
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+    }
+
+    @Test
+    void expiresEntries() throws Exception {
+        LongIntMap map = new LongIntMap(1);
+        LongSet set = new LongSet(1);
+        for (long key = 0; key < 100; key++) {
+            map.put(key, 1);
+            map.put(key + 1000, 2, 0); ///< Never expires
+            set.add(key);
+        }
+        assertEquals(200, map.size());
+        Thread.sleep(1100); ///< Expirations have a resolution of a second
+
+        assertEquals(-1, map.get(0, -1));
+        assertFalse(map.containsKey(5));
+        assertFalse(map.remove(6));
+        assertFalse(set.contains(0));
+        assertEquals(97, map.purgeExpired()); ///< Expired keys read were already removed
+        assertEquals(100, map.size());
+        assertEquals(99, set.purgeExpired());
+        assertEquals(0, set.size());
+        for (long key = 0; key < 100; key++) {
+            assertEquals(2, map.get(key + 1000, -1));
+        }
+    }
+
+    private static void assertSameEntries(Map<Long, Integer> expected, LongIntMap map, List<Long> keys) {
+        assertEquals(expected.size(), map.size());
+        for (long key : keys) {
+            assertEquals(expected.getOrDefault(key, -1), map.get(key, -1), "Getting " + key);
+        }
+    }
+
+    /**
+     * @return Keys of the first segment whose hash places them in a slot of the initial table
+     */
+    private static List<Long> keysWithHomeSlot(int slot, int count) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < count; key++) {
+            int hash = hash(key);
+            if (hash >>> (32 - SEGMENTBITS) == 0 && (hash & (INITIALCAPACITY - 1)) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static int hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,106 @@
+package org.telegram.structure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Tasks of the timing wheel must expire within a tick after their deadline, never before, wherever they
+ * were placed. The wheels of the tests have few slots so deadlines cascade through several levels.
+ */
+class TimingWheelTest {
+    private static final long TICK = 100;
+    private static final int SLOTS = 4;
+    private static final long START = 1_000_000_000L;
+
+    @Test
+    void expiresTasksWithinATickAfterTheirDeadline() {
+        TimingWheel wheel = new TimingWheel(TICK, SLOTS, START);
+        Random random = new Random(42);
+        long[] deadlines = new long[2000];
+        long[] expirations = new long[deadlines.length];
+        long[] now = {START};
+        for (int i = 0; i < deadlines.length; i++) {
+            deadlines[i] = START + 1 + random.nextInt(1_000_000); ///< Up to level 5 of a 4 slot wheel
+            final int task = i;
+            assertNotNull(wheel.add(() -> expirations[task] = now[0], deadlines[i]));
+        }
+        assertEquals(deadlines.length, wheel.size());
+        while (wheel.size() > 0) {
+            now[0] += TICK;
+            wheel.advance(now[0], Runnable::run);
+        }
+        for (int i = 0; i < deadlines.length; i++) {
+            assertTrue(expirations[i] >= deadlines[i], "Task " + i + " expired before its deadline");
+            assertTrue(expirations[i] <= deadlines[i] + TICK, "Task " + i + " expired late");
+        }
+    }
+
+    @Test
+    void expiresEveryTaskDueWhenAdvancedLate() {
+        TimingWheel wheel = new TimingWheel(TICK, SLOTS, START);
+        List<Integer> expired = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final int task = i;
+            wheel.add(() -> expired.add(task), START + 1 + i * 997L);
+        }
+        assertEquals(50, wheel.advance(START + 50 * 997L, Runnable::run));
+        assertEquals(50, expired.size());
+        assertEquals(50, wheel.size());
+    }
+
+    @Test
+    void cancelledTasksNeverExpire() {
+        TimingWheel wheel = new TimingWheel(TICK, SLOTS, START);
+        List<String> expired = new ArrayList<>();
+        TimingWheel.Timeout near = wheel.add(() -> expired.add("near"), START + TICK);
+        TimingWheel.Timeout far = wheel.add(() -> expired.add("far"), START + 100 * TICK);
+        wheel.add(() -> expired.add("kept"), START + 50 * TICK);
+        assertTrue(near.cancel());
+        assertTrue(far.cancel());
+        assertFalse(far.cancel());
+        assertEquals(1, wheel.size());
+        wheel.advance(START + 200 * TICK, Runnable::run);
+        assertEquals(List.of("kept"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cancellingAnExpiredTaskDoesNothing() {
+        TimingWheel wheel = new TimingWheel(TICK, SLOTS, START);
+        TimingWheel.Timeout timeout = wheel.add(() -> {
+        }, START + TICK);
+        wheel.advance(START + 3 * TICK, Runnable::run);
+        assertFalse(timeout.cancel());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void doesNotHoldTasksAlreadyDue() {
+        TimingWheel wheel = new TimingWheel(TICK, SLOTS, START);
+        assertNull(wheel.add(() -> {
+        }, START - 1));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void holdsDeadlinesBeyondTheLargestLevel() {
+        TimingWheel wheel = new TimingWheel(TICK, SLOTS, START);
+        List<String> expired = new ArrayList<>();
+        wheel.add(() -> expired.add("never"), Long.MAX_VALUE);
+        wheel.add(() -> expired.add("soon"), START + 10 * TICK);
+        wheel.advance(START + 1000 * TICK, Runnable::run);
+        assertEquals(List.of("soon"), expired);
+        assertEquals(1, wheel.size());
+    }
+}
@@ -0,0 +1,72 @@
+package org.telegram.structure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Ruben Bermudez
+ * @version 1.0
+ * Tokens of the bucket: burst up to the capacity, refill at the rate and blocks after "Too Many Requests"
+ */
+class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void allowsABurstUpToTheCapacity() {
+        TokenBucket bucket = new TokenBucket(3, 1);
+        long now = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.nanosUntilAvailable(now));
+            bucket.consume(now);
+        }
+        long wait = bucket.nanosUntilAvailable(now);
+        assertTrue(wait > SECOND * 9 / 10 && wait <= SECOND, "Waiting " + wait);
+    }
+
+    @Test
+    void refillsAtTheRateUpToTheCapacity() {
+        TokenBucket bucket = new TokenBucket(3, 2);
+        long now = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            bucket.consume(now);
+        }
+        assertTrue(bucket.nanosUntilAvailable(now + SECOND / 4) > 0);
+        assertEquals(0, bucket.nanosUntilAvailable(now + SECOND / 2));
+
+        long later = now + 10 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.nanosUntilAvailable(later));
+            bucket.consume(later);
+        }
+        assertTrue(bucket.nanosUntilAvailable(later) > 0);
+    }
+
+    @Test
+    void givesNoTokenWhileBlocked() {
+        TokenBucket bucket = new TokenBucket(3, 1000);
+        long blockedAt = System.nanoTime();
+        bucket.blockFor(SECOND);
+        assertTrue(bucket.nanosUntilAvailable(blockedAt) > SECOND * 9 / 10);
+        assertTrue(bucket.nanosUntilAvailable(blockedAt + SECOND / 2) > 0);
+        assertEquals(0, bucket.nanosUntilAvailable(blockedAt + 2 * SECOND));
+    }
+
+    @Test
+    void isIdleOnlyWhenFullAndNotBlocked() {
+        TokenBucket bucket = new TokenBucket(2, 1);
+        long now = System.nanoTime();
+        assertTrue(bucket.isIdle(now));
+        bucket.consume(now);
+        assertFalse(bucket.isIdle(now));
+        assertTrue(bucket.isIdle(now + 2 * SECOND));
+
+        bucket.blockFor(10 * SECOND);
+        assertFalse(bucket.isIdle(now + 5 * SECOND));
+        assertTrue(bucket.isIdle(now + 20 * SECOND));
+    }
+}